@@ -2,17 +2,24 @@ package com.vincentbrison.openlibraries.android.dualcache;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Serializer which will serialize and deserialize object using <a href="https://github.com/FasterXML/jackson">Jackson</a>
- * converter.
+ * converter. It also implements {@link BinaryCacheSerializer} and {@link StreamCacheSerializer},
+ * so that the cache can write and read UTF-8 json bytes without building intermediate Strings,
+ * and stream large values from and to the disk layer.
  * @param <T> is the class of object to serialize/deserialize.
  */
-public class JsonSerializer<T> implements CacheSerializer<T> {
+public class JsonSerializer<T>
+    implements CacheSerializer<T>, BinaryCacheSerializer<T>, StreamCacheSerializer<T> {
     private final ObjectMapper mapper;
     private final Class<T> clazz;
 
@@ -26,6 +33,9 @@ public class JsonSerializer<T> implements CacheSerializer<T> {
         mapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
         mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
         mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+        // Streams are closed by the cache.
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        mapper.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
     }
 
     @Override
@@ -47,4 +57,34 @@ public class JsonSerializer<T> implements CacheSerializer<T> {
         }
         throw new IllegalStateException();
     }
+
+    @Override
+    public T fromBytes(byte[] data) {
+        try {
+            return mapper.readValue(data, clazz);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public byte[] toBytes(T object) {
+        try {
+            return mapper.writeValueAsBytes(object);
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+        }
+        throw new IllegalStateException();
+    }
+
+    @Override
+    public T read(InputStream inputStream) throws IOException {
+        return mapper.readValue(inputStream, clazz);
+    }
+
+    @Override
+    public void write(T object, OutputStream outputStream) throws IOException {
+        mapper.writeValue(outputStream, object);
+    }
 }
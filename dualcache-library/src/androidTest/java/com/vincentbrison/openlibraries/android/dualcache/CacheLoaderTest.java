@@ -0,0 +1,80 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test that a caller missing the RAM layer just before a load of the same key completes, and
+ * coalescing its load once that one is done, does not call the loader again, even when the
+ * objects are not on disk.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CacheLoaderTest {
+
+    private static final int RAM_MAX_SIZE = 100;
+    private static final int DISK_MAX_SIZE = 1024 * 1024;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("loader");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testLateCallerWithoutDisk() throws Exception {
+        checkLateCallerDoesNotLoad(newBuilder().noDisk());
+    }
+
+    @Test
+    public void testLateCallerWithDiskForRamEvictions() throws Exception {
+        checkLateCallerDoesNotLoad(newBuilder()
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .useDiskForRamEvictionsOnly()
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR));
+    }
+
+    private void checkLateCallerDoesNotLoad(Builder<String> builder) {
+        DualCache<String> cache = caches.add(builder.build());
+        final AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String> loader = new CacheLoader<String>() {
+            @Override
+            public String load(String key) {
+                loads.incrementAndGet();
+                return "value";
+            }
+        };
+        // The leader misses the RAM layer, loads the object and puts it in RAM.
+        assertEquals("value", cache.get("key", loader));
+        // A caller which missed the RAM layer before that put, only coalescing its load now.
+        assertEquals("value", cache.load("key", loader));
+        assertEquals(1, loads.get());
+    }
+
+    private static Builder<String> newBuilder() {
+        return new Builder<String>("loader", 0)
+            .enableLog()
+            .useReferenceInRam(RAM_MAX_SIZE, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            });
+    }
+}
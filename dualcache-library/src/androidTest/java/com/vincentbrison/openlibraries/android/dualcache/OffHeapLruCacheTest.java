@@ -0,0 +1,95 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the direct memory reserved by the off-heap RAM cache stays within its budget, whatever
+ * the sizes of the values.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OffHeapLruCacheTest {
+
+    private static final int MAX_SIZE = 1024 * 1024;
+    private static final int PUTS = 5000;
+    private static final long SEED = 42;
+
+    @Test
+    public void testReservedMemoryBounded() {
+        OffHeapLruCache cache = new OffHeapLruCache(
+            MAX_SIZE, DualCacheRamEvictionPolicy.LRU, null);
+        Random random = new Random(SEED);
+        for (int i = 0; i < PUTS; i++) {
+            // Sizes spread over every size class, and a few values larger than a slab.
+            int length = random.nextInt(10) == 0
+                ? MAX_SIZE / 8 + random.nextInt(MAX_SIZE / 8)
+                : 1 + random.nextInt(MAX_SIZE / 16);
+            byte[] value = new byte[length];
+            Arrays.fill(value, (byte) i);
+            cache.put("key" + i, value);
+
+            assertTrue("Reserved " + cache.reservedSize() + " bytes",
+                cache.reservedSize() <= MAX_SIZE);
+            assertArrayEquals(value, cache.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testIdleSlabsReleased() {
+        OffHeapLruCache cache = new OffHeapLruCache(
+            MAX_SIZE, DualCacheRamEvictionPolicy.LRU, null);
+        // One value in each size class, then only large values: the slabs kept for reuse by
+        // the small size classes are released for them.
+        for (int length = 1; length < MAX_SIZE / 16; length = length * 5 / 4 + 1) {
+            cache.put("small" + length, new byte[length]);
+            cache.remove("small" + length);
+        }
+        for (int i = 0; i < 7; i++) {
+            cache.put("large" + i, new byte[MAX_SIZE / 8]);
+        }
+        assertTrue(cache.reservedSize() <= MAX_SIZE);
+        assertTrue(cache.containsKey("large0"));
+    }
+
+    @Test
+    public void testOversizeValueEvicted() {
+        final List<byte[]> evicting = new ArrayList<>();
+        final List<String> evicted = new ArrayList<>();
+        RamCache.EvictionListener<String, byte[]> listener =
+            new RamCache.EvictionListener<String, byte[]>() {
+                @Override
+                public void onEvicting(String key, byte[] value) {
+                    evicting.add(value);
+                }
+
+                @Override
+                public void onEvicted(String key) {
+                    evicted.add(key);
+                }
+            };
+        OffHeapLruCache cache = new OffHeapLruCache(
+            MAX_SIZE, DualCacheRamEvictionPolicy.LRU, listener);
+        cache.put("key", new byte[1]);
+        byte[] value = new byte[MAX_SIZE + 1];
+        Arrays.fill(value, (byte) 1);
+        cache.put("key", value);
+
+        // Handed to the listener like any evicted value, the previous one being replaced.
+        assertFalse(cache.containsKey("key"));
+        assertEquals(1, evicting.size());
+        assertArrayEquals(value, evicting.get(0));
+        assertEquals(Arrays.asList("key"), evicted);
+    }
+}
@@ -0,0 +1,108 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test keys which are not valid file names, with both disk engines.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ArbitraryKeysTest {
+
+    private static final String[] KEYS = {
+        "https://example.com/images/a.png?size=large&format=webp",
+        "UPPER and lower case",
+        "../../escape",
+        "slashes/and\\backslashes",
+        "",
+        "caf\u00e9 \u65e5\u672c \ud83d\ude00",
+        "key",
+        "KEY",
+    };
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("arbitrary");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testFilePerEntry() throws Exception {
+        checkKeys(DualCacheDiskEngine.FILE_PER_ENTRY);
+    }
+
+    @Test
+    public void testLogStructured() throws Exception {
+        checkKeys(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    @Test
+    public void testLongKey() throws Exception {
+        StringBuilder key = new StringBuilder();
+        while (key.length() < 10000) {
+            key.append("segment/");
+        }
+        for (DualCacheDiskEngine engine : DualCacheDiskEngine.values()) {
+            DualCache<String> cache = openCache(engine);
+            cache.put(key.toString(), "value");
+            assertEquals("value", cache.get(key.toString()));
+            assertNull(cache.get(key.substring(1)));
+            cache.invalidate();
+        }
+    }
+
+    private void checkKeys(DualCacheDiskEngine engine) throws Exception {
+        DualCache<String> cache = openCache(engine);
+        for (String key : KEYS) {
+            cache.put(key, "value of " + key);
+        }
+        cache.delete("key");
+        assertFalse(cache.contains("key"));
+        assertTrue(cache.contains("KEY"));
+        cache.close();
+
+        DualCache<String> reopened = openCache(engine);
+        for (String key : KEYS) {
+            if (key.equals("key")) {
+                assertNull(reopened.get(key));
+            } else {
+                assertEquals("value of " + key, reopened.get(key));
+            }
+        }
+        assertFalse(new File(caches.getFolder().getParentFile(), "escape").exists());
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine) {
+        DualCache<String> cache = new Builder<String>("arbitrary", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(1024 * 1024, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(engine)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,80 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the futures of the asynchronous operations complete when the I/O executor rejects
+ * them, instead of waiting forever.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AsyncOperationsTest {
+
+    private static final long TIMEOUT_SECONDS = 1;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("async");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testOperationsAfterClose() throws Exception {
+        // The default I/O executor, shut down by the close.
+        DualCache<String> cache = openCache(null);
+        cache.putAsync("key", "value").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        cache.close();
+
+        cache.putAsync("other", "value").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNull(cache.getAsync("missing").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOperationsRejectedByExecutor() throws Exception {
+        DualCache<String> cache = openCache(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        cache.putAsync("key", "value").get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(cache.getDiskUsedInBytes() > 0);
+        assertEquals("value", cache.getAsync("key").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @param ioExecutor is the I/O executor, or null to use the default one.
+     */
+    private DualCache<String> openCache(Executor ioExecutor) {
+        Builder<String> builder = new Builder<String>("async", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(1024 * 1024, caches.getFolder(), new StringSerializer());
+        if (ioExecutor != null) {
+            builder.useIoExecutor(ioExecutor);
+        }
+        return caches.add(builder.build());
+    }
+}
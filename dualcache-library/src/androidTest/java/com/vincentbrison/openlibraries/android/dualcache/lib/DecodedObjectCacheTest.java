@@ -0,0 +1,107 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test that the objects decoded by reads of a serialized RAM layer never hide the puts and the
+ * deletes racing with them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodedObjectCacheTest {
+
+    private static final int READERS = 4;
+    private static final int ITERATIONS = 10000;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("decoded");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testReadsRacingWithPutsAndDeletes() throws Exception {
+        final DualCache<String> cache = caches.add(new Builder<String>("decoded", 0)
+            .enableLog()
+            .useSerializerInRam(1024 * 1024, new SlowSerializer())
+            // Room for a single decoded object, so that the readers keep decoding.
+            .useDecodedObjectCacheInRam(1, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .noDisk()
+            .build());
+        cache.put("other", "other value");
+        final AtomicBoolean isDone = new AtomicBoolean();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread() {
+                @Override
+                public void run() {
+                    while (!isDone.get()) {
+                        cache.get("key");
+                        cache.get("other");
+                    }
+                }
+            });
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                cache.put("key", "value" + i);
+                assertEquals("value" + i, cache.get("key"));
+                cache.delete("key");
+                assertNull(cache.get("key"));
+                assertFalse(cache.contains("key"));
+            }
+        } finally {
+            isDone.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+    }
+
+    /**
+     * Serializer slow to decode, which widens the window of the races.
+     */
+    private static class SlowSerializer extends StringSerializer {
+
+        @Override
+        public String fromString(String data) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test a cache writing in its disk layer only the objects evicted from its RAM layer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskForRamEvictionsTest {
+
+    private static final int RAM_MAX_ENTRIES = 10;
+    private static final int DISK_MAX_SIZE = 1024 * 1024;
+    private static final int ITERATIONS = 10000;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("evictions");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testObjectsStayingInRamAreNotWritten() {
+        DualCache<String> cache = openCache(true);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + (i % RAM_MAX_ENTRIES), "value" + i);
+        }
+        cache.delete("key0");
+        assertEquals(0, cache.getDiskUsedInBytes());
+        assertEquals("value99", cache.get("key9"));
+        assertFalse(cache.contains("key0"));
+    }
+
+    @Test
+    public void testEvictedObjectsAreWritten() {
+        DualCache<String> cache = openCache(true);
+        for (int i = 0; i < 2 * RAM_MAX_ENTRIES; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        assertTrue(cache.getDiskUsedInBytes() > 0);
+
+        DualCache<String> disk = openCache(false);
+        for (int i = 0; i < RAM_MAX_ENTRIES; i++) {
+            assertEquals("value" + i, disk.get("key" + i));
+        }
+        assertFalse(disk.contains("key" + RAM_MAX_ENTRIES));
+
+        // Read back from disk, the first object is in RAM again.
+        assertEquals("value0", cache.get("key0"));
+        cache.put("key0", "updated");
+        cache.invalidateRAM();
+        assertEquals("updated", cache.get("key0"));
+    }
+
+    @Test
+    public void testObjectLargerThanOffHeapRamIsWritten() {
+        DualCache<String> cache = caches.add(new Builder<String>("evictions", 0)
+            .enableLog()
+            .useSerializerInOffHeapRam(RAM_MAX_ENTRIES, new StringSerializer())
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .useDiskForRamEvictionsOnly()
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build());
+        String large = "a value larger than the RAM layer";
+        cache.put("key", large);
+        assertTrue(cache.getDiskUsedInBytes() > 0);
+        assertEquals(large, cache.get("key"));
+    }
+
+    @Test
+    public void testCloseWritesRam() throws Exception {
+        DualCache<String> cache = openCache(true);
+        for (int i = 0; i < RAM_MAX_ENTRIES; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.close();
+
+        DualCache<String> reopened = openCache(false);
+        for (int i = 0; i < RAM_MAX_ENTRIES; i++) {
+            assertEquals("value" + i, reopened.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testEvictionsRacingWithReadsAndDeletes() throws Exception {
+        final DualCache<String> cache = openCache(true, new SlowSerializer());
+        final AtomicBoolean isDone = new AtomicBoolean();
+        // Fills the RAM layer, so that the object of the key keeps being evicted.
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; !isDone.get(); i++) {
+                    cache.put("other" + i % (2 * RAM_MAX_ENTRIES), "other value");
+                }
+            }
+        };
+        writer.start();
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                cache.put("key", "value" + i);
+                assertEquals("value" + i, cache.get("key"));
+                cache.delete("key");
+                assertNull(cache.get("key"));
+                assertFalse(cache.contains("key"));
+            }
+        } finally {
+            isDone.set(true);
+            writer.join();
+        }
+    }
+
+    private DualCache<String> openCache(boolean diskForRamEvictionsOnly) {
+        return openCache(diskForRamEvictionsOnly, new StringSerializer());
+    }
+
+    private DualCache<String> openCache(
+        boolean diskForRamEvictionsOnly, StringSerializer diskSerializer
+    ) {
+        Builder<String> builder = new Builder<String>("evictions", 0)
+            .enableLog()
+            .useReferenceInRam(RAM_MAX_ENTRIES, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), diskSerializer);
+        if (diskForRamEvictionsOnly) {
+            builder.useDiskForRamEvictionsOnly();
+        }
+        DualCache<String> cache = builder.build();
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Serializer slow to encode the objects of the key, which widens the window of the races with
+     * their writes once evicted.
+     */
+    private static class SlowSerializer extends StringSerializer {
+
+        @Override
+        public String toString(String object) {
+            if (object.startsWith("value")) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return object;
+        }
+    }
+}
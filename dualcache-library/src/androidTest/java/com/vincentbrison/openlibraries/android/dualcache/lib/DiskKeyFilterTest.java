@@ -0,0 +1,127 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.QueuedExecutor;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the filter of the keys on disk never hides an object, while it is built at opening,
+ * updated by writes and rebuilt larger on the calling thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskKeyFilterTest {
+
+    private static final int DISK_MAX_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * More keys than the smallest filter expects, so that it is rebuilt.
+     */
+    private static final int KEYS = 3000;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("filter");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testFilePerEntry() throws Exception {
+        checkKeys(DualCacheDiskEngine.FILE_PER_ENTRY);
+    }
+
+    @Test
+    public void testLogStructured() throws Exception {
+        checkKeys(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    @Test
+    public void testInvalidatedKeysAreMissing() throws Exception {
+        DualCache<String> cache = openCache(DualCacheDiskEngine.LOG_STRUCTURED);
+        cache.put("key", "value");
+        cache.invalidateDisk();
+        assertNull(cache.get("key"));
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+    }
+
+    @Test
+    public void testAsyncWritesRebuildFilter() throws Exception {
+        QueuedExecutor executor = new QueuedExecutor();
+        DualCache<String> cache = openCache(DualCacheDiskEngine.FILE_PER_ENTRY, executor);
+        executor.runAll();
+        for (int i = 0; i < KEYS; i++) {
+            cache.putAsync("key" + i, "value" + i);
+        }
+        assertEquals(KEYS, executor.size());
+        executor.runAll();
+        // The writes which filled the filter queued its rebuild.
+        assertEquals(1, executor.size());
+        executor.runAll();
+        checkAllKeys(cache);
+    }
+
+    private void checkKeys(DualCacheDiskEngine engine) throws Exception {
+        DualCache<String> cache = openCache(engine);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+            // Read each key right after its write, while the filter gets rebuilt.
+            assertEquals("value" + i, cache.get("key" + i));
+        }
+        checkAllKeys(cache);
+        cache.delete("key0");
+        assertFalse(cache.contains("key0"));
+        cache.close();
+
+        DualCache<String> reopened = openCache(engine);
+        assertNull(reopened.get("key0"));
+        reopened.put("key0", "value0");
+        checkAllKeys(reopened);
+    }
+
+    private static void checkAllKeys(DualCache<String> cache) {
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals("value" + i, cache.get("key" + i));
+            assertTrue(cache.contains("key" + i));
+            assertNull(cache.get("missing" + i));
+            assertFalse(cache.contains("missing" + i));
+        }
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine) {
+        return openCache(engine, TestCaches.DIRECT_EXECUTOR);
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine, Executor executor) {
+        DualCache<String> cache = new Builder<String>("filter", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(engine)
+            .useIoExecutor(executor)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,135 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskOpenPolicy;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.QueuedExecutor;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the opening of the disk layer on the I/O executor, with an executor running its tasks only
+ * when asked to.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskOpenTest {
+
+    private static final int DISK_MAX_SIZE = 1024 * 1024;
+
+    private TestCaches caches;
+    private File folder;
+    private QueuedExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("open");
+        folder = caches.getFolder();
+        executor = new QueuedExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.runAll();
+        caches.closeAll();
+    }
+
+    @Test
+    public void testReadsAreMissesUntilOpen() throws Exception {
+        DualCache<String> writer = openCache(DualCacheDiskOpenPolicy.WAIT);
+        writer.put("key", "value");
+        writer.close();
+
+        DualCache<String> cache = openCache(DualCacheDiskOpenPolicy.MISS);
+        assertFalse(cache.isDiskReady());
+        assertNull(cache.get("key"));
+        assertFalse(cache.contains("key"));
+        assertEquals(0, cache.getDiskUsedInBytes());
+
+        executor.runAll();
+        assertTrue(cache.isDiskReady());
+        assertEquals("value", cache.get("key"));
+    }
+
+    @Test
+    public void testReadsWaitUntilOpen() throws Exception {
+        DualCache<String> writer = openCache(DualCacheDiskOpenPolicy.WAIT);
+        writer.put("key", "value");
+        writer.close();
+
+        DualCache<String> cache = openCache(DualCacheDiskOpenPolicy.WAIT);
+        assertFalse(cache.isDiskReady());
+        // The read opens the disk layer itself, since the executor has not started to.
+        assertEquals("value", cache.get("key"));
+        assertTrue(cache.isDiskReady());
+    }
+
+    @Test
+    public void testWritesWaitUntilOpen() throws Exception {
+        DualCache<String> cache = openCache(DualCacheDiskOpenPolicy.MISS);
+        cache.put("key", "value");
+        assertTrue(cache.isDiskReady());
+        assertEquals("value", cache.get("key"));
+    }
+
+    @Test
+    public void testOpenFailureIsReported() throws Exception {
+        folder = new File(folder.getParentFile(), "open-in-file");
+        deleteRecursively(folder);
+        new FileOutputStream(folder).close();
+        DualCache<String> cache = openCache(DualCacheDiskOpenPolicy.WAIT);
+        try {
+            cache.awaitDiskReady();
+            fail("The disk layer has been opened in a file");
+        } catch (IOException e) {
+            assertFalse(cache.isDiskReady());
+        }
+        cache.put("key", "value");
+        assertNull(cache.get("key"));
+
+        // Invalidating the disk layer opens it again.
+        assertTrue(folder.delete());
+        cache.invalidateDisk();
+        cache.awaitDiskReady();
+        assertTrue(cache.isDiskReady());
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+    }
+
+    private DualCache<String> openCache(DualCacheDiskOpenPolicy policy) {
+        DualCache<String> cache = new Builder<String>("open", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(DISK_MAX_SIZE, folder, new StringSerializer())
+            .useDiskOpenPolicy(policy)
+            .useIoExecutor(executor)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -5,12 +5,15 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.Log;
 
+import com.vincentbrison.openlibraries.android.dualcache.BinaryCacheSerializer;
+import com.vincentbrison.openlibraries.android.dualcache.CacheLoader;
 import com.vincentbrison.openlibraries.android.dualcache.CacheSerializer;
 import com.vincentbrison.openlibraries.android.dualcache.DualCache;
 import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskMode;
 import com.vincentbrison.openlibraries.android.dualcache.DualCacheRamMode;
 import com.vincentbrison.openlibraries.android.dualcache.JsonSerializer;
 import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.StreamCacheSerializer;
 import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.AbstractVehicule;
 import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.CoolBike;
 import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.CoolCar;
@@ -20,12 +23,26 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public abstract class DualCacheTest {
@@ -183,9 +200,18 @@ public abstract class DualCacheTest {
 
     @Test
     public void testConcurrentAccess() {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
         List<Thread> threads = new ArrayList<>();
         for (int i = 0; i < 10; i++) {
-            threads.add(createWrokerThread(cache));
+            Thread thread = createWrokerThread(cache);
+            // A worker dying of an exception fails the test.
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable throwable) {
+                    failure.compareAndSet(null, throwable);
+                }
+            });
+            threads.add(thread);
         }
         Log.d("dualcachedebuglogti", "start worker threads");
         for (Thread thread : threads) {
@@ -201,7 +227,105 @@ public abstract class DualCacheTest {
             }
         }
         Log.d("dualcachedebuglogti", "join done");
-        assertFalse("test", false);
+        assertNull("Worker thread failed: " + failure.get(), failure.get());
+    }
+
+    @Test
+    public void testBatchOperations() throws Exception {
+        Map<String, AbstractVehicule> objects = new HashMap<>();
+        objects.put("car", new CoolCar());
+        objects.put("bike", new CoolBike());
+        cache.putAll(objects);
+        List<String> keys = Arrays.asList("car", "bike", "missing");
+        assertEquals(objects, cache.getAll(keys));
+
+        cache.invalidateRAM();
+        if (cache.getDiskMode().equals(DualCacheDiskMode.DISABLE)) {
+            assertTrue(cache.getAll(keys).isEmpty());
+        } else {
+            assertEquals(objects, cache.getAll(keys));
+        }
+
+        cache.putAll(objects);
+        cache.deleteAll(Arrays.asList("car", "bike"));
+        assertTrue(cache.getAll(keys).isEmpty());
+        assertFalse(cache.contains("car"));
+    }
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        CoolCar car = new CoolCar();
+        String keyCar = "car";
+        Future<Void> write = cache.putAsync(keyCar, car);
+        assertEquals(car, cache.getAsync(keyCar).get());
+        write.get();
+        if (!cache.getRAMMode().equals(DualCacheRamMode.DISABLE)) {
+            // Served from RAM without scheduling any work.
+            assertTrue(cache.getAsync(keyCar).isDone());
+        }
+
+        cache.invalidateRAM();
+        if (cache.getDiskMode().equals(DualCacheDiskMode.DISABLE)) {
+            assertNull(cache.getAsync(keyCar).get());
+        } else {
+            assertEquals(car, cache.getAsync(keyCar).get());
+        }
+
+        cache.putAsync(keyCar, car);
+        cache.delete(keyCar);
+        assertNull(cache.getAsync(keyCar).get());
+        assertFalse(cache.contains(keyCar));
+    }
+
+    @Test
+    public void testLoaderCoalescesConcurrentMisses() throws Exception {
+        final String key = "loaded";
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CacheLoader<AbstractVehicule> loader = new CacheLoader<AbstractVehicule>() {
+            @Override
+            public AbstractVehicule load(String key) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                return new CoolCar();
+            }
+        };
+        final List<AbstractVehicule> results =
+            Collections.synchronizedList(new ArrayList<AbstractVehicule>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results.add(cache.get(key, loader));
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(threads.size(), results.size());
+        for (AbstractVehicule result : results) {
+            assertEquals(new CoolCar(), result);
+        }
+        assertEquals(new CoolCar(), cache.get(key));
+        assertEquals(new CoolCar(), cache.get(key, loader));
+        assertEquals(1, loads.get());
     }
 
     private Thread createWrokerThread(final DualCache<AbstractVehicule> cache) {
@@ -255,6 +379,44 @@ public abstract class DualCacheTest {
         }
     }
 
+    public static class BinarySerializerForTesting
+        implements BinaryCacheSerializer<AbstractVehicule> {
+
+        private final SerializerForTesting serializer = new SerializerForTesting();
+
+        @Override
+        public AbstractVehicule fromBytes(byte[] data) {
+            return serializer.fromString(new String(data, Charset.forName("UTF-8")));
+        }
+
+        @Override
+        public byte[] toBytes(AbstractVehicule object) {
+            return serializer.toString(object).getBytes(Charset.forName("UTF-8"));
+        }
+    }
+
+    public static class StreamSerializerForTesting
+        implements StreamCacheSerializer<AbstractVehicule> {
+
+        private final BinarySerializerForTesting serializer = new BinarySerializerForTesting();
+
+        @Override
+        public AbstractVehicule read(InputStream inputStream) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return serializer.fromBytes(bytes.toByteArray());
+        }
+
+        @Override
+        public void write(AbstractVehicule object, OutputStream outputStream) throws IOException {
+            outputStream.write(serializer.toBytes(object));
+        }
+    }
+
     public static class SizeOfVehiculeForTesting implements SizeOf<AbstractVehicule> {
 
         @Override
@@ -0,0 +1,88 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that putting many distinct keys with a time to live does not make the cache keep memory
+ * for each of them once they are evicted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExpirationFootprintTest {
+
+    private static final int DISTINCT_KEYS = 1000000;
+    private static final int DISTINCT_DISK_KEYS = 20000;
+    private static final long TIME_TO_LIVE_MILLIS = 60 * 60 * 1000;
+    private static final long MAX_HEAP_GROWTH = 2 * 1024 * 1024;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("expiration-footprint");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testKeysEvictedFromRamDoNotAccumulate() throws Exception {
+        DualCache<String> cache = caches.add(new Builder<String>("footprint", 0)
+            .useReferenceInRam(100, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .noDisk()
+            .build());
+        checkDistinctKeysDoNotAccumulate(cache, DISTINCT_KEYS);
+    }
+
+    @Test
+    public void testKeysOnlyOnDiskDoNotAccumulate() throws Exception {
+        // A small disk layer, so that it only keeps memory for a few keys itself.
+        DualCache<String> cache = caches.add(new Builder<String>("footprint", 0)
+            .noRam()
+            .useSerializerInDisk(64 * 1024, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build());
+        checkDistinctKeysDoNotAccumulate(cache, DISTINCT_DISK_KEYS);
+    }
+
+    private static void checkDistinctKeysDoNotAccumulate(DualCache<String> cache, int count)
+        throws InterruptedException {
+        // Load the classes used by the puts before measuring.
+        cache.put("first", "value", TIME_TO_LIVE_MILLIS);
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            cache.put("https://example.com/resource/" + i, "value", TIME_TO_LIVE_MILLIS);
+        }
+        long growth = usedHeap() - before;
+        assertTrue("Heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,124 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.QueuedExecutor;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+import com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks.BenchmarkHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that invalidating the disk layer only blocks the other threads briefly, the files of the
+ * invalidated entries being deleted later on the I/O executor.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InvalidationLatencyTest {
+
+    private static final int KEYS = 2000;
+    private static final long MAX_READ_LATENCY_MS = 200;
+
+    private QueuedExecutor executor;
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("invalidation");
+        executor = new QueuedExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.runAll();
+        caches.closeAll();
+        executor.runAll();
+    }
+
+    @Test
+    public void testFilePerEntry() throws Exception {
+        checkInvalidation(DualCacheDiskEngine.FILE_PER_ENTRY);
+    }
+
+    @Test
+    public void testLogStructured() throws Exception {
+        checkInvalidation(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    private void checkInvalidation(DualCacheDiskEngine engine) throws Exception {
+        final DualCache<String> cache = openCache(engine);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        final AtomicBoolean isReading = new AtomicBoolean(true);
+        final AtomicLong maxLatency = new AtomicLong();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (isReading.get()) {
+                    long start = System.nanoTime();
+                    cache.get("key" + (i++ % KEYS));
+                    long latency = System.nanoTime() - start;
+                    if (latency > maxLatency.get()) {
+                        maxLatency.set(latency);
+                    }
+                }
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        long start = System.nanoTime();
+        cache.invalidateDisk();
+        long invalidation = System.nanoTime() - start;
+        Thread.sleep(50);
+        isReading.set(false);
+        reader.join();
+
+        long maxLatencyMs = TimeUnit.NANOSECONDS.toMillis(maxLatency.get());
+        BenchmarkHelper.report("Invalidation", engine + ", invalidateDisk",
+            TimeUnit.NANOSECONDS.toMicros(invalidation), "us");
+        BenchmarkHelper.report("Invalidation", engine + ", slowest get", maxLatencyMs, "ms");
+        assertTrue("A get took " + maxLatencyMs + " ms", maxLatencyMs < MAX_READ_LATENCY_MS);
+
+        // The previous entries are gone, while their files wait for the executor to delete them.
+        assertEquals(0, cache.getDiskUsedInBytes());
+        assertNull(cache.get("key1"));
+        File folder = caches.getFolder();
+        File deleted = new File(folder.getParentFile(), folder.getName() + ".deleted0");
+        assertTrue(deleted.isDirectory());
+        cache.put("key1", "new value");
+        executor.runAll();
+        assertFalse(deleted.exists());
+        assertEquals("new value", cache.get("key1"));
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine) {
+        DualCache<String> cache = new Builder<String>("invalidation", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(10 * 1024 * 1024, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(engine)
+            .useIoExecutor(executor)
+            .build();
+        executor.runAll();
+        caches.add(cache);
+        return cache;
+    }
+}
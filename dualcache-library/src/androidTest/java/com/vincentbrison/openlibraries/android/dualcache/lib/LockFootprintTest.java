@@ -0,0 +1,67 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that editing many distinct keys does not make the disk layer keep memory for each of them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LockFootprintTest {
+
+    private static final int DISTINCT_KEYS = 1000000;
+    private static final long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+
+    private TestCaches caches;
+    private DualCache<String> cache;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("lock-footprint");
+        cache = caches.add(new Builder<String>("footprint", 0)
+            .noRam()
+            .useSerializerInDisk(1024 * 1024, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testDistinctKeysDoNotAccumulate() throws Exception {
+        cache.put("kept", "value");
+        long before = usedHeap();
+        // Deleting a key locks its entry even if it is not on disk.
+        for (int i = 0; i < DISTINCT_KEYS; i++) {
+            cache.delete("https://example.com/resource/" + i);
+        }
+        long growth = usedHeap() - before;
+        assertTrue("Heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+        assertEquals("value", cache.get("kept"));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
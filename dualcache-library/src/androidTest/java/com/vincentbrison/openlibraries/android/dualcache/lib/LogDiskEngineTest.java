@@ -0,0 +1,278 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the log-structured disk engine, with its compactions run on the calling thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LogDiskEngineTest {
+
+    private static final int DISK_MAX_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the segments, for a disk of {@link #DISK_MAX_SIZE} bytes.
+     */
+    private static final int SEGMENT_SIZE = DISK_MAX_SIZE / 8;
+    private static final int KEYS = 2000;
+    private static final int HOT_KEYS = 1000;
+    private static final int EVICTED_KEYS = 50000;
+    private static final int LARGE_OBJECT_LENGTH = 40 * 1024;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("log");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testObjectsAreReadAfterReopening() throws Exception {
+        DualCache<String> cache = openCache();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.delete("key0");
+        cache.close();
+
+        DualCache<String> reopened = openCache();
+        assertNull(reopened.get("key0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals("value" + i, reopened.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testCompactionReclaimsReplacedObjects() throws Exception {
+        DualCache<String> cache = openCache();
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                cache.put("key" + i, padded("value" + round + "-" + i));
+            }
+        }
+        long liveSize = cache.getDiskUsedInBytes();
+        assertTrue(segmentsSize() < 3 * liveSize);
+        cache.close();
+
+        DualCache<String> reopened = openCache();
+        assertEquals(liveSize, reopened.getDiskUsedInBytes());
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(padded("value9-" + i), reopened.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testTombstonesOfEvictedObjectsDoNotAccumulate() throws Exception {
+        DualCache<String> cache = openCache();
+        // Objects kept read, filling the first segment, which is thus never compacted.
+        for (int i = 0; i < HOT_KEYS; i++) {
+            cache.put("hot" + i, padded("hot" + i));
+        }
+        long warmSize = 0;
+        for (int i = 0; i < EVICTED_KEYS; i++) {
+            if (i % KEYS == 0) {
+                for (int j = 0; j < HOT_KEYS; j++) {
+                    assertEquals(padded("hot" + j), cache.get("hot" + j));
+                }
+            }
+            if (i == EVICTED_KEYS / 2) {
+                warmSize = segmentsSize();
+            }
+            cache.put("key" + i, padded("value" + i));
+        }
+        long growth = segmentsSize() - warmSize;
+        assertTrue("Segments grew by " + growth + " bytes", growth < 2 * SEGMENT_SIZE);
+        cache.close();
+
+        DualCache<String> reopened = openCache();
+        assertNull(reopened.get("key0"));
+        int last = EVICTED_KEYS - 1;
+        assertEquals(padded("value" + last), reopened.get("key" + last));
+    }
+
+    @Test
+    public void testLargeObjectIsMovedByCompactions() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < LARGE_OBJECT_LENGTH) {
+            builder.append("large").append(builder.length());
+        }
+        String large = builder.toString();
+        DualCache<String> cache = openCache();
+        cache.put("large", large);
+        // Replace the other objects until the first segment is compacted.
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                cache.put("key" + i, padded("value" + round + "-" + i));
+            }
+        }
+        assertFalse(new File(caches.getFolder(), "0.seg").exists());
+        assertEquals(large, cache.get("large"));
+        cache.close();
+
+        assertEquals(large, openCache().get("large"));
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        DualCache<String> cache = openCache();
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.close();
+
+        // The process died while the last record was appended.
+        File lastSegment = lastSegment();
+        RandomAccessFile file = new RandomAccessFile(lastSegment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        DualCache<String> reopened = openCache();
+        for (int i = 0; i < 99; i++) {
+            assertEquals("value" + i, reopened.get("key" + i));
+        }
+        assertFalse(reopened.contains("key99"));
+        reopened.put("key99", "value99");
+        reopened.close();
+
+        assertEquals("value99", openCache().get("key99"));
+    }
+
+    @Test
+    public void testIndexIsReadAfterClosing() throws Exception {
+        DualCache<String> cache = openCache();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.delete("key0");
+        cache.close();
+        assertTrue(new File(caches.getFolder(), "index").exists());
+
+        DualCache<String> reopened = openCache();
+        // The index is only valid until the segments are appended to.
+        assertFalse(new File(caches.getFolder(), "index").exists());
+        assertNull(reopened.get("key0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals("value" + i, reopened.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testRecordsAppendedAfterTheIndexAreRead() throws Exception {
+        DualCache<String> cache = openCache();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, padded("value0-" + i));
+        }
+        cache.close();
+        byte[] index = readFile(new File(caches.getFolder(), "index"));
+
+        // Replace the objects until the segments of the index are compacted.
+        DualCache<String> reopened = openCache();
+        for (int round = 1; round < 10; round++) {
+            for (int i = 1; i < KEYS; i++) {
+                reopened.put("key" + i, padded("value" + round + "-" + i));
+            }
+        }
+        reopened.delete("key1");
+        reopened.close();
+
+        // The process died after the index was written.
+        writeFile(new File(caches.getFolder(), "index"), index);
+        DualCache<String> recovered = openCache();
+        assertEquals(padded("value0-0"), recovered.get("key0"));
+        assertNull(recovered.get("key1"));
+        for (int i = 2; i < KEYS; i++) {
+            assertEquals(padded("value9-" + i), recovered.get("key" + i));
+        }
+    }
+
+    private DualCache<String> openCache() {
+        DualCache<String> cache = new Builder<String>("log", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static String padded(String value) {
+        StringBuilder builder = new StringBuilder(value);
+        while (builder.length() < 100) {
+            builder.append('.');
+        }
+        return builder.toString();
+    }
+
+    private long segmentsSize() {
+        long size = 0;
+        for (File file : segmentFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private File lastSegment() {
+        File last = null;
+        for (File file : segmentFiles()) {
+            if (last == null || segmentId(file) > segmentId(last)) {
+                last = file;
+            }
+        }
+        return last;
+    }
+
+    private File[] segmentFiles() {
+        return caches.getFolder().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".seg");
+            }
+        });
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        byte[] content = new byte[(int) file.length()];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        input.readFully(content);
+        input.close();
+        return content;
+    }
+
+    private static void writeFile(File file, byte[] content) throws Exception {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        output.write(content);
+        output.close();
+    }
+
+    private static int segmentId(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(0, name.indexOf('.')));
+    }
+}
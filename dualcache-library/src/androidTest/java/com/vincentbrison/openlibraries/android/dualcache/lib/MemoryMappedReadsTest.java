@@ -0,0 +1,198 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.StreamCacheSerializer;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test the reads of the disk layer from files mapped in memory, with objects large enough to be
+ * mapped by both disk engines, and the compactions run on the calling thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryMappedReadsTest {
+
+    private static final int DISK_MAX_SIZE = 8 * 1024 * 1024;
+    private static final int KEYS = 40;
+    private static final int VALUE_SIZE = 80 * 1024;
+    private static final int READERS = 4;
+    private static final int ITERATIONS = 300;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("mapped");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testFilePerEntryWithSerializer() throws Exception {
+        checkReads(DualCacheDiskEngine.FILE_PER_ENTRY, false);
+    }
+
+    @Test
+    public void testFilePerEntryWithStreamSerializer() throws Exception {
+        checkReads(DualCacheDiskEngine.FILE_PER_ENTRY, true);
+    }
+
+    @Test
+    public void testLogStructuredWithSerializer() throws Exception {
+        checkReads(DualCacheDiskEngine.LOG_STRUCTURED, false);
+    }
+
+    @Test
+    public void testLogStructuredWithStreamSerializer() throws Exception {
+        checkReads(DualCacheDiskEngine.LOG_STRUCTURED, true);
+    }
+
+    @Test
+    public void testSmallObjectsAreRead() throws Exception {
+        DualCache<String> cache = openCache(DualCacheDiskEngine.FILE_PER_ENTRY, true);
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+    }
+
+    @Test
+    public void testFilePerEntryReadsRacingWithPutsAndDeletes() throws Exception {
+        final DualCache<String> cache = openCache(DualCacheDiskEngine.FILE_PER_ENTRY, false);
+        final String small = value(0, 0);
+        final String large = value(1, 0) + value(1, 0);
+        final AtomicBoolean isDone = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while (!isDone.get()) {
+                        String object = cache.get("key");
+                        if (object != null && !object.equals(small) && !object.equals(large)) {
+                            failure.compareAndSet(null, new AssertionError("Wrong object read"));
+                        }
+                    }
+                }
+            };
+            reader.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable throwable) {
+                    failure.compareAndSet(null, throwable);
+                }
+            });
+            readers.add(reader);
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        try {
+            // Values of different sizes, so that a mapping of the wrong length is noticed.
+            for (int i = 0; i < ITERATIONS; i++) {
+                cache.put("key", small);
+                cache.put("key", large);
+                cache.delete("key");
+            }
+        } finally {
+            isDone.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull("Reader failed: " + failure.get(), failure.get());
+    }
+
+    private void checkReads(DualCacheDiskEngine engine, boolean isStreamed) throws Exception {
+        DualCache<String> cache = openCache(engine, isStreamed);
+        // Replace the objects a few times so that mapped segments get compacted.
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                cache.put("key" + i, value(round, i));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(value(round, i), cache.get("key" + i));
+            }
+        }
+        cache.delete("key0");
+        cache.close();
+
+        DualCache<String> reopened = openCache(engine, isStreamed);
+        assertNull(reopened.get("key0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals(value(2, i), reopened.get("key" + i));
+        }
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine, boolean isStreamed) {
+        Builder<String> builder = new Builder<String>("mapped", 0)
+            .enableLog()
+            .noRam();
+        if (isStreamed) {
+            builder.useStreamSerializerInDisk(
+                DISK_MAX_SIZE, caches.getFolder(), new StringStreamSerializer());
+        } else {
+            builder.useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer());
+        }
+        DualCache<String> cache = builder
+            .useDiskEngine(engine)
+            .useMemoryMappedReadsInDisk()
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static String value(int round, int index) {
+        StringBuilder builder = new StringBuilder().append(round).append('-').append(index);
+        while (builder.length() < VALUE_SIZE) {
+            builder.append((char) ('a' + builder.length() % 26));
+        }
+        return builder.toString();
+    }
+
+    private static class StringStreamSerializer implements StreamCacheSerializer<String> {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        @Override
+        public String read(InputStream inputStream) throws IOException {
+            DataInputStream input = new DataInputStream(inputStream);
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        @Override
+        public void write(String object, OutputStream outputStream) throws IOException {
+            byte[] bytes = object.getBytes(UTF_8);
+            DataOutputStream output = new DataOutputStream(outputStream);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+            output.flush();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheRamEvictionPolicy;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay the same trace, made of Zipfian accesses interleaved with scans of keys used only once,
+ * against each RAM eviction policy.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RamEvictionPolicyTest {
+
+    private static final int CAPACITY = 1000;
+    private static final int HOT_KEYS = 20000;
+    private static final double ZIPF_EXPONENT = 0.9;
+    private static final int ACCESSES = 400000;
+    private static final int ACCESSES_BETWEEN_SCANS = 20000;
+    private static final int SCAN_LENGTH = 5000;
+    private static final long SEED = 42;
+
+    @Test
+    public void testTinyLfuResistsScans() {
+        String[] trace = createTrace();
+        double lruHitRatio = replay(trace, DualCacheRamEvictionPolicy.LRU);
+        double tinyLfuHitRatio = replay(trace, DualCacheRamEvictionPolicy.WINDOW_TINY_LFU);
+        Log.i("dualcachetest", "LRU hit ratio : " + lruHitRatio
+            + ", W-TinyLFU hit ratio : " + tinyLfuHitRatio);
+        assertTrue(tinyLfuHitRatio > lruHitRatio);
+    }
+
+    private double replay(String[] trace, DualCacheRamEvictionPolicy policy) {
+        DualCache<String> cache = new Builder<String>("policy", 0)
+            .useReferenceInRam(CAPACITY, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .useRamEvictionPolicy(policy)
+            .noDisk()
+            .build();
+        int hits = 0;
+        for (String key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private String[] createTrace() {
+        double[] cumulative = new double[HOT_KEYS];
+        double sum = 0;
+        for (int i = 0; i < HOT_KEYS; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(SEED);
+        String[] trace = new String[ACCESSES];
+        int scanned = 0;
+        int i = 0;
+        while (i < ACCESSES) {
+            if (i > 0 && i % ACCESSES_BETWEEN_SCANS == 0) {
+                for (int j = 0; j < SCAN_LENGTH && i < ACCESSES; j++) {
+                    trace[i++] = "scan" + scanned++;
+                }
+            }
+            if (i < ACCESSES) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i++] = "hot" + (index < 0 ? -index - 1 : index);
+            }
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,223 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.CacheLoader;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.QueuedExecutor;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+import com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks.BenchmarkHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that objects read after the refresh interval are returned at once, and reloaded once in the
+ * background, and that the refresh times of many distinct keys do not accumulate.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RefreshAheadTest {
+
+    private static final long REFRESH_INTERVAL_MS = 100;
+    private static final long LOAD_DURATION_MS = 200;
+    private static final long LONG_REFRESH_INTERVAL_MS = 60 * 60 * 1000;
+    private static final int DISTINCT_KEYS = 1000000;
+    private static final long MAX_HEAP_GROWTH = 2 * 1024 * 1024;
+
+    private QueuedExecutor executor;
+    private CountingLoader loader;
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("refresh");
+        executor = new QueuedExecutor();
+        loader = new CountingLoader();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.runAll();
+        caches.closeAll();
+        executor.runAll();
+    }
+
+    @Test
+    public void testStaleObjectReturnedWhileReloading() throws Exception {
+        DualCache<String> cache = openCache(executor);
+        cache.put("key", "old");
+        assertEquals("old", cache.get("key"));
+        assertEquals(0, executor.size());
+
+        Thread.sleep(REFRESH_INTERVAL_MS * 2);
+        assertEquals("old", cache.get("key"));
+        assertEquals("old", cache.get("key"));
+        assertEquals(1, executor.size());
+
+        executor.runAll();
+        assertEquals(1, loader.loads.get());
+        assertEquals("reloaded 1", cache.get("key"));
+        cache.invalidateRAM();
+        assertEquals("reloaded 1", cache.get("key"));
+        assertEquals(0, executor.size());
+    }
+
+    @Test
+    public void testObjectFromPreviousOpeningReloaded() throws Exception {
+        DualCache<String> cache = openCache(executor);
+        cache.put("key", "old");
+        executor.runAll();
+        cache.close();
+
+        DualCache<String> reopened = openCache(executor);
+        assertEquals("old", reopened.get("key"));
+        executor.runAll();
+        assertEquals("reloaded 1", reopened.get("key"));
+    }
+
+    @Test
+    public void testFailedReloadKeepsObject() throws Exception {
+        loader.isFailing = true;
+        DualCache<String> cache = openCache(executor);
+        cache.put("key", "old");
+        Thread.sleep(REFRESH_INTERVAL_MS * 2);
+        assertEquals("old", cache.get("key"));
+        executor.runAll();
+        assertEquals("old", cache.get("key"));
+        // Retried once the refresh interval has passed again.
+        assertEquals(0, executor.size());
+        Thread.sleep(REFRESH_INTERVAL_MS * 2);
+        loader.isFailing = false;
+        assertEquals("old", cache.get("key"));
+        executor.runAll();
+        assertEquals("reloaded 2", cache.get("key"));
+    }
+
+    @Test
+    public void testDeletedWhileReloading() throws Exception {
+        DualCache<String> cache = openCache(executor);
+        cache.put("key", "old");
+        Thread.sleep(REFRESH_INTERVAL_MS * 2);
+        assertEquals("old", cache.get("key"));
+        cache.delete("key");
+        executor.runAll();
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testReadsDoNotWaitForReloads() throws Exception {
+        loader.loadDurationMs = LOAD_DURATION_MS;
+        // The dedicated reload executor, which rejects the reloads when full.
+        DualCache<String> cache = openCache(null);
+        loader.readingThread = Thread.currentThread();
+        int keys = 500;
+        for (int i = 0; i < keys; i++) {
+            cache.put("key" + i, "old");
+        }
+        Thread.sleep(REFRESH_INTERVAL_MS * 2);
+
+        long maxLatency = 0;
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < keys; i++) {
+                long start = System.nanoTime();
+                assertTrue(cache.get("key" + i) != null);
+                maxLatency = Math.max(maxLatency, System.nanoTime() - start);
+            }
+        }
+        long maxLatencyMs = TimeUnit.NANOSECONDS.toMillis(maxLatency);
+        BenchmarkHelper.report("Refresh-ahead", "slowest get", maxLatencyMs, "ms");
+        assertTrue("A get took " + maxLatencyMs + " ms", maxLatencyMs < LOAD_DURATION_MS / 2);
+        assertFalse(loader.isLoadedByReadingThread);
+        cache.close();
+    }
+
+    @Test
+    public void testRefreshTimesDoNotAccumulate() throws Exception {
+        DualCache<String> cache = caches.add(new Builder<String>("refresh", 0)
+            .useReferenceInRam(100, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .noDisk()
+            .useRefreshAhead(LONG_REFRESH_INTERVAL_MS, loader)
+            .build());
+        // Load the classes used by the puts before measuring.
+        cache.put("first", "value");
+        long before = usedHeap();
+        for (int i = 0; i < DISTINCT_KEYS; i++) {
+            cache.put("https://example.com/resource/" + i, "value");
+        }
+        long growth = usedHeap() - before;
+        assertTrue("Heap grew by " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @param ioExecutor is the I/O executor, or null to use the default one.
+     */
+    private DualCache<String> openCache(Executor ioExecutor) {
+        Builder<String> builder = new Builder<String>("refresh", 0)
+            .enableLog()
+            .useSerializerInRam(1024 * 1024, new StringSerializer())
+            .useSerializerInDisk(1024 * 1024, caches.getFolder(), new StringSerializer())
+            .useRefreshAhead(REFRESH_INTERVAL_MS, loader);
+        if (ioExecutor != null) {
+            builder.useIoExecutor(ioExecutor);
+        }
+        DualCache<String> cache = builder.build();
+        executor.runAll();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static class CountingLoader implements CacheLoader<String> {
+
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile boolean isFailing;
+        private volatile long loadDurationMs;
+        private volatile Thread readingThread;
+        private volatile boolean isLoadedByReadingThread;
+
+        @Override
+        public String load(String key) {
+            int load = loads.incrementAndGet();
+            if (Thread.currentThread() == readingThread) {
+                isLoadedByReadingThread = true;
+            }
+            if (loadDurationMs > 0) {
+                try {
+                    Thread.sleep(loadDurationMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (isFailing) {
+                throw new IllegalStateException("Network unavailable");
+            }
+            return "reloaded " + load;
+        }
+    }
+}
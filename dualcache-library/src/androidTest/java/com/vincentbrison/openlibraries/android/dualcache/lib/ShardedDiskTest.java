@@ -0,0 +1,114 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the disk layer partitioned over several stores, with the compactions and the rebuilds of
+ * the key filter run on the calling thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShardedDiskTest {
+
+    private static final int SHARDS = 4;
+    private static final int KEYS = 200;
+    private static final int VALUE_SIZE = 1000;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("sharded");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testFilePerEntry() throws Exception {
+        checkShards(DualCacheDiskEngine.FILE_PER_ENTRY);
+    }
+
+    @Test
+    public void testLogStructured() throws Exception {
+        checkShards(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    @Test
+    public void testEachShardBoundsItsShare() throws Exception {
+        int maxSize = KEYS * VALUE_SIZE / 2;
+        DualCache<String> cache = openCache(DualCacheDiskEngine.FILE_PER_ENTRY, maxSize);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, value(i));
+        }
+        cache.close();
+        assertTrue(openCache(DualCacheDiskEngine.FILE_PER_ENTRY, maxSize).getDiskUsedInBytes()
+            <= maxSize);
+    }
+
+    private void checkShards(DualCacheDiskEngine engine) throws Exception {
+        DualCache<String> cache = openCache(engine, 10 * KEYS * VALUE_SIZE);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, value(i));
+        }
+        cache.delete("key0");
+        assertNull(cache.get("key0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals(value(i), cache.get("key" + i));
+        }
+        long usedBytes = cache.getDiskUsedInBytes();
+        cache.close();
+
+        for (int i = 0; i < SHARDS; i++) {
+            assertTrue(new File(caches.getFolder(), "shard" + i).isDirectory());
+        }
+        DualCache<String> reopened = openCache(engine, 10 * KEYS * VALUE_SIZE);
+        assertEquals(usedBytes, reopened.getDiskUsedInBytes());
+        assertNull(reopened.get("key0"));
+        for (int i = 1; i < KEYS; i++) {
+            assertEquals(value(i), reopened.get("key" + i));
+        }
+
+        reopened.invalidateDisk();
+        assertEquals(0, reopened.getDiskUsedInBytes());
+        assertNull(reopened.get("key1"));
+    }
+
+    private DualCache<String> openCache(DualCacheDiskEngine engine, int maxSize) {
+        DualCache<String> cache = new Builder<String>("sharded", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(maxSize, caches.getFolder(), new StringSerializer())
+            .useDiskEngine(engine)
+            .useShardsInDisk(SHARDS)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR)
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+
+    private static String value(int index) {
+        StringBuilder builder = new StringBuilder().append(index).append('-');
+        while (builder.length() < VALUE_SIZE) {
+            builder.append('x');
+        }
+        return builder.toString();
+    }
+}
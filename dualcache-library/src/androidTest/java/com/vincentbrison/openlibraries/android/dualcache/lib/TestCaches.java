@@ -0,0 +1,121 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.InstrumentationRegistry;
+
+import com.vincentbrison.openlibraries.android.dualcache.CacheSerializer;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Fixture of the tests caching strings in a folder of the app cache: keeps the caches opened by a
+ * test, to invalidate and close them after it.
+ */
+public final class TestCaches {
+
+    /**
+     * Executor running the I/O operations on the calling thread.
+     */
+    public static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final File folder;
+    private final List<DualCache<String>> caches = new ArrayList<>();
+
+    /**
+     * @param folderName is the name of the folder of the disk layers, in the app cache.
+     */
+    public TestCaches(String folderName) {
+        this.folder =
+            new File(InstrumentationRegistry.getTargetContext().getCacheDir(), folderName);
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * @param cache is a cache just opened by the test.
+     * @return the cache.
+     */
+    public DualCache<String> add(DualCache<String> cache) {
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Invalidate and close the caches opened by the test, including the ones it has closed itself.
+     */
+    public void closeAll() throws IOException {
+        for (DualCache<String> cache : caches) {
+            cache.invalidate();
+            cache.close();
+        }
+        caches.clear();
+    }
+
+    public static class StringSerializer implements CacheSerializer<String> {
+
+        @Override
+        public String fromString(String data) {
+            return data;
+        }
+
+        @Override
+        public String toString(String object) {
+            return object;
+        }
+    }
+
+    /**
+     * Executor queuing its tasks until {@link #run(int)} or {@link #runAll()} is called.
+     */
+    public static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        public synchronized int size() {
+            return tasks.size();
+        }
+
+        /**
+         * Run the oldest tasks, in the order they were queued.
+         */
+        public void run(int count) {
+            for (int i = 0; i < count; i++) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.remove(0);
+                }
+                task.run();
+            }
+        }
+
+        /**
+         * Run the tasks queued so far, but not the ones they queue.
+         */
+        public void runAll() {
+            List<Runnable> toRun;
+            synchronized (this) {
+                toRun = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+            for (Runnable task : toRun) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test objects put with a time to live, in both cache layers and with both disk engines.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TimeToLiveTest {
+
+    private static final long TIME_TO_LIVE_MS = 100;
+
+    /**
+     * Longer than the time to live, plus a tick of the timer wheel finding the expired objects.
+     */
+    private static final long RECLAIM_DELAY_MS = TIME_TO_LIVE_MS + 1500;
+
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("ttl");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testFilePerEntry() throws Exception {
+        checkExpiration(openCache(true, DualCacheDiskEngine.FILE_PER_ENTRY, 0));
+    }
+
+    @Test
+    public void testLogStructured() throws Exception {
+        checkExpiration(openCache(true, DualCacheDiskEngine.LOG_STRUCTURED, 0));
+    }
+
+    @Test
+    public void testRamOnly() throws Exception {
+        DualCache<String> cache = openCache(true, null, 0);
+        cache.put("short", "value", TIME_TO_LIVE_MS);
+        assertEquals("value", cache.get("short"));
+        Thread.sleep(RECLAIM_DELAY_MS);
+        assertFalse(cache.contains("short"));
+        assertNull(cache.get("short"));
+        assertEquals(0, cache.getRamUsedInBytes());
+    }
+
+    @Test
+    public void testReclaimedFromDisk() throws Exception {
+        for (DualCacheDiskEngine engine : DualCacheDiskEngine.values()) {
+            DualCache<String> cache = openCache(false, engine, 0);
+            cache.put("short", "value", TIME_TO_LIVE_MS);
+            assertTrue(cache.getDiskUsedInBytes() > 0);
+            Thread.sleep(RECLAIM_DELAY_MS);
+            // Any operation removes the expired objects, here on the calling thread.
+            assertNull(cache.get("other"));
+            assertEquals(0, cache.getDiskUsedInBytes());
+            cache.invalidate();
+        }
+    }
+
+    @Test
+    public void testExpirationSurvivesReopening() throws Exception {
+        for (DualCacheDiskEngine engine : DualCacheDiskEngine.values()) {
+            DualCache<String> cache = openCache(false, engine, 0);
+            cache.put("short", "value", TIME_TO_LIVE_MS);
+            cache.put("forever", "value");
+            cache.close();
+
+            DualCache<String> reopened = openCache(true, engine, 0);
+            Thread.sleep(TIME_TO_LIVE_MS * 2);
+            assertNull(reopened.get("short"));
+            assertFalse(reopened.contains("short"));
+            assertEquals("value", reopened.get("forever"));
+            reopened.invalidate();
+        }
+    }
+
+    @Test
+    public void testDefaultTimeToLive() throws Exception {
+        DualCache<String> cache = openCache(true, DualCacheDiskEngine.FILE_PER_ENTRY,
+            TIME_TO_LIVE_MS);
+        cache.put("default", "value");
+        cache.put("forever", "value", 0);
+        Thread.sleep(TIME_TO_LIVE_MS * 2);
+        assertNull(cache.get("default"));
+        assertEquals("value", cache.get("forever"));
+    }
+
+    @Test
+    public void testPutAgainBeforeExpiration() throws Exception {
+        DualCache<String> cache = openCache(true, DualCacheDiskEngine.LOG_STRUCTURED, 0);
+        cache.put("key", "first", TIME_TO_LIVE_MS);
+        cache.put("key", "second");
+        Thread.sleep(RECLAIM_DELAY_MS);
+        assertEquals("second", cache.get("key"));
+        cache.invalidateRAM();
+        assertEquals("second", cache.get("key"));
+    }
+
+    private void checkExpiration(DualCache<String> cache) throws Exception {
+        cache.put("short", "value", TIME_TO_LIVE_MS);
+        cache.put("long", "value", 60 * 1000);
+        cache.put("forever", "value");
+        assertEquals("value", cache.get("short"));
+        Thread.sleep(TIME_TO_LIVE_MS * 2);
+
+        // Rejected from both layers, before any reclamation.
+        assertNull(cache.get("short"));
+        assertFalse(cache.contains("short"));
+        cache.invalidateRAM();
+        assertNull(cache.get("short"));
+        assertEquals("value", cache.get("long"));
+        assertEquals("value", cache.get("forever"));
+    }
+
+    /**
+     * @param engine is the disk engine, or null to disable the disk layer.
+     */
+    private DualCache<String> openCache(
+        boolean ram, DualCacheDiskEngine engine, long defaultTimeToLiveMillis) {
+        Builder<String> builder = new Builder<String>("ttl", 0)
+            .enableLog()
+            .useDefaultTimeToLive(defaultTimeToLiveMillis)
+            .useIoExecutor(TestCaches.DIRECT_EXECUTOR);
+        if (ram) {
+            builder.useSerializerInRam(1024 * 1024, new StringSerializer());
+        } else {
+            builder.noRam();
+        }
+        if (engine != null) {
+            builder.useSerializerInDisk(1024 * 1024, caches.getFolder(), new StringSerializer())
+                .useDiskEngine(engine);
+        } else {
+            builder.noDisk();
+        }
+        DualCache<String> cache = builder.build();
+        caches.add(cache);
+        return cache;
+    }
+}
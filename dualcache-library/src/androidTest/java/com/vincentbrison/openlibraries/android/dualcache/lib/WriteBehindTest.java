@@ -0,0 +1,111 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.QueuedExecutor;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the write-behind of the disk layer, with an executor running the writes on demand.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteBehindTest {
+
+    private static final int DISK_MAX_SIZE = 1024 * 1024;
+    private static final int KEYS = 50;
+
+    private QueuedExecutor executor;
+    private TestCaches caches;
+
+    @Before
+    public void setUp() throws Exception {
+        caches = new TestCaches("writebehind");
+        executor = new QueuedExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        caches.closeAll();
+    }
+
+    @Test
+    public void testPutsOfSameKeyAreCoalesced() {
+        DualCache<String> cache = openWriteBehindCache();
+        for (int i = 0; i < 10; i++) {
+            cache.put("key", "value" + i);
+        }
+        assertEquals(1, executor.size());
+        cache.invalidateRAM();
+        assertEquals("value9", cache.get("key"));
+
+        executor.runAll();
+        assertEquals("value9", openCache().get("key"));
+    }
+
+    @Test
+    public void testCloseFlushesPendingWrites() throws Exception {
+        DualCache<String> cache = openWriteBehindCache();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.close();
+
+        DualCache<String> reopened = openCache();
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals("value" + i, reopened.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testCrashKeepsOldOrNewObjects() {
+        DualCache<String> cache = openWriteBehindCache();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "old" + i);
+        }
+        executor.runAll();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "new" + i);
+        }
+        // The process dies after half of the writes: the cache is never closed.
+        executor.run(KEYS / 2);
+
+        DualCache<String> reopened = openCache();
+        for (int i = 0; i < KEYS; i++) {
+            String expected = i < KEYS / 2 ? "new" + i : "old" + i;
+            assertEquals(expected, reopened.get("key" + i));
+        }
+    }
+
+    private DualCache<String> openWriteBehindCache() {
+        DualCache<String> cache = new Builder<String>("writebehind", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .useWriteBehindInDisk(KEYS)
+            .useIoExecutor(executor)
+            .build();
+        caches.add(cache);
+        // Open the disk layer, so that only the writes are left in the executor.
+        executor.runAll();
+        return cache;
+    }
+
+    private DualCache<String> openCache() {
+        DualCache<String> cache = new Builder<String>("writebehind", 0)
+            .enableLog()
+            .noRam()
+            .useSerializerInDisk(DISK_MAX_SIZE, caches.getFolder(), new StringSerializer())
+            .build();
+        caches.add(cache);
+        return cache;
+    }
+}
@@ -0,0 +1,108 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the batch operations with loops over the single key operations, for a screen loading
+ * a few hundreds of objects missing from the RAM layer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchBenchmark {
+
+    private static final int KEYS = 200;
+    private static final int ROUNDS = 20;
+
+    private DualCache<String> cache;
+    private List<String> keys;
+    private Map<String, String> objects;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new Builder<String>("benchmark", 0)
+            .useReferenceInRam(KEYS, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .useSerializerInDisk(
+                100 * 1024 * 1024,
+                true,
+                new StringSerializer(),
+                InstrumentationRegistry.getTargetContext())
+            .build();
+        keys = new ArrayList<>();
+        objects = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            keys.add("key" + i);
+            objects.put("key" + i, "value" + i);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.invalidate();
+        cache.close();
+    }
+
+    @Test
+    public void batchVersusLoop() {
+        long loopPut = 0;
+        long batchPut = 0;
+        long loopGet = 0;
+        long batchGet = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            for (Map.Entry<String, String> entry : objects.entrySet()) {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+            loopPut += System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            cache.putAll(objects);
+            batchPut += System.nanoTime() - begin;
+
+            cache.invalidateRAM();
+            begin = System.nanoTime();
+            Map<String, String> looped = new HashMap<>();
+            for (String key : keys) {
+                looped.put(key, cache.get(key));
+            }
+            loopGet += System.nanoTime() - begin;
+
+            cache.invalidateRAM();
+            begin = System.nanoTime();
+            Map<String, String> batched = cache.getAll(keys);
+            batchGet += System.nanoTime() - begin;
+
+            assertEquals(objects, looped);
+            assertEquals(objects, batched);
+        }
+        BenchmarkHelper.report("Batch", "loop put", toMillis(loopPut), "ms/" + KEYS + " keys");
+        BenchmarkHelper.report("Batch", "putAll", toMillis(batchPut), "ms/" + KEYS + " keys");
+        BenchmarkHelper.report("Batch", "loop get", toMillis(loopGet), "ms/" + KEYS + " keys");
+        BenchmarkHelper.report("Batch", "getAll", toMillis(batchGet), "ms/" + KEYS + " keys");
+    }
+
+    private double toMillis(long totalNanos) {
+        return totalNanos / 1000000.0 / ROUNDS;
+    }
+}
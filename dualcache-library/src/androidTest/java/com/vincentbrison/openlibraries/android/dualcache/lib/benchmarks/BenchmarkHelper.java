@@ -0,0 +1,86 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Small helpers shared by the benchmarks. Results are reported through logcat with the tag
+ * {@link #TAG}.
+ */
+public final class BenchmarkHelper {
+
+    public static final String TAG = "dualcachebenchmark";
+
+    private BenchmarkHelper() {
+    }
+
+    /**
+     * Operation executed by each worker thread of a benchmark.
+     */
+    public interface Operation {
+        /**
+         * @param thread    is the index of the worker thread.
+         * @param iteration is the index of the iteration in this thread.
+         */
+        void run(int thread, int iteration);
+    }
+
+    /**
+     * Run an operation from several threads at the same time.
+     *
+     * @param threads             is the number of worker threads.
+     * @param iterationsPerThread is the number of times each thread runs the operation.
+     * @param operation           is the operation to run.
+     * @return the throughput in operations per millisecond.
+     */
+    public static double runConcurrently(
+        int threads,
+        final int iterationsPerThread,
+        final Operation operation
+    ) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            workers.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int iteration = 0; iteration < iterationsPerThread; iteration++) {
+                            operation.run(thread, iteration);
+                        }
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsedNanos = Math.max(1, System.nanoTime() - begin);
+        return (double) threads * iterationsPerThread * 1000000 / elapsedNanos;
+    }
+
+    /**
+     * Log one line of benchmark result.
+     *
+     * @param benchmark is the name of the benchmark.
+     * @param variant   describes the configuration measured.
+     * @param value     is the measured value.
+     * @param unit      is the unit of the measured value.
+     */
+    public static void report(String benchmark, String variant, double value, String unit) {
+        Log.i(TAG, String.format("%s [%s] : %.2f %s", benchmark, variant, value, unit));
+    }
+}
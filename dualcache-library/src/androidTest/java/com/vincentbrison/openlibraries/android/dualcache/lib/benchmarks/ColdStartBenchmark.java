@@ -0,0 +1,86 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measure the time to build a cache with the log-structured disk engine holding many objects,
+ * from the snapshot of the index written on close, and by scanning all the segments when there is
+ * no snapshot. The cache is opened once before measuring, so that the segments are in the page
+ * cache for both measures.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColdStartBenchmark {
+
+    private static final int[] ENTRIES = {10000, 100000, 1000000};
+    private static final int VALUE_SIZE = 100;
+
+    @Test
+    public void indexSnapshotVersusFullScan() throws Exception {
+        for (int entries : ENTRIES) {
+            measure(entries);
+        }
+    }
+
+    private void measure(int entries) throws Exception {
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-cold-start");
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < VALUE_SIZE) {
+            padding.append('.');
+        }
+        DualCache<String> cache = buildCache(folder);
+        for (int i = 0; i < entries; i++) {
+            cache.put("key" + i, padding.toString() + i);
+        }
+        cache.close();
+        buildCache(folder).close();
+
+        long begin = System.nanoTime();
+        cache = buildCache(folder);
+        // The disk layer is opened on the I/O executor, after build() has returned.
+        BenchmarkHelper.report("Cold start", entries + " entries build", toMillis(begin), "ms");
+        cache.awaitDiskReady();
+        BenchmarkHelper.report(
+            "Cold start", entries + " entries from index", toMillis(begin), "ms");
+        assertEquals(padding.toString() + 0, cache.get("key0"));
+        cache.close();
+
+        File index = new File(folder, "index");
+        assertTrue(index.delete());
+        begin = System.nanoTime();
+        cache = buildCache(folder);
+        cache.awaitDiskReady();
+        BenchmarkHelper.report(
+            "Cold start", entries + " entries from scan", toMillis(begin), "ms");
+        assertEquals(padding.toString() + 0, cache.get("key0"));
+
+        cache.invalidate();
+        cache.close();
+    }
+
+    private DualCache<String> buildCache(File folder) {
+        return new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(500 * 1024 * 1024, folder, new StringSerializer())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .build();
+    }
+
+    private static double toMillis(long begin) {
+        return (System.nanoTime() - begin) / 1000000.0;
+    }
+}
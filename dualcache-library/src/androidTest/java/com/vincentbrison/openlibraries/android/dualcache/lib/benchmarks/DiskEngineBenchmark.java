@@ -0,0 +1,79 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the disk engines on many small objects: writing them, reading them, and opening the
+ * cache again, with the number of files created.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskEngineBenchmark {
+
+    private static final int KEYS = 5000;
+    private static final int VALUE_SIZE = 200;
+
+    @Test
+    public void filePerEntryVersusLogStructured() throws Exception {
+        measure(DualCacheDiskEngine.FILE_PER_ENTRY);
+        measure(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    private void measure(DualCacheDiskEngine engine) throws Exception {
+        String variant = engine.name();
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-" + variant);
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < VALUE_SIZE) {
+            padding.append('.');
+        }
+
+        DualCache<String> cache = buildCache(engine, folder);
+        long begin = System.nanoTime();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, padding.toString() + i);
+        }
+        BenchmarkHelper.report("Disk engine", variant + " put", toMicros(begin), "us/object");
+        cache.close();
+
+        begin = System.nanoTime();
+        cache = buildCache(engine, folder);
+        cache.awaitDiskReady();
+        BenchmarkHelper.report(
+            "Disk engine", variant + " open", (System.nanoTime() - begin) / 1000000.0, "ms");
+
+        begin = System.nanoTime();
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(padding.toString() + i, cache.get("key" + i));
+        }
+        BenchmarkHelper.report("Disk engine", variant + " get", toMicros(begin), "us/object");
+        BenchmarkHelper.report("Disk engine", variant + " files", folder.list().length, "files");
+
+        cache.invalidate();
+        cache.close();
+    }
+
+    private DualCache<String> buildCache(DualCacheDiskEngine engine, File folder) {
+        return new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(100 * 1024 * 1024, folder, new StringSerializer())
+            .useDiskEngine(engine)
+            .build();
+    }
+
+    private double toMicros(long begin) {
+        return (System.nanoTime() - begin) / 1000.0 / KEYS;
+    }
+}
@@ -0,0 +1,98 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compare the reads of keys which are not on disk, answered by the filter of the keys on disk,
+ * with the reads of keys which are, from one thread and from several threads at once.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskMissBenchmark {
+
+    private static final int KEYS = 5000;
+    private static final int THREADS = 4;
+
+    @Test
+    public void missesVersusHits() throws Exception {
+        measure(DualCacheDiskEngine.FILE_PER_ENTRY);
+        measure(DualCacheDiskEngine.LOG_STRUCTURED);
+    }
+
+    private void measure(DualCacheDiskEngine engine) throws Exception {
+        String variant = engine.name();
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-miss-" + variant);
+        final DualCache<String> cache = buildCache(engine, folder);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        long begin = System.nanoTime();
+        readAll(cache, "key");
+        BenchmarkHelper.report("Disk miss", variant + " hit", toMicros(begin, KEYS), "us/read");
+
+        begin = System.nanoTime();
+        readAll(cache, "missing");
+        BenchmarkHelper.report("Disk miss", variant + " miss", toMicros(begin, KEYS), "us/read");
+
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readAll(cache, "missing");
+                }
+            });
+        }
+        begin = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        BenchmarkHelper.report("Disk miss", variant + " miss " + THREADS + " threads",
+            toMicros(begin, KEYS * THREADS), "us/read");
+
+        cache.invalidate();
+        cache.close();
+    }
+
+    private static void readAll(DualCache<String> cache, String prefix) {
+        boolean isHit = "key".equals(prefix);
+        for (int i = 0; i < KEYS; i++) {
+            String value = cache.get(prefix + i);
+            if (isHit) {
+                assertEquals("value" + i, value);
+            } else {
+                assertNull(value);
+            }
+        }
+    }
+
+    private DualCache<String> buildCache(DualCacheDiskEngine engine, File folder) {
+        return new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(100 * 1024 * 1024, folder, new StringSerializer())
+            .useDiskEngine(engine)
+            .build();
+    }
+
+    private static double toMicros(long begin, int reads) {
+        return (System.nanoTime() - begin) / 1000.0 / reads;
+    }
+}
@@ -0,0 +1,58 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure the throughput of disk reads of a single key from more and more threads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HotKeyReadBenchmark {
+
+    private static final int MAX_THREADS = 16;
+    private static final int ITERATIONS_PER_THREAD = 2000;
+    private static final String KEY = "hot";
+
+    @Test
+    public void readThroughput() throws Exception {
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-hot-key");
+        final DualCache<String> cache = new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(10 * 1024 * 1024, folder, new StringSerializer())
+            .build();
+        cache.put(KEY, "value");
+
+        final AtomicInteger misses = new AtomicInteger();
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            double throughput = BenchmarkHelper.runConcurrently(
+                threads,
+                ITERATIONS_PER_THREAD,
+                new BenchmarkHelper.Operation() {
+                    @Override
+                    public void run(int thread, int iteration) {
+                        if (cache.get(KEY) == null) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                });
+            BenchmarkHelper.report("Hot key reads", threads + " threads", throughput, "ops/ms");
+        }
+        assertEquals(0, misses.get());
+
+        cache.invalidate();
+        cache.close();
+    }
+}
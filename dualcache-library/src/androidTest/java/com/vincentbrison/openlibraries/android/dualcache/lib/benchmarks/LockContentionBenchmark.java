@@ -0,0 +1,69 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Measure the throughput of disk editions taking entry locks, from more and more threads, on a few
+ * hot keys and on keys never edited before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LockContentionBenchmark {
+
+    private static final int MAX_THREADS = 8;
+    private static final int HOT_KEYS = 16;
+    private static final int ITERATIONS_PER_THREAD = 20000;
+
+    @Test
+    public void editionThroughput() throws Exception {
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-locks");
+        final DualCache<String> cache = new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(100 * 1024 * 1024, folder, new StringSerializer())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .build();
+        cache.awaitDiskReady();
+
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            final int threadCount = threads;
+            double hot = BenchmarkHelper.runConcurrently(
+                threads,
+                ITERATIONS_PER_THREAD,
+                new BenchmarkHelper.Operation() {
+                    @Override
+                    public void run(int thread, int iteration) {
+                        cache.delete("hot" + (iteration % HOT_KEYS));
+                    }
+                });
+            BenchmarkHelper.report("Lock contention", threads + " threads, hot keys", hot,
+                "ops/ms");
+
+            final int round = threads;
+            double distinct = BenchmarkHelper.runConcurrently(
+                threads,
+                ITERATIONS_PER_THREAD,
+                new BenchmarkHelper.Operation() {
+                    @Override
+                    public void run(int thread, int iteration) {
+                        cache.delete(round + "-" + (iteration * threadCount + thread));
+                    }
+                });
+            BenchmarkHelper.report("Lock contention", threads + " threads, distinct keys",
+                distinct, "ops/ms");
+        }
+
+        cache.invalidate();
+        cache.close();
+    }
+}
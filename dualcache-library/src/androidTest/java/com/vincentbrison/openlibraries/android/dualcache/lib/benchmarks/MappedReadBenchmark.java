@@ -0,0 +1,103 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.StreamCacheSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the latency of reading large objects from the disk layer through streams and from
+ * files mapped in memory, for both disk engines. Deserializing an object only counts its bytes,
+ * so that the time is spent reading them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MappedReadBenchmark {
+
+    private static final int KEYS = 200;
+    private static final int VALUE_SIZE = 64 * 1024;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void streamedVersusMemoryMapped() throws Exception {
+        for (DualCacheDiskEngine engine : DualCacheDiskEngine.values()) {
+            measure(engine, false);
+            measure(engine, true);
+        }
+    }
+
+    private void measure(DualCacheDiskEngine engine, boolean isMapped) throws Exception {
+        String variant = engine.name() + (isMapped ? " mapped" : " streamed");
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-mapped");
+        DualCache<Long> cache = buildCache(engine, isMapped, folder);
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, (long) i);
+        }
+
+        // The first round warms up the page cache and the mappings.
+        long begin = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            if (round == 1) {
+                begin = System.nanoTime();
+            }
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(Long.valueOf(VALUE_SIZE), cache.get("key" + i));
+            }
+        }
+        BenchmarkHelper.report("Mapped reads", variant + " get",
+            (System.nanoTime() - begin) / 1000.0 / KEYS / ROUNDS, "us/object");
+
+        cache.invalidate();
+        cache.close();
+    }
+
+    private DualCache<Long> buildCache(DualCacheDiskEngine engine, boolean isMapped, File folder) {
+        Builder<Long> builder = new Builder<Long>("benchmark", 0)
+            .noRam()
+            .useStreamSerializerInDisk(100 * 1024 * 1024, folder, new CountingSerializer())
+            .useDiskEngine(engine);
+        if (isMapped) {
+            builder.useMemoryMappedReadsInDisk();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes {@link #VALUE_SIZE} bytes derived from a seed, and reads back their count.
+     */
+    private static class CountingSerializer implements StreamCacheSerializer<Long> {
+
+        @Override
+        public Long read(InputStream inputStream) throws IOException {
+            byte[] buffer = new byte[4096];
+            long count = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                count += read;
+            }
+            return count;
+        }
+
+        @Override
+        public void write(Long object, OutputStream outputStream) throws IOException {
+            byte[] buffer = new byte[VALUE_SIZE];
+            for (int i = 0; i < VALUE_SIZE; i++) {
+                buffer[i] = (byte) (object + i);
+            }
+            outputStream.write(buffer);
+        }
+    }
+}
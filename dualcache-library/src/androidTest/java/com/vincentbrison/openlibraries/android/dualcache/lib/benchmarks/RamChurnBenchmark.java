@@ -0,0 +1,54 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measure the throughput of puts in a full RAM layer, where every put evicts an entry.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RamChurnBenchmark {
+
+    private static final int ENTRIES = 10000;
+    private static final int PUTS = 200000;
+
+    @Test
+    public void putThroughputWhileEvicting() throws Exception {
+        final DualCache<String> cache = new Builder<String>("benchmark", 0)
+            .useReferenceInRam(ENTRIES, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .noDisk()
+            .build();
+        final String[] keys = new String[ENTRIES + PUTS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        for (int i = 0; i < ENTRIES; i++) {
+            cache.put(keys[i], keys[i]);
+        }
+
+        double throughput = BenchmarkHelper.runConcurrently(
+            1,
+            PUTS,
+            new BenchmarkHelper.Operation() {
+                @Override
+                public void run(int thread, int iteration) {
+                    cache.put(keys[ENTRIES + iteration], keys[iteration]);
+                }
+            });
+        BenchmarkHelper.report("RAM churn", ENTRIES + " entries", throughput, "puts/ms");
+        assertTrue(cache.getRamUsedInBytes() <= ENTRIES);
+    }
+}
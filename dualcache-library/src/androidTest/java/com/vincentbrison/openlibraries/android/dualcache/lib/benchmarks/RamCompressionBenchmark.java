@@ -0,0 +1,126 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare the hit ratio and the latency of RAM hits of a serialized RAM layer storing json
+ * documents, with and without compression, for the same RAM budget.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RamCompressionBenchmark {
+
+    private static final int RAM_SIZE = 512 * 1024;
+    private static final int KEYS = 2000;
+    private static final int ACCESSES = 100000;
+    private static final int HIT_READS = 100000;
+    private static final long SEED = 42;
+
+    @Test
+    public void compressionFitsMoreEntries() throws Exception {
+        String[] documents = createDocuments();
+        int[] trace = createTrace();
+
+        double rawHitRatio = replay(createCache(false), documents, trace);
+        double compressedHitRatio = replay(createCache(true), documents, trace);
+        BenchmarkHelper.report("RAM compression", "raw hit ratio", rawHitRatio * 100, "%");
+        BenchmarkHelper.report(
+            "RAM compression", "compressed hit ratio", compressedHitRatio * 100, "%");
+
+        BenchmarkHelper.report(
+            "RAM compression", "raw get", hitLatency(createCache(false), documents), "ns/get");
+        BenchmarkHelper.report("RAM compression", "compressed get",
+            hitLatency(createCache(true), documents), "ns/get");
+
+        assertTrue(compressedHitRatio > rawHitRatio);
+    }
+
+    private DualCache<String> createCache(boolean compressed) {
+        Builder<String> builder = new Builder<String>("benchmark", 0)
+            .useSerializerInRam(RAM_SIZE, new StringSerializer())
+            .noDisk();
+        if (compressed) {
+            builder.useCompressionInRam();
+        }
+        return builder.build();
+    }
+
+    private double replay(DualCache<String> cache, String[] documents, int[] trace) {
+        int hits = 0;
+        for (int key : trace) {
+            if (cache.get("key" + key) != null) {
+                hits++;
+            } else {
+                cache.put("key" + key, documents[key]);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * @return the mean latency of a RAM hit, in nanoseconds.
+     */
+    private double hitLatency(DualCache<String> cache, String[] documents) {
+        // Few enough entries to fit in both caches.
+        int entries = 50;
+        for (int i = 0; i < entries; i++) {
+            cache.put("key" + i, documents[i]);
+        }
+        long begin = System.nanoTime();
+        int misses = 0;
+        for (int i = 0; i < HIT_READS; i++) {
+            if (cache.get("key" + (i % entries)) == null) {
+                misses++;
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        assertTrue(misses == 0);
+        return (double) elapsed / HIT_READS;
+    }
+
+    /**
+     * @return json documents looking like a typical API response, between 1 and 4 KiB.
+     */
+    private String[] createDocuments() {
+        Random random = new Random(SEED);
+        String[] documents = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            StringBuilder json = new StringBuilder("{\"id\":").append(i).append(",\"items\":[");
+            int items = 10 + random.nextInt(30);
+            for (int j = 0; j < items; j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("{\"name\":\"item").append(random.nextInt(1000))
+                    .append("\",\"price\":").append(random.nextInt(10000))
+                    .append(",\"available\":").append(random.nextBoolean())
+                    .append(",\"category\":\"category").append(random.nextInt(10)).append("\"}");
+            }
+            documents[i] = json.append("]}").toString();
+        }
+        return documents;
+    }
+
+    /**
+     * @return keys accessed with a skewed distribution, favoring small keys.
+     */
+    private int[] createTrace() {
+        Random random = new Random(SEED);
+        int[] trace = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            double uniform = random.nextDouble();
+            trace[i] = (int) (KEYS * uniform * uniform);
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,67 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure the throughput of RAM hits when more and more threads are reading the cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RamContentionBenchmark {
+
+    private static final int ENTRIES = 1000;
+    private static final int ITERATIONS_PER_THREAD = 200000;
+
+    private DualCache<String> cache;
+    private String[] keys;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new Builder<String>("benchmark", 0)
+            .useReferenceInRam(ENTRIES, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .noDisk()
+            .build();
+        keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "key" + i;
+            cache.put(keys[i], "value" + i);
+        }
+    }
+
+    @Test
+    public void hitThroughputScalesWithThreads() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+            final AtomicInteger misses = new AtomicInteger();
+            double throughput = BenchmarkHelper.runConcurrently(
+                threads,
+                ITERATIONS_PER_THREAD,
+                new BenchmarkHelper.Operation() {
+                    @Override
+                    public void run(int thread, int iteration) {
+                        if (cache.get(keys[(iteration * 31 + thread) % ENTRIES]) == null) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                });
+            BenchmarkHelper.report("RAM hits", threads + " threads", throughput, "ops/ms");
+            assertEquals(0, misses.get());
+        }
+    }
+}
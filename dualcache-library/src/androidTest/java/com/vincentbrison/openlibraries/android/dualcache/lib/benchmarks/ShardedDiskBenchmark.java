@@ -0,0 +1,74 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure the throughput of the disk layer with several threads reading and writing different
+ * keys, when it is partitioned over more and more shards.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShardedDiskBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 2000;
+    private static final int ITERATIONS_PER_THREAD = 1000;
+
+    /**
+     * One operation out of this number is a write, the others are reads.
+     */
+    private static final int WRITE_PERIOD = 5;
+
+    @Test
+    public void throughputScalesWithShards() throws Exception {
+        for (int shards = 1; shards <= THREADS; shards *= 2) {
+            measure(shards);
+        }
+    }
+
+    private void measure(int shards) throws Exception {
+        File folder = new File(
+            InstrumentationRegistry.getTargetContext().getCacheDir(), "benchmark-shards");
+        final DualCache<String> cache = new Builder<String>("benchmark", 0)
+            .noRam()
+            .useSerializerInDisk(100 * 1024 * 1024, folder, new StringSerializer())
+            .useShardsInDisk(shards)
+            .build();
+        for (int i = 0; i < KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        final AtomicInteger misses = new AtomicInteger();
+        double throughput = BenchmarkHelper.runConcurrently(
+            THREADS,
+            ITERATIONS_PER_THREAD,
+            new BenchmarkHelper.Operation() {
+                @Override
+                public void run(int thread, int iteration) {
+                    int index = (iteration * THREADS + thread) % KEYS;
+                    if (iteration % WRITE_PERIOD == 0) {
+                        cache.put("key" + index, "value" + index);
+                    } else if (cache.get("key" + index) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+        BenchmarkHelper.report("Sharded disk", shards + " shards", throughput, "ops/ms");
+        assertEquals(0, misses.get());
+
+        cache.invalidate();
+        cache.close();
+    }
+}
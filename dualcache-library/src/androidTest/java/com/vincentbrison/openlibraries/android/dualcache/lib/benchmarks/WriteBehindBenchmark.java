@@ -0,0 +1,81 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.benchmarks;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCache;
+import com.vincentbrison.openlibraries.android.dualcache.SizeOf;
+import com.vincentbrison.openlibraries.android.dualcache.lib.TestCaches.StringSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare the latency of put when the disk layer is written synchronously and when it is written
+ * behind, including the time to flush the pending writes on close.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteBehindBenchmark {
+
+    private static final int KEYS = 200;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void synchronousVersusWriteBehind() throws Exception {
+        measure("synchronous", 0);
+        measure("write-behind", KEYS);
+    }
+
+    private void measure(String variant, int maxPendingWrites) throws Exception {
+        long put = 0;
+        long close = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            DualCache<String> cache = buildCache(maxPendingWrites);
+            long begin = System.nanoTime();
+            for (int i = 0; i < KEYS; i++) {
+                // Each key is put twice, as when an object is updated right after being loaded.
+                cache.put("key" + i, "value" + i);
+                cache.put("key" + i, "updated" + i);
+            }
+            put += System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            cache.close();
+            close += System.nanoTime() - begin;
+
+            DualCache<String> reopened = buildCache(0);
+            assertEquals("updated" + (KEYS - 1), reopened.get("key" + (KEYS - 1)));
+            reopened.invalidate();
+            reopened.close();
+        }
+        BenchmarkHelper.report("WriteBehind", variant + " put", toMicros(put), "us/put");
+        BenchmarkHelper.report(
+            "WriteBehind", variant + " close", close / 1000000.0 / ROUNDS, "ms/close");
+    }
+
+    private DualCache<String> buildCache(int maxPendingWrites) {
+        Builder<String> builder = new Builder<String>("benchmark", 0)
+            .useReferenceInRam(KEYS, new SizeOf<String>() {
+                @Override
+                public int sizeOf(String object) {
+                    return 1;
+                }
+            })
+            .useSerializerInDisk(
+                100 * 1024 * 1024,
+                true,
+                new StringSerializer(),
+                InstrumentationRegistry.getTargetContext());
+        if (maxPendingWrites > 0) {
+            builder.useWriteBehindInDisk(maxPendingWrites);
+        }
+        return builder.build();
+    }
+
+    private double toMicros(long totalNanos) {
+        return totalNanos / 1000.0 / ROUNDS / (KEYS * 2);
+    }
+}
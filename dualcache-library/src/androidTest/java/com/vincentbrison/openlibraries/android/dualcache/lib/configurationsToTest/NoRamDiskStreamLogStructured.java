@@ -0,0 +1,21 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.configurationsToTest;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.DualCacheDiskEngine;
+import com.vincentbrison.openlibraries.android.dualcache.lib.DualCacheTest;
+import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.AbstractVehicule;
+
+public class NoRamDiskStreamLogStructured extends DualCacheTest {
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        cache = new Builder<AbstractVehicule>(CACHE_NAME, TEST_APP_VERSION)
+            .enableLog()
+            .noRam()
+            .useStreamSerializerInDisk(
+                DISK_MAX_SIZE, true, new DualCacheTest.StreamSerializerForTesting(), getContext())
+            .useDiskEngine(DualCacheDiskEngine.LOG_STRUCTURED)
+            .build();
+    }
+}
@@ -0,0 +1,19 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.configurationsToTest;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.lib.DualCacheTest;
+import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.AbstractVehicule;
+
+public class RamOffHeapBinarySerializerNoDisk extends DualCacheTest {
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        BinarySerializerForTesting serializer = new DualCacheTest.BinarySerializerForTesting();
+        cache = new Builder<AbstractVehicule>(CACHE_NAME, TEST_APP_VERSION)
+            .enableLog()
+            .useBinarySerializerInOffHeapRam(RAM_MAX_SIZE, serializer)
+            .noDisk()
+            .build();
+    }
+}
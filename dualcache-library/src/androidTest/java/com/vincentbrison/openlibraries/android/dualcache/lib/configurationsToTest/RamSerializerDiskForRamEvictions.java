@@ -0,0 +1,20 @@
+package com.vincentbrison.openlibraries.android.dualcache.lib.configurationsToTest;
+
+import com.vincentbrison.openlibraries.android.dualcache.Builder;
+import com.vincentbrison.openlibraries.android.dualcache.lib.DualCacheTest;
+import com.vincentbrison.openlibraries.android.dualcache.lib.testobjects.AbstractVehicule;
+
+public class RamSerializerDiskForRamEvictions extends DualCacheTest {
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        SerializerForTesting serializer = new SerializerForTesting();
+        cache = new Builder<AbstractVehicule>(CACHE_NAME, TEST_APP_VERSION)
+            .enableLog()
+            .useSerializerInRam(RAM_MAX_SIZE, serializer)
+            .useSerializerInDisk(DISK_MAX_SIZE, true, serializer, getContext())
+            .useDiskForRamEvictionsOnly()
+            .build();
+    }
+}
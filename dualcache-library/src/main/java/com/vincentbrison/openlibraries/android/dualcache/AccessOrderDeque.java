@@ -0,0 +1,103 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Intrusive doubly linked list of {@link RamLruCache.Node}, ordered from least recently accessed
+ * (first) to most recently accessed (last). The links are stored in the nodes themselves, so
+ * every operation is O(1) and allocation free. This class is not thread-safe: it is always used
+ * under the eviction lock of the owning cache.
+ *
+ * @param <K> is the class of the keys.
+ * @param <V> is the class of the values.
+ */
+class AccessOrderDeque<K, V> {
+
+    /**
+     * Sentinel closing the circular list: its next node is the first one, its previous node is
+     * the last one.
+     */
+    private final RamLruCache.Node<K, V> sentinel = new RamLruCache.Node<>(null, null, 0);
+
+    AccessOrderDeque() {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    boolean isEmpty() {
+        return sentinel.next == sentinel;
+    }
+
+    /**
+     * @return true if the node is linked in a deque.
+     */
+    static boolean isLinked(RamLruCache.Node<?, ?> node) {
+        return node.next != null;
+    }
+
+    /**
+     * @return the least recently accessed node, or null if the deque is empty.
+     */
+    RamLruCache.Node<K, V> peekFirst() {
+        return isEmpty() ? null : sentinel.next;
+    }
+
+    /**
+     * Link a node as the most recently accessed one.
+     *
+     * @param node is the node to link, which must not be linked in any deque.
+     */
+    void addLast(RamLruCache.Node<K, V> node) {
+        RamLruCache.Node<K, V> last = sentinel.prev;
+        node.prev = last;
+        node.next = sentinel;
+        last.next = node;
+        sentinel.prev = node;
+    }
+
+    /**
+     * Move a node of this deque to the most recently accessed position.
+     *
+     * @param node is the node to move.
+     */
+    void moveToBack(RamLruCache.Node<K, V> node) {
+        if (sentinel.prev != node) {
+            unlink(node);
+            addLast(node);
+        }
+    }
+
+    /**
+     * Unlink a node of this deque.
+     *
+     * @param node is the node to unlink.
+     */
+    void unlink(RamLruCache.Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    /**
+     * Unlink and return the least recently accessed node.
+     *
+     * @return the unlinked node, or null if the deque is empty.
+     */
+    RamLruCache.Node<K, V> pollFirst() {
+        RamLruCache.Node<K, V> first = peekFirst();
+        if (first != null) {
+            unlink(first);
+        }
+        return first;
+    }
+
+    /**
+     * Return the node following the given one, from the least to the most recently accessed.
+     *
+     * @param node is the current node, or null to start from the first one.
+     * @return the next node, or null once the end of the deque is reached.
+     */
+    RamLruCache.Node<K, V> next(RamLruCache.Node<K, V> node) {
+        RamLruCache.Node<K, V> next = node == null ? sentinel.next : node.next;
+        return next == sentinel ? null : next;
+    }
+}
@@ -0,0 +1,95 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of keys, telling that a key has definitely not been added, or that it may have
+ * been. Keys are given by 64 well distributed bits of their hash, like {@link HashedKey#hash1}.
+ * Each key sets 7 bits out of about 10 per expected key, which gives about 1% of false positives
+ * once the expected number of keys has been added. Keys can not be removed. This class is
+ * thread-safe and lock-free.
+ */
+class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_BITS = 1 << 30;
+
+    private final AtomicLongArray words;
+    private final int bitMask;
+    private final int expectedKeys;
+
+    /**
+     * Number of keys added which were not in the filter yet, as far as it can tell.
+     */
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param expectedKeys is the number of distinct keys expected to be added.
+     */
+    BloomFilter(int expectedKeys) {
+        long wanted = Math.min((long) Math.max(expectedKeys, 1) * BITS_PER_KEY, MAX_BITS);
+        int bits = Long.SIZE;
+        while (bits < wanted) {
+            bits <<= 1;
+        }
+        this.words = new AtomicLongArray(bits / Long.SIZE);
+        this.bitMask = bits - 1;
+        this.expectedKeys = expectedKeys;
+    }
+
+    /**
+     * @param hash is the hash of the key to look for.
+     * @return false if the key has never been added, true if it may have been.
+     */
+    boolean mightContain(long hash) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (hash1 + i * hash2) & bitMask;
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a key.
+     *
+     * @param hash is the hash of the key to add.
+     */
+    void add(long hash) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32) | 1;
+        boolean isNew = false;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (hash1 + i * hash2) & bitMask;
+            isNew |= set(bit >>> 6, 1L << bit);
+        }
+        if (isNew) {
+            additions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if more keys than expected have been added, so that false positives get more
+     * frequent than they should.
+     */
+    boolean isFull() {
+        return additions.get() > expectedKeys;
+    }
+
+    private boolean set(int index, long mask) {
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word | mask)) {
+                return true;
+            }
+        }
+    }
+}
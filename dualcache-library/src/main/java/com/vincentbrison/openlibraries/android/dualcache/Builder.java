@@ -3,6 +3,7 @@ package com.vincentbrison.openlibraries.android.dualcache;
 import android.content.Context;
 
 import java.io.File;
+import java.util.concurrent.Executor;
 
 /**
  * Class used to build a cache.
@@ -17,17 +18,8 @@ public class Builder<T> {
      */
     private static final String CACHE_FILE_PREFIX = "dualcache";
 
-    private String id;
-    private int appVersion;
-    private boolean logEnabled;
-    private int maxRamSizeBytes;
-    private DualCacheRamMode ramMode;
-    private CacheSerializer<T> ramSerializer;
-    private SizeOf<T> sizeOf;
-    private int maxDiskSizeBytes;
-    private DualCacheDiskMode diskMode;
-    private CacheSerializer<T> diskSerializer;
-    private File diskFolder;
+    private final String id;
+    private final DualCacheConfig<T> config = new DualCacheConfig<>();
 
     /**
      * Start the building of the cache.
@@ -38,10 +30,7 @@ public class Builder<T> {
      */
     public Builder(String id, int appVersion) {
         this.id = id;
-        this.appVersion = appVersion;
-        this.ramMode = null;
-        this.diskMode = null;
-        this.logEnabled = false;
+        config.appVersion = appVersion;
     }
 
     /**
@@ -50,7 +39,7 @@ public class Builder<T> {
      * @return the builder.
      */
     public Builder<T> enableLog() {
-        this.logEnabled = true;
+        config.logEnabled = true;
         return this;
     }
 
@@ -60,37 +49,40 @@ public class Builder<T> {
      * @return the cache instance.
      */
     public DualCache<T> build() {
-        if (ramMode == null) {
-            throw new IllegalStateException("No ram mode set");
-        }
-        if (diskMode == null) {
-            throw new IllegalStateException("No disk mode set");
-        }
-
-        DualCache<T> cache = new DualCache<>(
-            appVersion,
-            new Logger(logEnabled),
-            ramMode,
-            ramSerializer,
-            maxRamSizeBytes,
-            sizeOf,
-            diskMode,
-            diskSerializer,
-            maxDiskSizeBytes,
-            diskFolder
-        );
-
-        boolean isRamDisable = cache.getRAMMode().equals(DualCacheRamMode.DISABLE);
-        boolean isDiskDisable = cache.getDiskMode().equals(DualCacheDiskMode.DISABLE);
+        config.validate();
+        return new DualCache<>(config);
+    }
 
-        if (isRamDisable && isDiskDisable) {
-            throw new IllegalStateException(
-                "The ram cache layer and the disk cache layer are "
-                    + "disable. You have to use at least one of those "
-                    + "layers.");
-        }
+    /**
+     * Make the objects put in cache without their own time to live expire after this one (see
+     * {@link DualCache#put(String, Object, long)}). By default objects never expire.
+     *
+     * @param timeToLiveMillis is the default time to live of the objects in milliseconds, or 0 if
+     *                         they never expire.
+     * @return the builder.
+     */
+    public Builder<T> useDefaultTimeToLive(long timeToLiveMillis) {
+        config.defaultTimeToLiveMillis = timeToLiveMillis;
+        return this;
+    }
 
-        return cache;
+    /**
+     * Reload the objects read once older than a refresh interval, without making the reads wait:
+     * they return the cached object, while the loader runs in the background and its object is
+     * put in cache. The loader runs on the I/O executor if one is set (see
+     * {@link #useIoExecutor(Executor)}), on a few dedicated threads otherwise. A single reload
+     * runs at a time for each key, and reads of other keys do not trigger any while too many are
+     * pending.
+     * If the loader fails or returns null, the cached object is kept. By default disable.
+     *
+     * @param refreshIntervalMillis is the time after which a put object is reloaded when read.
+     * @param loader                reloads the objects.
+     * @return the builder.
+     */
+    public Builder<T> useRefreshAhead(long refreshIntervalMillis, CacheLoader<T> loader) {
+        config.refreshIntervalMillis = refreshIntervalMillis;
+        config.refreshLoader = loader;
+        return this;
     }
 
     /**
@@ -105,9 +97,59 @@ public class Builder<T> {
     public Builder<T> useSerializerInRam(
         int maxRamSizeBytes, CacheSerializer<T> serializer
     ) {
-        this.ramMode = DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER;
-        this.maxRamSizeBytes = maxRamSizeBytes;
-        this.ramSerializer = serializer;
+        return useBinarySerializerInRam(
+            maxRamSizeBytes, StringSerializerAdapter.adapt(serializer));
+    }
+
+    /**
+     * Use binary serialization/deserialization to store and retrieve object from ram cache.
+     *
+     * @param maxRamSizeBytes is the max amount of ram in bytes which can be used by the ram cache.
+     * @param serializer      provides serialization/deserialization methods into byte arrays
+     *                        for the ram cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useBinarySerializerInRam(
+        int maxRamSizeBytes, BinaryCacheSerializer<T> serializer
+    ) {
+        config.ramMode = DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER;
+        config.maxRamSizeBytes = maxRamSizeBytes;
+        config.ramSerializer = serializer;
+        return this;
+    }
+
+    /**
+     * Use custom serialization/deserialization to store and retrieve objects from ram cache, and
+     * keep the serialized objects in direct buffers, outside of the managed heap. The garbage
+     * collector does not have to trace nor move the cached data, which only goes back to the heap
+     * when read.
+     *
+     * @param maxRamSizeBytes is the max amount of ram in bytes which can be used by the ram cache.
+     * @param serializer      provides serialization/deserialization methods for the ram cache
+     *                        layer.
+     * @return the builder.
+     */
+    public Builder<T> useSerializerInOffHeapRam(
+        int maxRamSizeBytes, CacheSerializer<T> serializer
+    ) {
+        return useBinarySerializerInOffHeapRam(
+            maxRamSizeBytes, StringSerializerAdapter.adapt(serializer));
+    }
+
+    /**
+     * Use binary serialization/deserialization to store and retrieve objects from ram cache, and
+     * keep the serialized objects in direct buffers, outside of the managed heap.
+     *
+     * @param maxRamSizeBytes is the max amount of ram in bytes which can be used by the ram cache.
+     * @param serializer      provides serialization/deserialization methods into byte arrays
+     *                        for the ram cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useBinarySerializerInOffHeapRam(
+        int maxRamSizeBytes, BinaryCacheSerializer<T> serializer
+    ) {
+        useBinarySerializerInRam(maxRamSizeBytes, serializer);
+        config.ramMode = DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER_OFF_HEAP;
         return this;
     }
 
@@ -123,9 +165,57 @@ public class Builder<T> {
     public Builder<T> useReferenceInRam(
         int maxRamSizeBytes, SizeOf<T> handlerSizeOf
     ) {
-        this.ramMode = DualCacheRamMode.ENABLE_WITH_REFERENCE;
-        this.maxRamSizeBytes = maxRamSizeBytes;
-        this.sizeOf = handlerSizeOf;
+        config.ramMode = DualCacheRamMode.ENABLE_WITH_REFERENCE;
+        config.maxRamSizeBytes = maxRamSizeBytes;
+        config.sizeOf = handlerSizeOf;
+        return this;
+    }
+
+    /**
+     * Choose how the ram cache selects the entries to evict when it is full. By default
+     * {@link DualCacheRamEvictionPolicy#LRU}.
+     *
+     * @param evictionPolicy is the policy used by the ram cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useRamEvictionPolicy(DualCacheRamEvictionPolicy evictionPolicy) {
+        config.ramEvictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * Compress the serialized objects stored in the ram cache layer, with Deflate at its fastest
+     * level. The compressed size is counted against the max amount of ram of the cache, so more
+     * objects fit in it, at the cost of decompressing them on each read. Only used when the ram
+     * cache layer stores serialized objects. By default disable.
+     *
+     * @return the builder.
+     */
+    public Builder<T> useCompressionInRam() {
+        config.ramCompressed = true;
+        return this;
+    }
+
+    /**
+     * Keep the objects recently read from a serialized ram cache layer as references, in a small
+     * cache in front of it, so that reading them again does not deserialize them. The serialized
+     * ram cache layer still holds the larger set of objects. Only used when the ram cache layer
+     * stores serialized objects. By default disable.
+     *
+     * <p>Like with {@link #useReferenceInRam(int, SizeOf)}, the same instance is returned by
+     * successive reads of a key while it is in this cache, so returned objects should not be
+     * modified.
+     *
+     * @param maxDecodedSizeBytes is the max amount of ram which can be used by the objects kept
+     *                            as references.
+     * @param handlerSizeOf       computes the size of object kept as references.
+     * @return the builder.
+     */
+    public Builder<T> useDecodedObjectCacheInRam(
+        int maxDecodedSizeBytes, SizeOf<T> handlerSizeOf
+    ) {
+        config.maxDecodedSizeBytes = maxDecodedSizeBytes;
+        config.decodedSizeOf = handlerSizeOf;
         return this;
     }
 
@@ -135,7 +225,7 @@ public class Builder<T> {
      * @return the builder for the disk cache layer.
      */
     public Builder<T> noRam() {
-        this.ramMode = DualCacheRamMode.DISABLE;
+        config.ramMode = DualCacheRamMode.DISABLE;
         return this;
     }
 
@@ -174,27 +264,225 @@ public class Builder<T> {
     public Builder<T> useSerializerInDisk(
         int maxDiskSizeBytes, File diskCacheFolder, CacheSerializer<T> serializer
     ) {
-        this.diskFolder = diskCacheFolder;
-        this.diskMode = DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER;
-        this.maxDiskSizeBytes = maxDiskSizeBytes;
-        this.diskSerializer = serializer;
+        return useDisk(
+            maxDiskSizeBytes,
+            diskCacheFolder,
+            StringSerializerAdapter.adapt(serializer),
+            StreamSerializerAdapter.<T>streamOf(serializer)
+        );
+    }
+
+    /**
+     * Use binary serialization/deserialization to store and retrieve objects from disk cache.
+     *
+     * @param maxDiskSizeBytes is the max size of disk in bytes which an be used by the disk cache
+     *                         layer.
+     * @param usePrivateFiles  is true if you want to use {@link Context#MODE_PRIVATE} with the
+     *                         default disk cache folder.
+     * @param serializer       provides serialization/deserialization methods into byte arrays
+     *                         for the disk cache layer.
+     * @param context          is used to access file system.
+     * @return the builder.
+     */
+    public Builder<T> useBinarySerializerInDisk(
+        int maxDiskSizeBytes,
+        boolean usePrivateFiles,
+        BinaryCacheSerializer<T> serializer,
+        Context context
+    ) {
+        File folder = getDefaultDiskCacheFolder(usePrivateFiles, context);
+        return useBinarySerializerInDisk(maxDiskSizeBytes, folder, serializer);
+    }
+
+    /**
+     * Use binary serialization/deserialization to store and retrieve object from disk cache.
+     *
+     * @param maxDiskSizeBytes is the max size of disk in bytes which an be used by the disk cache
+     *                         layer.
+     * @param diskCacheFolder  is the folder where the disk cache will be stored.
+     * @param serializer       provides serialization/deserialization methods into byte arrays
+     *                         for the disk cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useBinarySerializerInDisk(
+        int maxDiskSizeBytes, File diskCacheFolder, BinaryCacheSerializer<T> serializer
+    ) {
+        return useDisk(
+            maxDiskSizeBytes,
+            diskCacheFolder,
+            serializer,
+            StreamSerializerAdapter.<T>streamOf(serializer)
+        );
+    }
+
+    /**
+     * Use stream serialization/deserialization to store and retrieve objects from disk cache.
+     * Values are written to and read from the cache files through buffered streams.
+     *
+     * @param maxDiskSizeBytes is the max size of disk in bytes which an be used by the disk cache
+     *                         layer.
+     * @param usePrivateFiles  is true if you want to use {@link Context#MODE_PRIVATE} with the
+     *                         default disk cache folder.
+     * @param serializer       provides serialization/deserialization methods into streams
+     *                         for the disk cache layer.
+     * @param context          is used to access file system.
+     * @return the builder.
+     */
+    public Builder<T> useStreamSerializerInDisk(
+        int maxDiskSizeBytes,
+        boolean usePrivateFiles,
+        StreamCacheSerializer<T> serializer,
+        Context context
+    ) {
+        File folder = getDefaultDiskCacheFolder(usePrivateFiles, context);
+        return useStreamSerializerInDisk(maxDiskSizeBytes, folder, serializer);
+    }
+
+    /**
+     * Use stream serialization/deserialization to store and retrieve objects from disk cache.
+     * Values are written to and read from the cache files through buffered streams.
+     *
+     * @param maxDiskSizeBytes is the max size of disk in bytes which an be used by the disk cache
+     *                         layer.
+     * @param diskCacheFolder  is the folder where the disk cache will be stored.
+     * @param serializer       provides serialization/deserialization methods into streams
+     *                         for the disk cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useStreamSerializerInDisk(
+        int maxDiskSizeBytes, File diskCacheFolder, StreamCacheSerializer<T> serializer
+    ) {
+        return useDisk(
+            maxDiskSizeBytes,
+            diskCacheFolder,
+            StreamSerializerAdapter.adapt(serializer),
+            serializer
+        );
+    }
+
+    private Builder<T> useDisk(
+        int maxDiskSizeBytes,
+        File diskCacheFolder,
+        BinaryCacheSerializer<T> serializer,
+        StreamCacheSerializer<T> streamSerializer
+    ) {
+        config.diskFolder = diskCacheFolder;
+        config.diskMode = DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER;
+        config.maxDiskSizeBytes = maxDiskSizeBytes;
+        config.diskSerializer = serializer;
+        config.diskStreamSerializer = streamSerializer;
         return this;
     }
 
     private File getDefaultDiskCacheFolder(boolean usePrivateFiles, Context context) {
-        File folder;
         if (usePrivateFiles) {
-            folder = context.getDir(
-                CACHE_FILE_PREFIX + this.id,
-                Context.MODE_PRIVATE
-            );
-        } else {
-            folder = new File(context.getCacheDir().getPath()
-                                  + "/" + CACHE_FILE_PREFIX
-                                  + "/" + this.id
-            );
+            return context.getDir(CACHE_FILE_PREFIX + this.id, Context.MODE_PRIVATE);
         }
-        return folder;
+        return new File(context.getCacheDir().getPath() + "/" + CACHE_FILE_PREFIX + "/" + this.id);
+    }
+
+    /**
+     * Write the objects put in cache in the disk cache layer later, on the I/O executor (see
+     * {@link #useIoExecutor(Executor)}), so that {@link DualCache#put(String, Object)} returns
+     * once the ram cache layer is updated. Until written, objects are read from memory. Several
+     * puts of the same key waiting to be written result in a single write. The writes not done
+     * yet are done by {@link DualCache#close()}, and are lost if the process dies before. By
+     * default disable.
+     *
+     * @param maxPendingWrites is the max number of keys waiting to be written. Beyond that,
+     *                         puts write to the disk cache layer before returning.
+     * @return the builder.
+     */
+    public Builder<T> useWriteBehindInDisk(int maxPendingWrites) {
+        config.maxPendingWrites = maxPendingWrites;
+        return this;
+    }
+
+    /**
+     * Set how the disk cache layer stores the objects in files. By default
+     * {@link DualCacheDiskEngine#FILE_PER_ENTRY}.
+     *
+     * @param engine is the engine used by the disk cache layer.
+     * @return the builder.
+     */
+    public Builder<T> useDiskEngine(DualCacheDiskEngine engine) {
+        config.diskEngine = engine;
+        return this;
+    }
+
+    /**
+     * Read the objects of the disk cache layer from files mapped in memory, instead of streaming
+     * them through heap buffers. {@link StreamCacheSerializer} deserialize them directly from the
+     * mapped pages. With {@link DualCacheDiskEngine#FILE_PER_ENTRY}, only large objects are mapped.
+     * With {@link DualCacheDiskEngine#LOG_STRUCTURED}, the segment being written is still
+     * streamed. By default disabled.
+     *
+     * @return the builder.
+     */
+    public Builder<T> useMemoryMappedReadsInDisk() {
+        config.diskMemoryMapped = true;
+        return this;
+    }
+
+    /**
+     * Set how the reads of the disk cache layer behave while it is being opened. The disk cache
+     * layer is opened on the I/O executor, so {@link #build()} returns without waiting for the
+     * disk, and the ram cache layer is usable at once. By default
+     * {@link DualCacheDiskOpenPolicy#WAIT}.
+     *
+     * @param policy is the policy of the reads issued before the disk cache layer is open.
+     * @return the builder.
+     * @see DualCache#awaitDiskReady()
+     */
+    public Builder<T> useDiskOpenPolicy(DualCacheDiskOpenPolicy policy) {
+        config.diskOpenPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Partition the disk cache layer over several independent stores, by hash of the key, so that
+     * threads reading and writing different keys do not wait for each other. Each shard is stored
+     * in a subfolder of the disk folder, with its share of the maximum size, and evicts its own
+     * least recently used objects. Use a new folder when changing the number of shards. By default
+     * a single store is used.
+     *
+     * @param shardCount is the number of shards.
+     * @return the builder.
+     */
+    public Builder<T> useShardsInDisk(int shardCount) {
+        config.diskShards = shardCount;
+        return this;
+    }
+
+    /**
+     * Only write objects in the disk cache layer when they are evicted from the ram cache layer,
+     * or when the cache is closed, instead of on each put. Objects put and then replaced or deleted
+     * while in ram are never written on disk. Objects read from disk are put back in ram and stay
+     * on disk. Only used when both cache layers are enabled. By default disable.
+     *
+     * <p>Objects in ram are not on disk: they are lost if the process dies before the cache is
+     * closed.
+     *
+     * @return the builder.
+     */
+    public Builder<T> useDiskForRamEvictionsOnly() {
+        config.diskWrittenOnRamEviction = true;
+        return this;
+    }
+
+    /**
+     * Set the executor running the disk operations of {@link DualCache#getAsync(String)} and
+     * {@link DualCache#putAsync(String, Object)}. It should be bounded, since every read missing
+     * the ram cache layer and every write submits a task to it. By default, a small pool of
+     * threads with a bounded queue is used, running the operations on the calling thread when
+     * full.
+     *
+     * @param executor runs the disk reads, the disk writes and the related serializations.
+     * @return the builder.
+     */
+    public Builder<T> useIoExecutor(Executor executor) {
+        config.ioExecutor = executor;
+        return this;
     }
 
     /**
@@ -204,7 +492,7 @@ public class Builder<T> {
      * @return the builder.
      */
     public Builder<T> noDisk() {
-        this.diskMode = DualCacheDiskMode.DISABLE;
+        config.diskMode = DualCacheDiskMode.DISABLE;
         return this;
     }
 }
@@ -16,24 +16,45 @@
 
 package com.vincentbrison.openlibraries.android.dualcache;
 
-import java.nio.charset.Charset;
-
 /**
  * LRU cache used by the RAM cache layer when storing serialized object.
  */
-class StringLruCache extends RamLruCache<String, String> {
+class ByteArrayLruCache extends RamLruCache<String, byte[]> {
+
+    private final EvictionListener<String, byte[]> evictionListener;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
      *                the maximum number of entries in the cache. For all other caches,
      *                this is the maximum sum of the sizes of the entries in this cache.
+     * @param evictionPolicy chooses the entries to evict when the cache is full.
+     * @param evictionListener is notified of the evicted entries, or null.
      */
-    public StringLruCache(int maxSize) {
-        super(maxSize);
+    public ByteArrayLruCache(
+        int maxSize,
+        DualCacheRamEvictionPolicy evictionPolicy,
+        EvictionListener<String, byte[]> evictionListener
+    ) {
+        super(maxSize, evictionPolicy);
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    protected int sizeOf(String key, byte[] value) {
+        return value.length;
+    }
+
+    @Override
+    protected void entryEvicting(String key, byte[] value) {
+        if (evictionListener != null) {
+            evictionListener.onEvicting(key, value);
+        }
     }
 
     @Override
-    protected int sizeOf(String key, String value) {
-        return value.getBytes(Charset.defaultCharset()).length;
+    protected void entryRemoved(boolean evicted, String key, byte[] oldValue, byte[] newValue) {
+        if (evicted && evictionListener != null) {
+            evictionListener.onEvicted(key);
+        }
     }
 }
@@ -0,0 +1,18 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Provides the objects missing from the cache, see {@link DualCache#get(String, CacheLoader)}.
+ *
+ * @param <T> is the class of object to load.
+ */
+public interface CacheLoader<T> {
+
+    /**
+     * Load the object of a key, for instance from the network. Failures can be reported by
+     * throwing an unchecked exception, which is forwarded to all the callers waiting for the key.
+     *
+     * @param key is the key of the object.
+     * @return the object, or null if there is none. A null object is not cached.
+     */
+    T load(String key);
+}
@@ -0,0 +1,43 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Future of a result already available, returned when no work has to be scheduled.
+ *
+ * @param <V> is the class of the result.
+ */
+final class CompletedFuture<V> implements Future<V> {
+
+    private final V value;
+
+    CompletedFuture(V value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return true;
+    }
+
+    @Override
+    public V get() {
+        return value;
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) {
+        return value;
+    }
+}
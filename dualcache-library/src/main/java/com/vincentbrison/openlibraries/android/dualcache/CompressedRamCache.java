@@ -0,0 +1,166 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * RAM cache layer storing serialized objects compressed with Deflate at its fastest level. The
+ * compressed bytes are stored in another {@link RamCache}, which accounts their compressed size
+ * against its budget. Values which do not shrink are stored as is.
+ *
+ * <p>Each stored value starts with a header: one byte telling whether the value is compressed,
+ * followed for compressed values by the uncompressed length on four bytes.
+ */
+class CompressedRamCache implements RamCache<String, byte[]> {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int RAW_HEADER_SIZE = 1;
+    private static final int DEFLATED_HEADER_SIZE = 5;
+
+    /**
+     * Values smaller than this are not worth compressing.
+     */
+    private static final int MIN_COMPRESSIBLE_SIZE = 64;
+
+    /**
+     * Deflater and Inflater own native buffers which are expensive to create, so each thread
+     * keeps its own instances.
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final RamCache<String, byte[]> delegate;
+    private final Logger logger;
+
+    /**
+     * @param delegate stores the compressed values.
+     * @param logger   reports values which can not be decompressed.
+     */
+    CompressedRamCache(RamCache<String, byte[]> delegate, Logger logger) {
+        this.delegate = delegate;
+        this.logger = logger;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] stored = delegate.get(key);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            return decompress(stored);
+        } catch (DataFormatException e) {
+            logger.logError(e);
+            return null;
+        }
+    }
+
+    /**
+     * @return always null, previous values are not decompressed.
+     */
+    @Override
+    public byte[] put(String key, byte[] value) {
+        delegate.put(key, compress(value));
+        return null;
+    }
+
+    /**
+     * @return always null, previous values are not decompressed.
+     */
+    @Override
+    public byte[] remove(String key) {
+        delegate.remove(key);
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public void evictAll() {
+        delegate.evictAll();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    private static byte[] compress(byte[] value) {
+        if (value.length >= MIN_COMPRESSIBLE_SIZE) {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(value);
+            deflater.finish();
+            // Only keep the compressed form if it saves space, header included.
+            byte[] buffer = new byte[value.length];
+            int length = DEFLATED_HEADER_SIZE;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (deflater.finished() && length < value.length + RAW_HEADER_SIZE) {
+                buffer[0] = DEFLATED;
+                writeInt(buffer, 1, value.length);
+                return Arrays.copyOf(buffer, length);
+            }
+        }
+        byte[] raw = new byte[value.length + RAW_HEADER_SIZE];
+        raw[0] = RAW;
+        System.arraycopy(value, 0, raw, RAW_HEADER_SIZE, value.length);
+        return raw;
+    }
+
+    /**
+     * @param stored is a value stored by this cache in its delegate.
+     * @return the uncompressed value.
+     * @throws DataFormatException if the stored value is corrupted.
+     */
+    static byte[] decompress(byte[] stored) throws DataFormatException {
+        if (stored[0] == RAW) {
+            return Arrays.copyOfRange(stored, RAW_HEADER_SIZE, stored.length);
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(stored, DEFLATED_HEADER_SIZE, stored.length - DEFLATED_HEADER_SIZE);
+        byte[] value = new byte[readInt(stored, 1)];
+        int length = 0;
+        while (length < value.length) {
+            int inflated = inflater.inflate(value, length, value.length - length);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                throw new DataFormatException("Truncated compressed value");
+            }
+            length += inflated;
+        }
+        return value;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24
+            | (buffer[offset + 1] & 0xff) << 16
+            | (buffer[offset + 2] & 0xff) << 8
+            | buffer[offset + 3] & 0xff;
+    }
+}
@@ -0,0 +1,156 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the values of {@link DiskStore} entries, either as byte arrays or through
+ * buffered streams. Values available as buffers are read from them directly.
+ *
+ * <p>A value starts with the expiration time of its object, in milliseconds since the epoch or
+ * {@link Expirations#NEVER}, so that expired objects are rejected without reading the rest.
+ */
+final class DiskEntries {
+
+    /**
+     * Size of the buffers used to stream values from and to the disk layer.
+     */
+    private static final int DISK_BUFFER_SIZE = 8192;
+
+    /**
+     * Size of the expiration time starting each value.
+     */
+    private static final int EXPIRY_SIZE = 8;
+
+    private DiskEntries() {
+    }
+
+    static void write(DiskStore diskStore, HashedKey key, long expiresAt, byte[] serialized)
+        throws IOException {
+        DiskStore.Editor editor = diskStore.edit(key);
+        try {
+            OutputStream outputStream = editor.newOutputStream();
+            try {
+                outputStream.write(expiry(expiresAt));
+                outputStream.write(serialized);
+            } finally {
+                outputStream.close();
+            }
+            editor.commit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    /**
+     * Serialize an object directly into the value of its entry, through a buffer.
+     */
+    static <T> void write(DiskStore diskStore, HashedKey key, long expiresAt, T object,
+                          StreamCacheSerializer<T> serializer) throws IOException {
+        DiskStore.Editor editor = diskStore.edit(key);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(
+                editor.newOutputStream(), DISK_BUFFER_SIZE);
+            try {
+                outputStream.write(expiry(expiresAt));
+                serializer.write(object, outputStream);
+            } finally {
+                outputStream.close();
+            }
+            editor.commit();
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    private static byte[] expiry(long expiresAt) {
+        return ByteBuffer.allocate(EXPIRY_SIZE).putLong(expiresAt).array();
+    }
+
+    /**
+     * Start reading the value of an entry, up to the end of its expiration time.
+     *
+     * @throws IOException if the value is too short to hold an expiration time.
+     */
+    static Entry open(DiskStore.Snapshot snapshot) throws IOException {
+        ByteBuffer buffer = snapshot.getByteBuffer();
+        InputStream inputStream = null;
+        long expiresAt;
+        if (buffer != null) {
+            if (buffer.remaining() < EXPIRY_SIZE) {
+                throw new EOFException("Truncated value");
+            }
+            expiresAt = buffer.getLong();
+        } else {
+            inputStream = snapshot.getInputStream();
+            byte[] expiry = new byte[EXPIRY_SIZE];
+            new DataInputStream(inputStream).readFully(expiry);
+            expiresAt = ByteBuffer.wrap(expiry).getLong();
+        }
+        return new Entry(expiresAt, snapshot.getLength() - EXPIRY_SIZE, buffer, inputStream);
+    }
+
+    /**
+     * @return the expiration time of the object of a key in the store, or
+     * {@link Long#MIN_VALUE} if there is none.
+     */
+    static long getExpiresAt(DiskStore store, HashedKey key) throws IOException {
+        DiskStore.Snapshot snapshot = store.get(key);
+        if (snapshot == null) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return open(snapshot).expiresAt;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Value of an entry being read, after its expiration time.
+     */
+    static final class Entry {
+        final long expiresAt;
+        private final long length;
+        private final ByteBuffer buffer;
+        private final InputStream inputStream;
+
+        private Entry(long expiresAt, long length, ByteBuffer buffer, InputStream inputStream) {
+            this.expiresAt = expiresAt;
+            this.length = length;
+            this.buffer = buffer;
+            this.inputStream = inputStream;
+        }
+
+        byte[] read() throws IOException {
+            byte[] serialized = new byte[(int) length];
+            if (buffer != null) {
+                buffer.get(serialized);
+            } else {
+                new DataInputStream(inputStream).readFully(serialized);
+            }
+            return serialized;
+        }
+
+        /**
+         * Deserialize the object directly from the value, through a buffer unless the value is
+         * already available as one.
+         */
+        <T> T read(StreamCacheSerializer<T> serializer) throws IOException {
+            InputStream input = buffer != null
+                ? new ByteBufferInputStream(buffer)
+                : new BufferedInputStream(inputStream, DISK_BUFFER_SIZE);
+            try {
+                return serializer.read(input);
+            } finally {
+                input.close();
+            }
+        }
+    }
+}
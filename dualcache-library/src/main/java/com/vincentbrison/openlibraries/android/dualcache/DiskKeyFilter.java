@@ -0,0 +1,173 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link BloomFilter} of the keys of the {@link DiskStore} of a {@link DiskLayer}, so that most
+ * reads of keys which are not on disk are misses without taking any lock or touching the disk.
+ *
+ * <p>The filter is built from the keys of the store when the store is opened, and every key is
+ * added before being written, under {@link DualCacheLock#lockDiskBatch()}. Removed and evicted keys
+ * stay in the filter, which only makes their reads go to the store. Once more keys than expected
+ * have been added, a larger filter is built from the keys of the store on the I/O executor. Keys
+ * written meanwhile are added to both filters, the new filter being published under
+ * {@link DualCacheLock#lockFullDiskWrite()} so that no write is missed.
+ */
+final class DiskKeyFilter {
+
+    private static final int MIN_EXPECTED_KEYS = 1024;
+
+    private final DualCacheLock dualCacheLock;
+    private final Executor executor;
+    private final Logger logger;
+    private final AtomicBoolean isRebuilding = new AtomicBoolean();
+
+    /**
+     * The store of the filter, replaced under {@link DualCacheLock#lockFullDiskWrite()}.
+     */
+    private volatile DiskStore store;
+
+    /**
+     * The filter, or null if any key may be on disk.
+     */
+    private volatile BloomFilter filter;
+
+    /**
+     * The filter being rebuilt, or null.
+     */
+    private volatile BloomFilter nextFilter;
+
+    DiskKeyFilter(DualCacheLock dualCacheLock, Executor executor, Logger logger) {
+        this.dualCacheLock = dualCacheLock;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * Build the filter of a store, no other thread using the filter meanwhile.
+     *
+     * @param diskStore is the store, or null if there is none.
+     */
+    void reset(DiskStore diskStore) {
+        store = diskStore;
+        filter = null;
+        nextFilter = null;
+        if (diskStore != null) {
+            try {
+                filter = build(diskStore.keyHashes());
+            } catch (IOException e) {
+                logger.logError(e);
+            }
+        }
+    }
+
+    /**
+     * @param key is the key to look for.
+     * @return false if the key is definitely not on disk.
+     */
+    boolean mightContain(HashedKey key) {
+        BloomFilter current = filter;
+        return current == null || current.mightContain(key.hash1);
+    }
+
+    /**
+     * Add a key about to be written, under {@link DualCacheLock#lockDiskBatch()}.
+     *
+     * @param key is the key.
+     */
+    void add(HashedKey key) {
+        BloomFilter current = filter;
+        if (current == null) {
+            return;
+        }
+        current.add(key.hash1);
+        BloomFilter next = nextFilter;
+        if (next != null) {
+            next.add(key.hash1);
+        }
+    }
+
+    /**
+     * Rebuild a larger filter on the I/O executor if more keys than expected have been added.
+     * It must be called without holding any lock of {@link DualCacheLock}, since the executor can
+     * run the rebuild on the calling thread.
+     */
+    void rebuildIfFull() {
+        BloomFilter current = filter;
+        if (current == null || !current.isFull() || !isRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebuild();
+                    } finally {
+                        isRebuilding.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Retried by the next write.
+            isRebuilding.set(false);
+        }
+    }
+
+    private void rebuild() {
+        DiskStore rebuiltStore = store;
+        if (rebuiltStore == null) {
+            return;
+        }
+        try {
+            // Sized from the keys on disk, which can be far fewer than the keys ever written.
+            BloomFilter next = new BloomFilter(expectedKeys(rebuiltStore.keyHashes()));
+            dualCacheLock.lockFullDiskWrite();
+            try {
+                if (store != rebuiltStore) {
+                    return;
+                }
+                nextFilter = next;
+            } finally {
+                dualCacheLock.unLockFullDiskWrite();
+            }
+            // The keys written from now on are added to the new filter by the writers.
+            for (long hash : rebuiltStore.keyHashes()) {
+                next.add(hash);
+            }
+            publish(next);
+        } catch (IOException | IllegalStateException e) {
+            // IllegalStateException is thrown once the store is closed.
+            logger.logError(e);
+            nextFilter = null;
+        }
+    }
+
+    private void publish(BloomFilter next) {
+        dualCacheLock.lockFullDiskWrite();
+        try {
+            // Skipped if the store has been replaced meanwhile.
+            if (nextFilter == next) {
+                filter = next;
+                nextFilter = null;
+            }
+        } finally {
+            dualCacheLock.unLockFullDiskWrite();
+        }
+    }
+
+    private static BloomFilter build(long[] hashes) {
+        BloomFilter filter = new BloomFilter(expectedKeys(hashes));
+        for (long hash : hashes) {
+            filter.add(hash);
+        }
+        return filter;
+    }
+
+    private static int expectedKeys(long[] hashes) {
+        return Math.max(MIN_EXPECTED_KEYS, 2 * hashes.length);
+    }
+}
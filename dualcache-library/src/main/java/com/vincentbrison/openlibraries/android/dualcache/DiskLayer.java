@@ -0,0 +1,500 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Disk layer of a {@link DualCache}, storing serialized objects in a {@link DiskStore}. Each
+ * entry is written and removed under the lock of its key in {@link DualCacheLock}, so editions
+ * of different entries run concurrently while editions of the same entry are atomic. I/O errors
+ * are logged and reported as cache misses.
+ *
+ * <p>Writes can be deferred to the I/O executor. Until a deferred write is done, reads of its key
+ * are served from the pending object, and a later write or removal of the key cancels it.
+ * Deferred writes of the same key are coalesced: a queued write always writes the latest pending
+ * object of its key.
+ *
+ * <p>The disk store is held by a {@link DiskStoreHolder}, which opens it on the I/O executor so
+ * that creating the cache does not wait for the disk. Writes and removals wait until it is open,
+ * while reads wait or are misses depending on the {@link DualCacheDiskOpenPolicy}. If the store
+ * can not be opened, the disk layer acts as an empty cache until an invalidation opens it again.
+ *
+ * <p>A {@link DiskKeyFilter} of the keys on disk makes most reads of missing keys return without
+ * taking any lock.
+ *
+ * @param <T> is the class of cached objects.
+ */
+class DiskLayer<T> {
+
+    private final BinaryCacheSerializer<T> serializer;
+    private final StreamCacheSerializer<T> streamSerializer;
+    private final DualCacheLock dualCacheLock = new DualCacheLock();
+    private final DiskStoreHolder storeHolder;
+    private final DiskKeyFilter keyFilter;
+    private final ConcurrentMap<String, DiskValue<T>> pendingWrites = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final Logger logger;
+
+    /** Bounds the number of keys waiting for a write-behind, or null if it is disabled. */
+    private final Semaphore writeBehindPermits;
+
+    DiskLayer(DualCacheConfig<T> config, Executor executor, Logger logger) {
+        this.storeHolder = new DiskStoreHolder(config, dualCacheLock, executor, logger);
+        this.keyFilter = storeHolder.getKeyFilter();
+        this.serializer = config.diskSerializer;
+        this.streamSerializer = config.diskStreamSerializer;
+        this.executor = executor;
+        this.logger = logger;
+        this.writeBehindPermits = config.maxPendingWrites > 0
+            ? new Semaphore(config.maxPendingWrites) : null;
+    }
+
+    /**
+     * @return true if the disk store is open.
+     */
+    boolean isReady() {
+        return storeHolder.isReady();
+    }
+
+    /**
+     * Wait until the disk store is open.
+     *
+     * @throws IOException if the disk store can not be opened.
+     */
+    void awaitReady() throws IOException {
+        storeHolder.awaitReady();
+    }
+
+    long size() {
+        storeHolder.awaitOpenForRead();
+        DiskStore store = storeHolder.get();
+        return store == null ? 0 : store.size();
+    }
+
+    /**
+     * Write an object, or queue its write if write-behind is enabled.
+     *
+     * @param key   is the key of the object.
+     * @param value is the object to write, with its expiration time, and already serialized by
+     *              the disk serializer if available.
+     */
+    void put(String key, DiskValue<T> value) {
+        if (writeBehindPermits != null) {
+            putBehind(key, value);
+            return;
+        }
+        DiskValue<T> toWrite = withSerialized(value);
+        storeHolder.awaitOpen();
+        dualCacheLock.lockDiskBatch();
+        try {
+            putInBatch(key, toWrite);
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+        keyFilter.rebuildIfFull();
+    }
+
+    /**
+     * Write several objects, under a single lock against invalidations, or queue their writes if
+     * write-behind is enabled.
+     *
+     * @param values are the objects to write, by key, like with {@link #put(String, DiskValue)}.
+     */
+    void putAll(Map<String, DiskValue<T>> values) {
+        if (writeBehindPermits != null) {
+            for (Map.Entry<String, DiskValue<T>> entry : values.entrySet()) {
+                putBehind(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        Map<String, DiskValue<T>> toWrite = new HashMap<>();
+        for (Map.Entry<String, DiskValue<T>> entry : values.entrySet()) {
+            toWrite.put(entry.getKey(), withSerialized(entry.getValue()));
+        }
+        storeHolder.awaitOpen();
+        dualCacheLock.lockDiskBatch();
+        try {
+            for (Map.Entry<String, DiskValue<T>> entry : toWrite.entrySet()) {
+                putInBatch(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+        keyFilter.rebuildIfFull();
+    }
+
+    private void putInBatch(String key, DiskValue<T> value) {
+        dualCacheLock.lockDiskEntryInBatch(key);
+        try {
+            pendingWrites.remove(key);
+            write(key, value);
+        } catch (IOException e) {
+            logger.logError(e);
+        } finally {
+            dualCacheLock.unLockDiskEntryInBatch(key);
+        }
+    }
+
+    /**
+     * @return the value with its serialized form, unless it is written by the stream serializer.
+     */
+    private DiskValue<T> withSerialized(DiskValue<T> value) {
+        if (value.getSerialized() != null || streamSerializer != null) {
+            return value;
+        }
+        T object = value.getObject();
+        return new DiskValue<>(object, serializer.toBytes(object), value.expiresAt);
+    }
+
+    /**
+     * Write an object from the I/O executor.
+     *
+     * @param key   is the key of the object.
+     * @param value is the object to write, like with {@link #put(String, DiskValue)}.
+     * @return a future completed once the object, or an object put later for the same key, is
+     * written, or once the write is cancelled by another edition of the key.
+     */
+    Future<Void> putAsync(final String key, DiskValue<T> value) {
+        pendingWrites.put(key, value);
+        FutureTask<Void> task = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                writeLatest(key);
+            }
+        }, null);
+        // Rejected once the cache is closed: the failed write then forgets the pending object.
+        IoExecutors.executeOrRun(executor, task);
+        return task;
+    }
+
+    /**
+     * Make an object readable at once, without I/O nor locking, until written by
+     * {@link #writePending(String)}: the RAM evictions are then never missing from both layers.
+     */
+    void addPending(String key, DiskValue<T> value) {
+        pendingWrites.put(key, value);
+    }
+
+    /**
+     * Write the object added by {@link #addPending(String, DiskValue)}, or queue its write if
+     * write-behind is enabled. Nothing is written if another edition of the key happened since.
+     */
+    void writePending(String key) {
+        if (writeBehindPermits == null) {
+            writeLatest(key);
+        } else if (pendingWrites.containsKey(key)) {
+            writeBehind(key);
+        }
+    }
+
+    /**
+     * Write an object later, from the I/O executor. If a write is already queued for the key, it
+     * will write this object instead of the previous one. If too many keys are already waiting to
+     * be written, the object is written on the calling thread.
+     */
+    private void putBehind(String key, DiskValue<T> value) {
+        // Otherwise coalesced with the write already queued for this key.
+        if (pendingWrites.put(key, value) == null) {
+            writeBehind(key);
+        }
+    }
+
+    private void writeBehind(final String key) {
+        if (!writeBehindPermits.tryAcquire()) {
+            writeLatest(key);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeLatest(key);
+                    } finally {
+                        writeBehindPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            writeBehindPermits.release();
+            writeLatest(key);
+        }
+    }
+
+    /**
+     * Write the latest pending object of a key, if any. The pending object is only forgotten once
+     * written, so that reads never miss it.
+     */
+    private void writeLatest(String key) {
+        storeHolder.awaitOpen();
+        DiskValue<T> pending;
+        while ((pending = pendingWrites.get(key)) != null) {
+            DiskValue<T> toWrite = withSerialized(pending);
+            try {
+                dualCacheLock.lockDiskEntryWrite(key);
+                // Skip the write if another edition of the key happened since it was read.
+                if (pendingWrites.get(key) == pending) {
+                    write(key, toWrite);
+                    if (pendingWrites.remove(key, pending)) {
+                        break;
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // IllegalStateException is thrown once the cache is closed.
+                logger.logError(e);
+                pendingWrites.remove(key, pending);
+                return;
+            } finally {
+                dualCacheLock.unLockDiskEntryWrite(key);
+            }
+        }
+        keyFilter.rebuildIfFull();
+    }
+
+    /**
+     * Write all the pending objects on the calling thread.
+     */
+    void flush() {
+        for (String key : pendingWrites.keySet()) {
+            writeLatest(key);
+        }
+    }
+
+    private void write(String key, DiskValue<T> value) throws IOException {
+        DiskStore store = storeHolder.get();
+        if (store == null) {
+            return;
+        }
+        HashedKey hashedKey = new HashedKey(key);
+        keyFilter.add(hashedKey);
+        if (value.getSerialized() != null) {
+            DiskEntries.write(store, hashedKey, value.expiresAt, value.getSerialized());
+        } else {
+            DiskEntries.write(
+                store, hashedKey, value.expiresAt, value.getObject(), streamSerializer);
+        }
+    }
+
+    /**
+     * Read an object.
+     *
+     * @param key            is the key of the object.
+     * @param needSerialized is true if the serialized form of the object is needed, otherwise it
+     *                       may be deserialized directly from the file of the entry.
+     * @return the object, or null if it is not on disk or can not be read.
+     */
+    DiskValue<T> get(String key, boolean needSerialized) {
+        HashedKey hashedKey = new HashedKey(key);
+        if (isMissing(hashedKey)) {
+            return null;
+        }
+        storeHolder.awaitOpenForRead();
+        dualCacheLock.lockDiskBatch();
+        try {
+            return getInBatch(hashedKey, needSerialized);
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+    }
+
+    /**
+     * Read several objects, under a single lock against invalidations.
+     *
+     * @param keys           are the keys of the objects.
+     * @param needSerialized is true if the serialized forms of the objects are needed.
+     * @return the objects found, by key.
+     */
+    Map<String, DiskValue<T>> getAll(Collection<String> keys, boolean needSerialized) {
+        Map<String, DiskValue<T>> values = new HashMap<>();
+        storeHolder.awaitOpenForRead();
+        dualCacheLock.lockDiskBatch();
+        try {
+            for (String key : keys) {
+                HashedKey hashedKey = new HashedKey(key);
+                DiskValue<T> value = isMissing(hashedKey)
+                    ? null : getInBatch(hashedKey, needSerialized);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+        return values;
+    }
+
+    private DiskValue<T> getInBatch(HashedKey hashedKey, boolean needSerialized) {
+        String key = hashedKey.key;
+        DiskValue<T> pending = pendingWrites.get(key);
+        if (pending != null) {
+            // An expired pending object hides the older object on disk.
+            return Expirations.isExpired(pending.expiresAt) ? null : pending;
+        }
+        DiskStore store = storeHolder.get();
+        if (store == null) {
+            return null;
+        }
+
+        DiskStore.Snapshot snapshot = null;
+        dualCacheLock.lockDiskEntryReadInBatch(key);
+        try {
+            snapshot = store.get(hashedKey);
+        } catch (IOException e) {
+            logger.logError(e);
+        } finally {
+            dualCacheLock.unLockDiskEntryReadInBatch(key);
+        }
+        if (snapshot == null) {
+            return null;
+        }
+
+        try {
+            DiskEntries.Entry entry = DiskEntries.open(snapshot);
+            if (Expirations.isExpired(entry.expiresAt)) {
+                return null;
+            } else if (streamSerializer != null && !needSerialized) {
+                return new DiskValue<>(entry.read(streamSerializer), null, entry.expiresAt);
+            } else {
+                byte[] serialized = entry.read();
+                T object = serializer.fromBytes(serialized);
+                return new DiskValue<>(object, serialized, entry.expiresAt);
+            }
+        } catch (IOException e) {
+            logger.logError(e);
+            return null;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * @return true if the key is definitely not in the disk layer, without taking any lock.
+     */
+    private boolean isMissing(HashedKey key) {
+        // Pending writes first: a written key is added to the filter before leaving them.
+        return !pendingWrites.containsKey(key.key) && !keyFilter.mightContain(key);
+    }
+
+    boolean contains(String key) {
+        HashedKey hashedKey = new HashedKey(key);
+        DiskValue<T> pending = pendingWrites.get(key);
+        if (pending != null) {
+            return !Expirations.isExpired(pending.expiresAt);
+        } else if (!keyFilter.mightContain(hashedKey)) {
+            return false;
+        }
+        storeHolder.awaitOpenForRead();
+        try {
+            dualCacheLock.lockDiskEntryRead(key);
+            DiskStore store = storeHolder.get();
+            return store != null
+                && DiskEntries.getExpiresAt(store, hashedKey) > Expirations.now();
+        } catch (IOException e) {
+            logger.logError(e);
+        } finally {
+            dualCacheLock.unLockDiskEntryRead(key);
+        }
+        return false;
+    }
+
+    /**
+     * Remove the objects of several keys which have expired, under a single lock against
+     * invalidations. The objects put again since they expired are kept.
+     *
+     * @param keys are the keys of the expired objects.
+     */
+    void removeExpired(Collection<String> keys) {
+        storeHolder.awaitOpen();
+        dualCacheLock.lockDiskBatch();
+        try {
+            DiskStore store = storeHolder.get();
+            for (String key : keys) {
+                dualCacheLock.lockDiskEntryInBatch(key);
+                try {
+                    HashedKey hashedKey = new HashedKey(key);
+                    DiskValue<T> pending = pendingWrites.get(key);
+                    boolean isExpired = pending != null
+                        ? Expirations.isExpired(pending.expiresAt)
+                        : store != null
+                        && Expirations.isExpired(DiskEntries.getExpiresAt(store, hashedKey));
+                    if (isExpired) {
+                        // The older object on disk must not become visible again either.
+                        pendingWrites.remove(key, pending);
+                        if (store != null) {
+                            store.remove(hashedKey);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.logError(e);
+                } finally {
+                    dualCacheLock.unLockDiskEntryInBatch(key);
+                }
+            }
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+    }
+
+    void remove(String key) {
+        removeAll(Collections.singletonList(key));
+    }
+
+    /**
+     * Remove several objects, under a single lock against invalidations.
+     *
+     * @param keys are the keys of the objects.
+     */
+    void removeAll(Collection<String> keys) {
+        storeHolder.awaitOpen();
+        dualCacheLock.lockDiskBatch();
+        try {
+            DiskStore store = storeHolder.get();
+            for (String key : keys) {
+                dualCacheLock.lockDiskEntryInBatch(key);
+                try {
+                    pendingWrites.remove(key);
+                    if (store != null) {
+                        store.remove(new HashedKey(key));
+                    }
+                } catch (IOException e) {
+                    logger.logError(e);
+                } finally {
+                    dualCacheLock.unLockDiskEntryInBatch(key);
+                }
+            }
+        } finally {
+            dualCacheLock.unLockDiskBatch();
+        }
+    }
+
+    /**
+     * Remove all the objects. If the disk store could not be opened, opening it is retried.
+     */
+    void invalidate() {
+        storeHolder.awaitOpen();
+        try {
+            dualCacheLock.lockFullDiskWrite();
+            pendingWrites.clear();
+            storeHolder.reopen();
+        } catch (IOException e) {
+            logger.logError(e);
+        } finally {
+            dualCacheLock.unLockFullDiskWrite();
+        }
+    }
+
+    void close() throws IOException {
+        flush();
+        storeHolder.close();
+    }
+}
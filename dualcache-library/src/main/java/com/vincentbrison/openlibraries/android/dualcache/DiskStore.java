@@ -0,0 +1,107 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage engine of the disk layer, mapping keys to values stored in files. Implementations are
+ * thread-safe, accept any key, bound the sum of the sizes of their values and throw
+ * {@link IllegalStateException} once closed.
+ */
+interface DiskStore extends Closeable {
+
+    /**
+     * @param key is the key of the entry.
+     * @return a snapshot of the value of the entry, or null if there is none. It must be closed.
+     * @throws IOException if the value can not be read.
+     */
+    Snapshot get(HashedKey key) throws IOException;
+
+    /**
+     * @param key is the key of the entry.
+     * @return an editor replacing the value of the entry once committed.
+     * @throws IOException if the entry can not be edited.
+     */
+    Editor edit(HashedKey key) throws IOException;
+
+    /**
+     * Remove the entry of a key.
+     *
+     * @param key is the key of the entry.
+     * @throws IOException if the removal can not be recorded.
+     */
+    void remove(HashedKey key) throws IOException;
+
+    /**
+     * @return the {@link HashedKey#hash1} of the key of each entry. Entries being written or
+     * removed meanwhile may be missing or not, but the other entries are all there.
+     * @throws IOException if the keys can not be listed.
+     */
+    long[] keyHashes() throws IOException;
+
+    /**
+     * @return the sum of the sizes of the values, in bytes.
+     */
+    long size();
+
+    /**
+     * Close the store without saving anything for its next opening, since its folder is about to
+     * be deleted.
+     *
+     * @throws IOException if the store can not be closed.
+     */
+    void discard() throws IOException;
+
+    /**
+     * Value of an entry, as it was when the snapshot was taken.
+     */
+    interface Snapshot extends Closeable {
+
+        /**
+         * @return the size of the value, in bytes.
+         */
+        long getLength();
+
+        /**
+         * @return a stream of the value, closed with the snapshot.
+         */
+        InputStream getInputStream();
+
+        /**
+         * @return a read-only buffer of the value, valid once the snapshot is closed, or null if
+         * the value can only be streamed.
+         * @throws IOException if the value can not be mapped in memory.
+         */
+        ByteBuffer getByteBuffer() throws IOException;
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Edition of the value of an entry.
+     */
+    interface Editor {
+
+        /**
+         * @return the stream to write the new value to. It must be closed before committing.
+         * @throws IOException if the stream can not be opened.
+         */
+        OutputStream newOutputStream() throws IOException;
+
+        /**
+         * Publish the new value.
+         *
+         * @throws IOException if the value can not be written.
+         */
+        void commit() throws IOException;
+
+        /**
+         * Drop the new value if it has not been committed.
+         */
+        void abortUnlessCommitted();
+    }
+}
@@ -0,0 +1,64 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Opens the {@link DiskStore} of a {@link DiskLayer}, with the engine and the settings of the
+ * cache.
+ */
+final class DiskStoreFactory {
+
+    private final int appVersion;
+    private final int maxDiskSizeBytes;
+    private final File diskCacheFolder;
+    private final DualCacheDiskEngine engine;
+    private final boolean isMemoryMapped;
+    private final int shardCount;
+    private final Executor executor;
+    private final Logger logger;
+
+    DiskStoreFactory(DualCacheConfig<?> config, Executor executor, Logger logger) {
+        this.appVersion = config.appVersion;
+        this.maxDiskSizeBytes = config.maxDiskSizeBytes;
+        this.diskCacheFolder = config.diskFolder;
+        this.engine = config.diskEngine;
+        this.isMemoryMapped = config.diskMemoryMapped;
+        this.shardCount = config.diskShards;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    File getFolder() {
+        return diskCacheFolder;
+    }
+
+    /**
+     * Open the store, creating its folder if needed. With several shards, each one is opened in
+     * a subfolder, with its share of the maximum size.
+     *
+     * @return the store.
+     * @throws IOException if the store can not be opened.
+     */
+    DiskStore open() throws IOException {
+        if (shardCount <= 1) {
+            return open(diskCacheFolder, maxDiskSizeBytes);
+        }
+        return ShardedDiskStore.open(diskCacheFolder, shardCount,
+            new ShardedDiskStore.ShardFactory() {
+                @Override
+                public DiskStore open(File folder) throws IOException {
+                    return DiskStoreFactory.this.open(folder, maxDiskSizeBytes / shardCount);
+                }
+            });
+    }
+
+    private DiskStore open(File folder, long maxSize) throws IOException {
+        if (engine == DualCacheDiskEngine.LOG_STRUCTURED) {
+            return new LogDiskStore(folder, appVersion, maxSize, isMemoryMapped, executor, logger);
+        } else {
+            return new FileDiskStore(folder, appVersion, maxSize, isMemoryMapped);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the {@link DiskStore} of a {@link DiskLayer} and the {@link DiskKeyFilter} of its keys.
+ * The store is first opened on the I/O executor, and replaced by each invalidation.
+ *
+ * <p>An invalidation does not delete the files of the store while the other operations wait for
+ * it: the folder of the store is renamed, a new store is opened in a new empty folder, and the
+ * renamed folder is deleted on the I/O executor. The renamed folders left by a process killed
+ * before deleting them are deleted on the I/O executor too, after the first opening.
+ */
+final class DiskStoreHolder {
+
+    /** Suffix of the renamed folders of invalidated stores, followed by a generation number. */
+    private static final String DELETED_SUFFIX = ".deleted";
+
+    private final DiskStoreFactory storeFactory;
+    private final DiskKeyFilter keyFilter;
+    private final DualCacheDiskOpenPolicy openPolicy;
+    private final Executor executor;
+    private final Logger logger;
+
+    /** First opening of the disk store. */
+    private final SharedTask opening;
+
+    /** The disk store, or null until it is open or if it can not be opened. */
+    private volatile DiskStore diskStore;
+
+    /** The error which prevented the disk store from being opened, or null. */
+    private volatile IOException openError;
+
+    DiskStoreHolder(DualCacheConfig<?> config, DualCacheLock lock, Executor executor,
+                    Logger logger) {
+        this.storeFactory = new DiskStoreFactory(config, executor, logger);
+        this.keyFilter = new DiskKeyFilter(lock, executor, logger);
+        this.openPolicy = config.diskOpenPolicy;
+        this.executor = executor;
+        this.logger = logger;
+        this.opening = new SharedTask(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        }, executor, logger);
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                deleteLeftFolders();
+            }
+        });
+    }
+
+    /**
+     * Open the disk store and build the filter of its keys, or record why it can not be opened.
+     */
+    private void open() {
+        try {
+            DiskStore store = storeFactory.open();
+            keyFilter.reset(store);
+            diskStore = store;
+            openError = null;
+        } catch (IOException e) {
+            openError = e;
+            logger.logError(e);
+        }
+    }
+
+    /**
+     * @return the disk store, or null if it is not open.
+     */
+    DiskStore get() {
+        return diskStore;
+    }
+
+    DiskKeyFilter getKeyFilter() {
+        return keyFilter;
+    }
+
+    /**
+     * Wait until the first opening of the disk store is done.
+     */
+    void awaitOpen() {
+        opening.await();
+    }
+
+    /**
+     * Wait until the first opening of the disk store is done if the reads must wait for it.
+     */
+    void awaitOpenForRead() {
+        if (openPolicy == DualCacheDiskOpenPolicy.WAIT) {
+            opening.await();
+        }
+    }
+
+    /**
+     * @return true if the disk store is open.
+     */
+    boolean isReady() {
+        return opening.isDone() && diskStore != null;
+    }
+
+    /**
+     * Wait until the disk store is open.
+     *
+     * @throws IOException if the disk store can not be opened.
+     */
+    void awaitReady() throws IOException {
+        opening.await();
+        if (diskStore == null) {
+            IOException error = openError;
+            throw error != null
+                ? error : new IOException("Can not open " + storeFactory.getFolder());
+        }
+    }
+
+    /**
+     * Replace the disk store with an empty one, and delete the files of the previous one in the
+     * background. The first opening must be done, and the caller must hold the full disk write
+     * lock.
+     *
+     * @throws IOException if the files of the disk store can not be removed.
+     */
+    void reopen() throws IOException {
+        DiskStore store = diskStore;
+        diskStore = null;
+        if (store != null) {
+            store.discard();
+        }
+        File folder = storeFactory.getFolder().getAbsoluteFile();
+        if (folder.isDirectory()) {
+            File deleted = newDeletedFolder(folder);
+            if (folder.renameTo(deleted)) {
+                deleteInBackground(deleted);
+            } else {
+                deleteRecursively(folder);
+            }
+        }
+        open();
+    }
+
+    /**
+     * @return a folder which does not exist yet, next to the folder of the store, to rename the
+     * folder to.
+     */
+    private static File newDeletedFolder(File folder) {
+        File deleted;
+        int generation = 0;
+        do {
+            deleted = new File(folder.getParentFile(),
+                folder.getName() + DELETED_SUFFIX + generation);
+            generation++;
+        } while (deleted.exists());
+        return deleted;
+    }
+
+    /**
+     * Delete the renamed folders left by previous invalidations, if any. One of them may be deleted
+     * by its own invalidation meanwhile.
+     */
+    private void deleteLeftFolders() {
+        File folder = storeFactory.getFolder().getAbsoluteFile();
+        File[] siblings = folder.getParentFile().listFiles();
+        if (siblings == null) {
+            return;
+        }
+        String prefix = folder.getName() + DELETED_SUFFIX;
+        for (File sibling : siblings) {
+            if (sibling.getName().startsWith(prefix)) {
+                try {
+                    deleteRecursively(sibling);
+                } catch (IOException e) {
+                    logger.logError(e);
+                }
+            }
+        }
+    }
+
+    private void deleteInBackground(final File folder) {
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteRecursively(folder);
+                } catch (IOException e) {
+                    logger.logError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task on the I/O executor, or on the calling thread if the executor rejects it.
+     */
+    private void runInBackground(Runnable task) {
+        IoExecutors.executeOrRun(executor, task);
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Can not delete " + file);
+        }
+    }
+
+    void close() throws IOException {
+        opening.await();
+        if (diskStore != null) {
+            diskStore.close();
+        }
+    }
+}
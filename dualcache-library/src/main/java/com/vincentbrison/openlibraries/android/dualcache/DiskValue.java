@@ -0,0 +1,59 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Object written to or read from the {@link DiskLayer}, with its serialized form if available, and
+ * its expiration time. Subclasses may decode the object and its serialized form on demand.
+ *
+ * @param <T> is the class of the object.
+ */
+class DiskValue<T> {
+    final long expiresAt;
+    private volatile T object;
+    private volatile byte[] serialized;
+
+    DiskValue(T object, byte[] serialized, long expiresAt) {
+        this.object = object;
+        this.serialized = serialized;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the object, decoded on the first call if needed.
+     */
+    T getObject() {
+        T result = object;
+        if (result == null) {
+            result = decodeObject();
+            object = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the object serialized by the disk serializer, decoded on the first call if needed,
+     * or null if not available.
+     */
+    byte[] getSerialized() {
+        byte[] result = serialized;
+        if (result == null) {
+            result = decodeSerialized();
+            serialized = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the object, for the values decoded on demand, null otherwise.
+     */
+    T decodeObject() {
+        return null;
+    }
+
+    /**
+     * @return the object serialized by the disk serializer, for the values decoded on demand, null
+     * otherwise.
+     */
+    byte[] decodeSerialized() {
+        return null;
+    }
+}
@@ -16,11 +16,18 @@
 
 package com.vincentbrison.openlibraries.android.dualcache;
 
-import com.jakewharton.disklrucache.DiskLruCache;
-
 import java.io.Closeable;
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * This class intent to provide a very easy to use, reliable, highly configurable caching library
@@ -30,91 +37,91 @@ import java.io.IOException;
  */
 public class DualCache<T> implements Closeable {
 
-    private static final int VALUES_PER_CACHE_ENTRY = 1;
-
-    private final RamLruCache ramCacheLru;
-    private DiskLruCache diskLruCache;
-    private final int maxDiskSizeBytes;
-    private final File diskCacheFolder;
-    private final int appVersion;
+    private final RamLayer<T> ramLayer;
+    private final DiskLayer<T> diskLayer;
     private final DualCacheRamMode ramMode;
     private final DualCacheDiskMode diskMode;
-    private final CacheSerializer<T> diskSerializer;
-    private final CacheSerializer<T> ramSerializer;
-    private final DualCacheLock dualCacheLock = new DualCacheLock();
+    private final boolean isSameSerializer;
+
+    /**
+     * True if objects are only written in the disk layer when evicted from the RAM layer.
+     */
+    private final boolean isDiskWrittenOnRamEviction;
+    private final InFlightLoads<T> inFlightLoads = new InFlightLoads<>();
+    private final Expirations expirations = new Expirations();
+    private final long defaultTimeToLiveMillis;
+    private final RefreshAhead<T> refreshAhead;
+    private final Executor ioExecutor;
+
+    /**
+     * True if {@link #ioExecutor} has been created by this cache, which must shut it down.
+     */
+    private final boolean isIoExecutorOwned;
     private final Logger logger;
     private final LoggerHelper loggerHelper;
 
-    DualCache(
-        int appVersion,
-        Logger logger,
-        DualCacheRamMode ramMode,
-        CacheSerializer<T> ramSerializer,
-        int maxRamSizeBytes,
-        SizeOf<T> sizeOf,
-        DualCacheDiskMode diskMode,
-        CacheSerializer<T> diskSerializer,
-        int maxDiskSizeBytes,
-        File diskFolder
-    ) {
-        this.appVersion = appVersion;
-        this.ramMode = ramMode;
-        this.ramSerializer = ramSerializer;
-        this.diskMode = diskMode;
-        this.diskSerializer = diskSerializer;
-        this.diskCacheFolder = diskFolder;
-        this.logger = logger;
+    DualCache(DualCacheConfig<T> config) {
+        this.ramMode = config.ramMode;
+        this.diskMode = config.diskMode;
+        this.isSameSerializer = config.ramSerializer != null
+            && config.ramSerializer.equals(config.diskSerializer);
+        this.isIoExecutorOwned = config.ioExecutor == null;
+        this.ioExecutor = isIoExecutorOwned
+            ? IoExecutors.newDefaultExecutor() : config.ioExecutor;
+        this.logger = new Logger(config.logEnabled);
         this.loggerHelper = new LoggerHelper(logger);
+        this.defaultTimeToLiveMillis = config.defaultTimeToLiveMillis;
+        this.isDiskWrittenOnRamEviction = config.diskWrittenOnRamEviction
+            && !ramMode.equals(DualCacheRamMode.DISABLE)
+            && !diskMode.equals(DualCacheDiskMode.DISABLE);
 
-        switch (ramMode) {
-            case ENABLE_WITH_SPECIFIC_SERIALIZER:
-                this.ramCacheLru = new StringLruCache(maxRamSizeBytes);
-                break;
-            case ENABLE_WITH_REFERENCE:
-                this.ramCacheLru = new ReferenceLruCache<>(maxRamSizeBytes, sizeOf);
-                break;
-            default:
-                this.ramCacheLru = null;
-        }
+        this.refreshAhead = new RefreshAhead<>(
+            config.refreshIntervalMillis, config.refreshLoader, config.ioExecutor, logger);
 
-        switch (diskMode) {
-            case ENABLE_WITH_SPECIFIC_SERIALIZER:
-                this.maxDiskSizeBytes = maxDiskSizeBytes;
-                try {
-                    openDiskLruCache(diskFolder);
-                } catch (IOException e) {
-                    logger.logError(e);
-                }
-                break;
-            default:
-                this.maxDiskSizeBytes = 0;
+        if (diskMode.equals(DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
+            this.diskLayer = new DiskLayer<>(config, this.ioExecutor, logger);
+        } else {
+            this.diskLayer = null;
         }
-    }
 
-    private void openDiskLruCache(File diskFolder) throws IOException {
-        this.diskLruCache = DiskLruCache.open(
-            diskFolder,
-            this.appVersion,
-            VALUES_PER_CACHE_ENTRY,
-            this.maxDiskSizeBytes
-        );
+        if (ramMode.equals(DualCacheRamMode.DISABLE)) {
+            this.ramLayer = null;
+        } else {
+            this.ramLayer = new RamLayer<>(config, isDiskWrittenOnRamEviction
+                ? new RamEvictionWriter<>(diskLayer, expirations, isSameSerializer) : null, logger);
+        }
     }
 
     public long getRamUsedInBytes() {
-        if (ramCacheLru == null) {
-            return -1;
-        } else {
-            return ramCacheLru.size();
-        }
+        return ramLayer == null ? -1 : ramLayer.size();
     }
 
     public long getDiskUsedInBytes() {
-        if (diskLruCache == null) {
-            return -1;
-        } else {
-            return diskLruCache.size();
-        }
+        return diskLayer == null ? -1 : diskLayer.size();
+    }
+
+    /**
+     * Return whether the disk layer is open. It is opened on the I/O executor after the cache is
+     * built.
+     *
+     * @return true if the disk layer is open, false if it is still being opened, if it could not
+     * be opened, or if the disk layer is disabled.
+     */
+    public boolean isDiskReady() {
+        return diskLayer != null && diskLayer.isReady();
+    }
 
+    /**
+     * Wait until the disk layer is open, opening it on the calling thread if the I/O executor has
+     * not started yet. Returns at once if the disk layer is disabled.
+     *
+     * @throws IOException if the disk layer could not be opened. The cache then works without
+     *                     disk layer, until {@link #invalidateDisk()} tries to open it again.
+     */
+    public void awaitDiskReady() throws IOException {
+        if (diskLayer != null) {
+            diskLayer.awaitReady();
+        }
     }
 
     /**
@@ -136,43 +143,103 @@ public class DualCache<T> implements Closeable {
     }
 
     /**
-     * Put an object in cache.
+     * Put an object in cache. With write-behind enabled, the object is written in the disk layer
+     * later, on the I/O executor. If the disk layer is only used for RAM evictions, the object is
+     * written in the disk layer once evicted from the RAM layer. The object expires after the
+     * default time to live of the cache, if any.
      *
      * @param key    is the key of the object.
      * @param object is the object to put in cache.
      */
     public void put(String key, T object) {
-        // Synchronize put on each entry. Gives concurrent editions on different entries, and atomic
-        // modification on the same entry.
-        if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_REFERENCE)) {
-            ramCacheLru.put(key, object);
-        }
+        put(key, object, defaultTimeToLiveMillis);
+    }
 
-        String ramSerialized = null;
-        if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-            ramSerialized = ramSerializer.toString(object);
-            ramCacheLru.put(key, ramSerialized);
+    /**
+     * Put an object in cache, like {@link #put(String, Object)}, with its own time to live. Once
+     * expired, the object is not returned anymore, and it is removed from both layers by the
+     * following operations on the cache.
+     *
+     * @param key              is the key of the object.
+     * @param object           is the object to put in cache.
+     * @param timeToLiveMillis is the time to live of the object in milliseconds, or 0 if it never
+     *                         expires.
+     */
+    public void put(String key, T object, long timeToLiveMillis) {
+        long expiresAt = Expirations.expiresAt(timeToLiveMillis);
+        if (isDiskWrittenOnRamEviction) {
+            // Drop the previous object, from RAM first so that it is not evicted to disk anymore.
+            ramLayer.remove(key);
+            diskLayer.remove(key);
+            putInRam(key, object, expiresAt);
+            return;
+        }
+        byte[] ramSerialized = putInRam(key, object, expiresAt);
+        if (diskLayer != null) {
+            diskLayer.put(key, toDiskValue(object, ramSerialized, expiresAt));
         }
+    }
 
-        if (diskMode.equals(DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-            try {
-                dualCacheLock.lockDiskEntryWrite(key);
-                DiskLruCache.Editor editor = diskLruCache.edit(key);
-                if (ramSerializer == diskSerializer) {
-                    // Optimization if using same serializer
-                    editor.set(0, ramSerialized);
-                } else {
-                    editor.set(0, diskSerializer.toString(object));
-                }
-                editor.commit();
-            } catch (IOException e) {
-                logger.logError(e);
-            } finally {
-                dualCacheLock.unLockDiskEntryWrite(key);
+    /**
+     * Put several objects in cache. The objects are put in the RAM layer, then written in the disk
+     * layer as a single batch, which does not wait for concurrent invalidations between objects.
+     * With write-behind enabled, they are written later, like with {@link #put(String, Object)}.
+     *
+     * @param objects are the objects to put in cache, by key.
+     */
+    public void putAll(Map<String, T> objects) {
+        long expiresAt = Expirations.expiresAt(defaultTimeToLiveMillis);
+        if (isDiskWrittenOnRamEviction) {
+            ramLayer.removeAll(objects.keySet());
+            diskLayer.removeAll(objects.keySet());
+            for (Map.Entry<String, T> entry : objects.entrySet()) {
+                putInRam(entry.getKey(), entry.getValue(), expiresAt);
             }
+            return;
+        }
+        Map<String, DiskValue<T>> values = new HashMap<>();
+        for (Map.Entry<String, T> entry : objects.entrySet()) {
+            byte[] serialized = putInRam(entry.getKey(), entry.getValue(), expiresAt);
+            values.put(entry.getKey(), toDiskValue(entry.getValue(), serialized, expiresAt));
+        }
+        if (diskLayer != null) {
+            diskLayer.putAll(values);
         }
     }
 
+    /**
+     * Put an object in cache, without waiting for the disk layer. The object is put in the RAM
+     * layer before returning, while its serialization and its write in the disk layer run on the
+     * I/O executor. Until the write is done, the object is read from memory.
+     *
+     * @param key    is the key of the object.
+     * @param object is the object to put in cache.
+     * @return a future completed once the object is written in the disk layer.
+     */
+    public Future<Void> putAsync(String key, T object) {
+        if (isDiskWrittenOnRamEviction) {
+            put(key, object);
+            return new CompletedFuture<>(null);
+        }
+        long expiresAt = Expirations.expiresAt(defaultTimeToLiveMillis);
+        byte[] ramSerialized = putInRam(key, object, expiresAt);
+        if (diskLayer == null) {
+            return new CompletedFuture<>(null);
+        }
+        return diskLayer.putAsync(key, toDiskValue(object, ramSerialized, expiresAt));
+    }
+
+    private byte[] putInRam(String key, T object, long expiresAt) {
+        expirations.reclaim(ramLayer, diskLayer, ioExecutor, logger);
+        byte[] serialized = expirations.putInRam(ramLayer, key, object, null, expiresAt);
+        refreshAhead.onPut(key);
+        return serialized;
+    }
+
+    private DiskValue<T> toDiskValue(T object, byte[] ramSerialized, long expiresAt) {
+        return new DiskValue<>(object, isSameSerializer ? ramSerialized : null, expiresAt);
+    }
+
     /**
      * Return the object of the corresponding key from the cache. In no object is available,
      * return null.
@@ -182,74 +249,148 @@ public class DualCache<T> implements Closeable {
      * return null.
      */
     public T get(String key) {
-
-        Object ramResult = null;
-        String diskResult = null;
-        DiskLruCache.Snapshot snapshotObject = null;
-
-        // Try to get the object from RAM.
-        boolean isRamSerialized = ramMode.equals(DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER);
-        boolean isRamReferenced = ramMode.equals(DualCacheRamMode.ENABLE_WITH_REFERENCE);
-        if (isRamSerialized || isRamReferenced) {
-            ramResult = ramCacheLru.get(key);
+        T object = getFromRam(key);
+        if (object == null) {
+            object = getFromDisk(key);
         }
+        return object;
+    }
 
-        if (ramResult == null) {
-            // Try to get the cached object from disk.
-            loggerHelper.logEntryForKeyIsNotInRam(key);
-            if (diskMode.equals(DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-                try {
-                    dualCacheLock.lockDiskEntryWrite(key);
-                    snapshotObject = diskLruCache.get(key);
-                } catch (IOException e) {
-                    logger.logError(e);
-                } finally {
-                    dualCacheLock.unLockDiskEntryWrite(key);
-                }
+    /**
+     * Return the object of the corresponding key from the cache. If no object is available, it is
+     * loaded with the given loader and put in cache. Concurrent calls for the same key are
+     * coalesced: a single thread reads the disk layer and, if needed, calls the loader, and all
+     * the callers get its result.
+     *
+     * @param key    is the key of the object.
+     * @param loader provides the object if it is not in cache.
+     * @return the object of the corresponding key, or null if it is not in cache and the loader
+     * returned null.
+     * @throws RuntimeException thrown by the loader, to all the coalesced callers.
+     */
+    public T get(String key, CacheLoader<T> loader) {
+        T object = getFromRam(key);
+        return object != null ? object : load(key, loader);
+    }
 
-                if (snapshotObject != null) {
-                    loggerHelper.logEntryForKeyIsOnDisk(key);
-                    try {
-                        diskResult = snapshotObject.getString(0);
-                    } catch (IOException e) {
-                        logger.logError(e);
+    /** Load an object missed in the RAM layer, coalesced with the concurrent loads of its key. */
+    T load(final String key, final CacheLoader<T> loader) {
+        return inFlightLoads.run(key, new Callable<T>() {
+            @Override
+            public T call() {
+                // A load may have completed since the RAM miss, putting the object in RAM only.
+                T loaded = get(key);
+                if (loaded == null) {
+                    loaded = loader.load(key);
+                    if (loaded != null) {
+                        put(key, loaded);
                     }
-                } else {
-                    loggerHelper.logEntryForKeyIsNotOnDisk(key);
                 }
+                return loaded;
             }
+        });
+    }
 
-            T objectFromStringDisk = null;
-
-            if (diskResult != null) {
-                // Load object, no need to check disk configuration since diskresult != null.
-                objectFromStringDisk = diskSerializer.fromString(diskResult);
+    /**
+     * Return the object of the corresponding key from the cache, without waiting for the disk
+     * layer. If the object is in the RAM layer, the returned future is already completed.
+     * Otherwise, the read from the disk layer and the deserialization run on the I/O executor.
+     *
+     * @param key is the key of the object.
+     * @return a future of the object of the corresponding key, or of null if no object is
+     * available.
+     */
+    public Future<T> getAsync(final String key) {
+        T object = getFromRam(key);
+        if (object != null || diskLayer == null) {
+            return new CompletedFuture<>(object);
+        }
+        FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return getFromDisk(key);
+            }
+        });
+        IoExecutors.executeOrRun(ioExecutor, task);
+        return task;
+    }
 
-                // Refresh object in ram.
-                if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_REFERENCE)) {
-                    if (diskMode.equals(DualCacheDiskMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-                        ramCacheLru.put(key, objectFromStringDisk);
-                    }
-                } else if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-                    if (diskSerializer == ramSerializer) {
-                        ramCacheLru.put(key, diskResult);
-                    } else {
-                        ramCacheLru.put(key, ramSerializer.toString(objectFromStringDisk));
-                    }
+    /**
+     * Return the objects of several keys from the cache. The objects found in the RAM layer are
+     * returned right away, and the others are read from the disk layer as a single batch.
+     *
+     * @param keys are the keys of the objects.
+     * @return the objects available in cache, by key. Keys without object are not in the map.
+     */
+    public Map<String, T> getAll(Collection<String> keys) {
+        Map<String, T> objects = new HashMap<>();
+        List<String> ramMisses = new ArrayList<>();
+        for (String key : keys) {
+            T object = getFromRam(key);
+            if (object != null) {
+                objects.put(key, object);
+            } else {
+                ramMisses.add(key);
+            }
+        }
+        if (diskLayer != null && !ramMisses.isEmpty()) {
+            Map<String, DiskValue<T>> values =
+                diskLayer.getAll(ramMisses, isRamSerializedWithSameSerializer());
+            for (String key : ramMisses) {
+                T object = onDiskResult(key, values.get(key));
+                if (object != null) {
+                    objects.put(key, object);
                 }
-                return objectFromStringDisk;
             }
+        }
+        return objects;
+    }
+
+    private T getFromRam(String key) {
+        expirations.reclaim(ramLayer, diskLayer, ioExecutor, logger);
+        // The expiration is checked first, so that expired objects are not decoded.
+        T object = ramLayer != null && !expirations.isExpired(key) ? ramLayer.get(key) : null;
+        if (object == null) {
+            loggerHelper.logEntryForKeyIsNotInRam(key);
         } else {
             loggerHelper.logEntryForKeyIsInRam(key);
-            if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_REFERENCE)) {
-                return (T) ramResult;
-            } else if (ramMode.equals(DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER)) {
-                return ramSerializer.fromString((String) ramResult);
-            }
+            refreshAhead.onRead(key, this);
         }
+        return object;
+    }
+
+    /**
+     * Read an object from the disk layer and refresh it in the RAM layer.
+     */
+    private T getFromDisk(String key) {
+        if (diskLayer == null) {
+            refreshAhead.remove(key);
+            return null;
+        }
+        return onDiskResult(key, diskLayer.get(key, isRamSerializedWithSameSerializer()));
+    }
 
-        // No data is available.
-        return null;
+    private boolean isRamSerializedWithSameSerializer() {
+        return ramLayer != null && ramLayer.isSerialized() && isSameSerializer;
+    }
+
+    /**
+     * Refresh an object read from the disk layer in the RAM layer.
+     *
+     * @return the object read, or null if it is not on disk.
+     */
+    private T onDiskResult(String key, DiskValue<T> value) {
+        if (value == null || value.getObject() == null) {
+            loggerHelper.logEntryForKeyIsNotOnDisk(key);
+            refreshAhead.remove(key);
+            return null;
+        }
+
+        loggerHelper.logEntryForKeyIsOnDisk(key);
+        expirations.putInRam(ramLayer, key, value.getObject(),
+            isSameSerializer ? value.getSerialized() : null, value.expiresAt);
+        refreshAhead.onRead(key, this);
+        return value.getObject();
     }
 
     /**
@@ -258,18 +399,32 @@ public class DualCache<T> implements Closeable {
      * @param key is the key of the object.
      */
     public void delete(String key) {
-        if (!ramMode.equals(DualCacheRamMode.DISABLE)) {
-            ramCacheLru.remove(key);
+        if (ramLayer != null) {
+            ramLayer.remove(key);
         }
-        if (!diskMode.equals(DualCacheDiskMode.DISABLE)) {
-            try {
-                dualCacheLock.lockDiskEntryWrite(key);
-                diskLruCache.remove(key);
-            } catch (IOException e) {
-                logger.logError(e);
-            } finally {
-                dualCacheLock.unLockDiskEntryWrite(key);
-            }
+        if (diskLayer != null) {
+            diskLayer.remove(key);
+        }
+        expirations.remove(key);
+        refreshAhead.remove(key);
+    }
+
+    /**
+     * Delete the objects of several keys in cache. They are removed from the disk layer as a
+     * single batch.
+     *
+     * @param keys are the keys of the objects.
+     */
+    public void deleteAll(Collection<String> keys) {
+        if (ramLayer != null) {
+            ramLayer.removeAll(keys);
+        }
+        if (diskLayer != null) {
+            diskLayer.removeAll(keys);
+        }
+        expirations.removeAll(keys);
+        for (String key : keys) {
+            refreshAhead.remove(key);
         }
     }
 
@@ -277,33 +432,35 @@ public class DualCache<T> implements Closeable {
      * Remove all objects from cache (both RAM and disk).
      */
     public void invalidate() {
-        invalidateDisk();
-        invalidateRAM();
+        if (isDiskWrittenOnRamEviction) {
+            // The objects evicted from RAM are written on disk, so RAM is emptied first.
+            invalidateRAM();
+            invalidateDisk();
+        } else {
+            invalidateDisk();
+            invalidateRAM();
+        }
+        expirations.clear();
+        refreshAhead.clear();
     }
 
     /**
-     * Remove all objects from RAM.
+     * Remove all objects from RAM. If the disk layer is only used for RAM evictions, the objects
+     * are written in the disk layer.
      */
     public void invalidateRAM() {
-        if (!ramMode.equals(DualCacheRamMode.DISABLE)) {
-            ramCacheLru.evictAll();
+        if (ramLayer != null) {
+            ramLayer.evictAll();
         }
     }
 
     /**
-     * Remove all objects from Disk.
+     * Remove all objects from Disk. The files of the objects are deleted later, on the I/O
+     * executor.
      */
     public void invalidateDisk() {
-        if (!diskMode.equals(DualCacheDiskMode.DISABLE)) {
-            try {
-                dualCacheLock.lockFullDiskWrite();
-                diskLruCache.delete();
-                openDiskLruCache(diskCacheFolder);
-            } catch (IOException e) {
-                logger.logError(e);
-            } finally {
-                dualCacheLock.unLockFullDiskWrite();
-            }
+        if (diskLayer != null) {
+            diskLayer.invalidate();
         }
     }
 
@@ -313,31 +470,30 @@ public class DualCache<T> implements Closeable {
      * @return true if the object is present in cache, false otherwise.
      */
     public boolean contains(String key) {
-        if (!ramMode.equals(DualCacheRamMode.DISABLE) && ramCacheLru.snapshot().containsKey(key)) {
+        if (ramLayer != null && ramLayer.contains(key) && !expirations.isExpired(key)) {
             return true;
         }
-        try {
-            dualCacheLock.lockDiskEntryWrite(key);
-            if (!diskMode.equals(DualCacheDiskMode.DISABLE) && diskLruCache.get(key) != null) {
-                return true;
-            }
-        } catch (IOException e) {
-            logger.logError(e);
-        } finally {
-            dualCacheLock.unLockDiskEntryWrite(key);
-        }
-        return false;
+        return diskLayer != null && diskLayer.contains(key);
     }
 
     /**
      * Closes the underlying Disk LRU Cache. (if one is in use)
+     * The writes not done yet, queued by {@link #putAsync} or by the write-behind, are done
+     * first. If the disk layer is only used for RAM evictions, the RAM layer is written in it.
      * @throws IOException if an I/O error occurs
-     * @see DiskLruCache#close()
+     * @see com.jakewharton.disklrucache.DiskLruCache#close()
      */
     @Override
     public void close() throws IOException {
-        if (diskLruCache != null) {
-            diskLruCache.close();
+        refreshAhead.close();
+        if (isDiskWrittenOnRamEviction) {
+            ramLayer.evictAll();
+        }
+        if (isIoExecutorOwned) {
+            IoExecutors.shutdown((ExecutorService) ioExecutor);
+        }
+        if (diskLayer != null) {
+            diskLayer.close();
         }
     }
 }
@@ -0,0 +1,70 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Settings of a {@link DualCache}, filled by the {@link Builder}.
+ *
+ * @param <T> is the class of cached objects.
+ */
+class DualCacheConfig<T> {
+    int appVersion;
+    boolean logEnabled;
+
+    /**
+     * Time to live of the objects put without one, in milliseconds, or 0 if they never expire.
+     */
+    long defaultTimeToLiveMillis;
+
+    /**
+     * Reloads the objects read after {@link #refreshIntervalMillis}, or null to never reload them.
+     */
+    CacheLoader<T> refreshLoader;
+    long refreshIntervalMillis;
+
+    DualCacheRamMode ramMode;
+    int maxRamSizeBytes;
+    DualCacheRamEvictionPolicy ramEvictionPolicy = DualCacheRamEvictionPolicy.LRU;
+    boolean ramCompressed;
+    BinaryCacheSerializer<T> ramSerializer;
+    SizeOf<T> sizeOf;
+    int maxDecodedSizeBytes;
+    SizeOf<T> decodedSizeOf;
+
+    DualCacheDiskMode diskMode;
+    int maxDiskSizeBytes;
+    BinaryCacheSerializer<T> diskSerializer;
+    StreamCacheSerializer<T> diskStreamSerializer;
+    File diskFolder;
+    DualCacheDiskEngine diskEngine = DualCacheDiskEngine.FILE_PER_ENTRY;
+    boolean diskMemoryMapped;
+    DualCacheDiskOpenPolicy diskOpenPolicy = DualCacheDiskOpenPolicy.WAIT;
+    int diskShards = 1;
+    int maxPendingWrites;
+    boolean diskWrittenOnRamEviction;
+
+    /**
+     * Executor of the disk operations, or null to use a default one.
+     */
+    Executor ioExecutor;
+
+    /**
+     * @throws IllegalStateException if a cache layer is not set, or if both are disabled.
+     */
+    void validate() {
+        if (ramMode == null) {
+            throw new IllegalStateException("No ram mode set");
+        }
+        if (diskMode == null) {
+            throw new IllegalStateException("No disk mode set");
+        }
+        if (ramMode.equals(DualCacheRamMode.DISABLE)
+            && diskMode.equals(DualCacheDiskMode.DISABLE)) {
+            throw new IllegalStateException(
+                "The ram cache layer and the disk cache layer are "
+                    + "disable. You have to use at least one of those "
+                    + "layers.");
+        }
+    }
+}
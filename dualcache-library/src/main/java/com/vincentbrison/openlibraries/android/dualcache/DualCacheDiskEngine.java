@@ -0,0 +1,19 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Define how the disk layer stores the entries in files.
+ */
+public enum DualCacheDiskEngine {
+    /**
+     * Store each entry in its own file, and record every edition and every read in a journal.
+     */
+    FILE_PER_ENTRY,
+
+    /**
+     * Append the entries to a few large segment files, indexed in memory. The space of replaced
+     * and removed entries is reclaimed by a background compaction of the segments. Much fewer
+     * files are created, which suits a large number of small entries, at the cost of loading the
+     * index when the cache is opened.
+     */
+    LOG_STRUCTURED
+}
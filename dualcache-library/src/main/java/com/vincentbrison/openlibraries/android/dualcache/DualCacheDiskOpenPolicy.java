@@ -0,0 +1,18 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Define how the disk layer serves the reads issued while it is being opened on the I/O executor.
+ * Writes and removals always wait for the opening, since dropping them could leave stale objects
+ * on disk.
+ */
+public enum DualCacheDiskOpenPolicy {
+    /**
+     * Reads wait until the disk layer is open.
+     */
+    WAIT,
+
+    /**
+     * Reads are misses until the disk layer is open, so that they never block on the opening.
+     */
+    MISS
+}
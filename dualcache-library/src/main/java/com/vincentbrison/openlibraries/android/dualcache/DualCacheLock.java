@@ -1,27 +1,80 @@
 package com.vincentbrison.openlibraries.android.dualcache;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Locks of the disk layer: a read write lock against invalidations, and a read write lock per
+ * entry. Reads of an entry share its lock, so that concurrent reads of a popular key run in
+ * parallel, while writes and removals of the entry hold it exclusively.
+ *
+ * <p>Entry locks are striped: each key is mapped by its hash to one of a fixed number of locks, so
+ * that the table does not grow with the number of keys ever edited. Keys sharing a stripe exclude
+ * each other, which only costs concurrency since no entry lock is taken while holding another.
+ */
 class DualCacheLock {
 
-    private final ConcurrentMap<String, Lock> editionLocks = new ConcurrentHashMap<>();
+    /** Number of entry locks. It must be a power of two. */
+    private static final int STRIPE_COUNT = 256;
+
+    private final ReadWriteLock[] editionLocks = new ReadWriteLock[STRIPE_COUNT];
     private final ReadWriteLock invalidationReadWriteLock = new ReentrantReadWriteLock();
 
+    DualCacheLock() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            editionLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
     void lockDiskEntryWrite(String key) {
         invalidationReadWriteLock.readLock().lock();
-        getLockForGivenDiskEntry(key).lock();
+        getLockForGivenDiskEntry(key).writeLock().lock();
     }
 
     void unLockDiskEntryWrite(String key) {
-        getLockForGivenDiskEntry(key).unlock();
+        getLockForGivenDiskEntry(key).writeLock().unlock();
         invalidationReadWriteLock.readLock().unlock();
     }
 
+    void lockDiskEntryRead(String key) {
+        invalidationReadWriteLock.readLock().lock();
+        getLockForGivenDiskEntry(key).readLock().lock();
+    }
+
+    void unLockDiskEntryRead(String key) {
+        getLockForGivenDiskEntry(key).readLock().unlock();
+        invalidationReadWriteLock.readLock().unlock();
+    }
+
+    /**
+     * Lock the disk layer against invalidations for a batch of operations. Within the batch, each
+     * entry is edited under {@link #lockDiskEntryInBatch(String)} or read under
+     * {@link #lockDiskEntryReadInBatch(String)}, one entry at a time.
+     */
+    void lockDiskBatch() {
+        invalidationReadWriteLock.readLock().lock();
+    }
+
+    void unLockDiskBatch() {
+        invalidationReadWriteLock.readLock().unlock();
+    }
+
+    void lockDiskEntryInBatch(String key) {
+        getLockForGivenDiskEntry(key).writeLock().lock();
+    }
+
+    void unLockDiskEntryInBatch(String key) {
+        getLockForGivenDiskEntry(key).writeLock().unlock();
+    }
+
+    void lockDiskEntryReadInBatch(String key) {
+        getLockForGivenDiskEntry(key).readLock().lock();
+    }
+
+    void unLockDiskEntryReadInBatch(String key) {
+        getLockForGivenDiskEntry(key).readLock().unlock();
+    }
+
     void lockFullDiskWrite() {
         invalidationReadWriteLock.writeLock().lock();
     }
@@ -30,10 +83,9 @@ class DualCacheLock {
         invalidationReadWriteLock.writeLock().unlock();
     }
 
-    private Lock getLockForGivenDiskEntry(String key) {
-        if (!editionLocks.containsKey(key)) {
-            editionLocks.putIfAbsent(key, new ReentrantLock());
-        }
-        return editionLocks.get(key);
+    private ReadWriteLock getLockForGivenDiskEntry(String key) {
+        int hash = key.hashCode();
+        // Spread the high bits, which the mask would ignore.
+        return editionLocks[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
     }
 }
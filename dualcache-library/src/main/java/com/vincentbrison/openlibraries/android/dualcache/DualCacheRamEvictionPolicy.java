@@ -0,0 +1,19 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Define how the RAM layer chooses the entries to evict when it is full.
+ */
+public enum DualCacheRamEvictionPolicy {
+    /**
+     * Evict the least recently used entry.
+     */
+    LRU,
+
+    /**
+     * Admit new entries in a small LRU window, then only keep them in the main region if they
+     * are used more often than the entry they would replace. Accesses are counted in a compact
+     * count-min sketch. A scan over many entries used only once does not flush the entries used
+     * frequently, at the cost of a slightly slower maintenance on writes.
+     */
+    WINDOW_TINY_LFU
+}
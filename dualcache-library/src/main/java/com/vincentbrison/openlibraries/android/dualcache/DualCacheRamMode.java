@@ -9,6 +9,12 @@ public enum DualCacheRamMode {
      */
     ENABLE_WITH_SPECIFIC_SERIALIZER,
 
+    /**
+     * Means that object will be serialized with a specific serializer in RAM, and the serialized
+     * bytes will be stored in direct buffers, outside of the managed heap.
+     */
+    ENABLE_WITH_SPECIFIC_SERIALIZER_OFF_HEAP,
+
     /**
      * Means that only references to objects will be stored in the RAM layer.
      */
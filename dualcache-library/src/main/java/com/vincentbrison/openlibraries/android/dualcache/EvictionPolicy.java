@@ -0,0 +1,87 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Map;
+
+/**
+ * Ordering of the entries of a {@link RamLruCache}, used to choose which entry to evict. All the
+ * methods are called under the eviction lock of the cache, so implementations do not need to be
+ * thread-safe.
+ *
+ * @param <K> is the class of the keys.
+ * @param <V> is the class of the values.
+ */
+abstract class EvictionPolicy<K, V> {
+
+    /**
+     * Create the policy matching the given configuration.
+     *
+     * @param policy is the configured policy.
+     * @param <K>    is the class of the keys.
+     * @param <V>    is the class of the values.
+     * @return a new policy instance.
+     */
+    static <K, V> EvictionPolicy<K, V> create(DualCacheRamEvictionPolicy policy) {
+        switch (policy) {
+            case WINDOW_TINY_LFU:
+                return new WindowTinyLfuEvictionPolicy<>();
+            default:
+                return new LruEvictionPolicy<>();
+        }
+    }
+
+    /**
+     * Called when the maximum size of the cache is set.
+     *
+     * @param maxSize is the maximum sum of the sizes of the entries.
+     */
+    abstract void setMaximum(int maxSize);
+
+    /**
+     * Called when an entry is added to the cache.
+     *
+     * @param node is the added entry.
+     */
+    abstract void onAdd(RamLruCache.Node<K, V> node);
+
+    /**
+     * Called when an entry still in the cache has been read.
+     *
+     * @param node is the accessed entry.
+     */
+    abstract void onAccess(RamLruCache.Node<K, V> node);
+
+    /**
+     * Called when an entry is removed or replaced, for another reason than an eviction.
+     *
+     * @param node is the removed entry.
+     */
+    abstract void onRemove(RamLruCache.Node<K, V> node);
+
+    /**
+     * Choose an entry to evict and forget it.
+     *
+     * @return the evicted entry, or null if the policy does not hold any entry.
+     */
+    abstract RamLruCache.Node<K, V> evict();
+
+    /**
+     * Copy the entries, from the first to the last candidate for eviction.
+     *
+     * @param copy is the map receiving the entries.
+     */
+    abstract void copyTo(Map<K, V> copy);
+
+    /**
+     * Copy the entries of a deque, from the least to the most recently accessed.
+     *
+     * @param deque is the deque to copy.
+     * @param copy  is the map receiving the entries.
+     */
+    static <K, V> void copyTo(AccessOrderDeque<K, V> deque, Map<K, V> copy) {
+        RamLruCache.Node<K, V> node = deque.next(null);
+        while (node != null) {
+            copy.put(node.key, node.value);
+            node = deque.next(node);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Expiration times of the objects of a {@link DualCache} put with a time to live, by key. They are
+ * read without locking, so that an expired object of the RAM layer is rejected before being
+ * decoded. A {@link TimerWheel} finds the objects expired since it was last advanced, without
+ * scanning the others.
+ *
+ * <p>Objects without time to live are not tracked. Objects read from the disk layer are tracked
+ * again with the expiration time stored along with them.
+ *
+ * <p>Keys share a fixed number of locks, which make the puts in the RAM layer atomic with the
+ * removals of their expired objects. Only the keys still in the RAM layer stay tracked: the others
+ * are forgotten whenever the number of tracked keys doubles. The objects only on disk are rejected
+ * when read, using the expiration time stored with them. Without RAM layer, at most
+ * {@link #MAX_DISK_ONLY_TIMERS} of them are tracked, to reclaim their space earlier.
+ */
+final class Expirations {
+
+    /** Expiration time of the objects which never expire. */
+    static final long NEVER = Long.MAX_VALUE;
+
+    /** Number of locks shared by the keys. */
+    private static final int LOCK_STRIPES = 64;
+
+    /** Maximum number of keys tracked without RAM layer. */
+    private static final int MAX_DISK_ONLY_TIMERS = 1024;
+
+    /** Minimum number of keys tracked before forgetting the ones evicted from the RAM layer. */
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    /** Timers by key, including the expired ones not reclaimed yet. Guarded by the wheel lock. */
+    private final ConcurrentMap<String, TimerWheel.Timer> timers = new ConcurrentHashMap<>();
+    private final TimerWheel wheel;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /** Start of the next tick of the wheel, before which advancing it expires nothing new. */
+    private volatile long nextAdvance;
+
+    /** Number of timers, guarded by the wheel lock. */
+    private volatile int size;
+
+    /** Number of timers above which the keys evicted from the RAM layer are forgotten. */
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+    private final AtomicBoolean isSweeping = new AtomicBoolean();
+
+    Expirations() {
+        long now = now();
+        wheel = new TimerWheel(now);
+        nextAdvance = now;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    static long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @param timeToLiveMillis is the time to live of an object put now, or 0 if it never expires.
+     * @return the expiration time of the object.
+     */
+    static long expiresAt(long timeToLiveMillis) {
+        if (timeToLiveMillis <= 0) {
+            return NEVER;
+        }
+        long now = now();
+        return timeToLiveMillis < NEVER - now ? now + timeToLiveMillis : NEVER;
+    }
+
+    static boolean isExpired(long expiresAt) {
+        return expiresAt <= now();
+    }
+
+    /**
+     * @return true if the object of the key has expired.
+     */
+    boolean isExpired(String key) {
+        TimerWheel.Timer timer = timers.get(key);
+        return timer != null && timer.expiresAt <= now();
+    }
+
+    /**
+     * @return the expiration time of the object of the key.
+     */
+    long getExpiresAt(String key) {
+        TimerWheel.Timer timer = timers.get(key);
+        return timer != null ? timer.expiresAt : NEVER;
+    }
+
+    /**
+     * Put an object in the RAM layer, if enabled, and set its expiration time, replacing the
+     * previous one. This is atomic with the removal of the expired object of the key by
+     * {@link #reclaim}.
+     *
+     * @param ramLayer   is the RAM layer, or null if disabled.
+     * @param serialized is the object already serialized by the serializer of the RAM layer, or
+     *                   null.
+     * @return the serialized object if the RAM layer stores serialized objects, null otherwise.
+     */
+    <T> byte[] putInRam(
+        RamLayer<T> ramLayer, String key, T object, byte[] serialized, long expiresAt
+    ) {
+        if (ramLayer == null) {
+            set(key, expiresAt, true);
+            return null;
+        }
+        byte[] toPut = serialized != null ? serialized : ramLayer.serialize(object);
+        synchronized (lock(key)) {
+            ramLayer.put(key, object, toPut);
+            // Set once the object is in RAM, so that a concurrent read may only miss it.
+            set(key, expiresAt, false);
+        }
+        return toPut;
+    }
+
+    /**
+     * @param isCapped is true if the key is not tracked when {@link #MAX_DISK_ONLY_TIMERS}
+     *                 other keys already are.
+     */
+    private void set(String key, long expiresAt, boolean isCapped) {
+        if (expiresAt == NEVER) {
+            remove(key);
+            return;
+        }
+        TimerWheel.Timer timer = new TimerWheel.Timer(key, expiresAt);
+        synchronized (wheel) {
+            TimerWheel.Timer previous = timers.get(key);
+            if (previous != null) {
+                wheel.cancel(previous);
+            } else if (isCapped && size >= MAX_DISK_ONLY_TIMERS) {
+                return;
+            } else {
+                size++;
+            }
+            timers.put(key, timer);
+            wheel.schedule(timer);
+        }
+    }
+
+    /**
+     * Forget the expiration time of the object of a key, which does not expire anymore.
+     */
+    void remove(String key) {
+        if (!timers.containsKey(key)) {
+            return;
+        }
+        synchronized (wheel) {
+            remove(key, timers.get(key));
+        }
+    }
+
+    /**
+     * Forget a timer, unless replaced. Must be called while holding the wheel lock.
+     *
+     * @return true if the timer was removed.
+     */
+    private boolean remove(String key, TimerWheel.Timer timer) {
+        if (timer == null || !timers.remove(key, timer)) {
+            return false;
+        }
+        wheel.cancel(timer);
+        size--;
+        return true;
+    }
+
+    void removeAll(Collection<String> keys) {
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    void clear() {
+        synchronized (wheel) {
+            for (TimerWheel.Timer timer : timers.values()) {
+                wheel.cancel(timer);
+            }
+            timers.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Find the objects expired since the last call, at most once per tick of the wheel.
+     *
+     * @return the timers of the expired objects, still tracked until removed by {@link #reclaim}
+     * unless replaced.
+     */
+    private List<TimerWheel.Timer> pollExpired() {
+        long now = now();
+        if (now < nextAdvance) {
+            return Collections.emptyList();
+        }
+        synchronized (wheel) {
+            nextAdvance = (now | (TimerWheel.TICK_MILLIS - 1)) + 1;
+            return wheel.advance(now);
+        }
+    }
+
+    /**
+     * Remove the objects expired since the last call from the RAM layer, and from the disk layer
+     * on the I/O executor. Expired objects are already not returned: this releases their space.
+     * The objects put again since they expired are kept. The keys evicted from the RAM layer are
+     * also forgotten from time to time.
+     *
+     * @param ramLayer  is the RAM layer, or null if disabled.
+     * @param diskLayer is the disk layer, or null if disabled.
+     * @param executor  is the I/O executor.
+     * @param logger    logs the removals which can not be queued.
+     */
+    void reclaim(
+        RamLayer<?> ramLayer, final DiskLayer<?> diskLayer, Executor executor, Logger logger
+    ) {
+        if (ramLayer != null && size > sweepSize) {
+            forgetEvicted(ramLayer);
+        }
+        final List<String> keys = new ArrayList<>();
+        for (TimerWheel.Timer timer : pollExpired()) {
+            synchronized (lock(timer.key)) {
+                if (removeTimer(timer) && ramLayer != null) {
+                    ramLayer.remove(timer.key);
+                }
+            }
+            keys.add(timer.key);
+        }
+        if (diskLayer != null && !keys.isEmpty()) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        diskLayer.removeExpired(keys);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The cache is closed: the expired objects stay on disk until read.
+                logger.logError(e);
+            }
+        }
+    }
+
+    private boolean removeTimer(TimerWheel.Timer timer) {
+        synchronized (wheel) {
+            return remove(timer.key, timer);
+        }
+    }
+
+    /**
+     * Forget the keys which are not in the RAM layer anymore, unless another thread already does.
+     */
+    private void forgetEvicted(RamLayer<?> ramLayer) {
+        if (!isSweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (TimerWheel.Timer timer : timers.values()) {
+                synchronized (lock(timer.key)) {
+                    if (!ramLayer.contains(timer.key)) {
+                        removeTimer(timer);
+                    }
+                }
+            }
+            sweepSize = Math.max(MIN_SWEEP_SIZE, 2 * size);
+        } finally {
+            isSweeping.set(false);
+        }
+    }
+
+    private Object lock(String key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+}
@@ -0,0 +1,221 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link DiskStore} keeping each value in its own file, with a {@link DiskLruCache}. Large values
+ * can be mapped in memory instead of being streamed.
+ *
+ * <p>Since {@link DiskLruCache} only accepts short lowercase keys, entries are named after the
+ * hash of their key, in hexadecimal. The file of each entry starts with the version of its format
+ * and its key, the length of the key in UTF-8 then the key itself, so that an entry whose key has
+ * the same hash as the key looked for, or written in a previous format, is never returned.
+ */
+class FileDiskStore implements DiskStore {
+
+    private static final int VALUES_PER_CACHE_ENTRY = 1;
+
+    /**
+     * Index of the value of an entry, each entry having a single value.
+     */
+    private static final int VALUE_INDEX = 0;
+
+    /**
+     * Suffix of the file holding the value of an entry, named after the hash of its key.
+     */
+    private static final String VALUE_FILE_SUFFIX = "." + VALUE_INDEX;
+
+    /**
+     * Values smaller than this are cheaper to read than to map, a mapping costing a few system
+     * calls and page faults.
+     */
+    private static final long MIN_MAPPED_LENGTH = 64 * 1024;
+
+    /**
+     * Version of the format of the files, changed along with it: 2 since values start with their
+     * expiration time.
+     */
+    private static final int FORMAT = 2;
+    private static final int FORMAT_SIZE = 4;
+    private static final int KEY_LENGTH_SIZE = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File folder;
+    private final DiskLruCache diskLruCache;
+    private final boolean isMemoryMapped;
+
+    /**
+     * @param memoryMapped is true to map the large values in memory.
+     */
+    FileDiskStore(File folder, int appVersion, long maxSize, boolean memoryMapped)
+        throws IOException {
+        this.folder = folder;
+        this.diskLruCache = DiskLruCache.open(folder, appVersion, VALUES_PER_CACHE_ENTRY, maxSize);
+        this.isMemoryMapped = memoryMapped;
+    }
+
+    @Override
+    public Snapshot get(HashedKey key) throws IOException {
+        final DiskLruCache.Snapshot snapshot = diskLruCache.get(key.toHex());
+        if (snapshot == null) {
+            return null;
+        }
+        final byte[] header = header(key);
+        boolean isKeyFound = false;
+        try {
+            isKeyFound = readsHeader(snapshot.getInputStream(VALUE_INDEX), header);
+        } finally {
+            if (!isKeyFound) {
+                // Another key with the same hash, or a file written by an older version.
+                snapshot.close();
+            }
+        }
+        if (!isKeyFound) {
+            return null;
+        }
+        // The snapshot shares its lengths with the entry, changed by the next edit or removal once
+        // the caller releases the entry lock: keep the length of the value read.
+        final long length = snapshot.getLength(VALUE_INDEX) - header.length;
+        return new Snapshot() {
+            @Override
+            public long getLength() {
+                return length;
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                // The same stream each time, positioned after the header.
+                return snapshot.getInputStream(VALUE_INDEX);
+            }
+
+            @Override
+            public ByteBuffer getByteBuffer() throws IOException {
+                InputStream inputStream = snapshot.getInputStream(VALUE_INDEX);
+                if (!isMemoryMapped || length < MIN_MAPPED_LENGTH
+                    || !(inputStream instanceof FileInputStream)) {
+                    return null;
+                }
+                FileChannel channel = ((FileInputStream) inputStream).getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, header.length, length);
+            }
+
+            @Override
+            public void close() {
+                snapshot.close();
+            }
+        };
+    }
+
+    @Override
+    public Editor edit(HashedKey key) throws IOException {
+        final DiskLruCache.Editor editor = diskLruCache.edit(key.toHex());
+        final byte[] header = header(key);
+        return new Editor() {
+            @Override
+            public OutputStream newOutputStream() throws IOException {
+                OutputStream outputStream = editor.newOutputStream(VALUE_INDEX);
+                outputStream.write(header);
+                return outputStream;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                editor.commit();
+            }
+
+            @Override
+            public void abortUnlessCommitted() {
+                editor.abortUnlessCommitted();
+            }
+        };
+    }
+
+    /**
+     * Remove the entry named after the hash of the key, even if it belongs to another key with
+     * the same hash, which is then lost like an evicted entry.
+     */
+    @Override
+    public void remove(HashedKey key) throws IOException {
+        diskLruCache.remove(key.toHex());
+    }
+
+    /**
+     * Parse the names of the value files, since {@link DiskLruCache} does not expose its keys.
+     * Each entry has a value file, written before the entry is published.
+     */
+    @Override
+    public long[] keyHashes() throws IOException {
+        String[] names = folder.list();
+        if (names == null) {
+            throw new IOException("Can not list " + folder);
+        }
+        long[] hashes = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(VALUE_FILE_SUFFIX)) {
+                try {
+                    hashes[count] = HashedKey.parseHash1(
+                        name.substring(0, name.length() - VALUE_FILE_SUFFIX.length()));
+                    count++;
+                } catch (NumberFormatException e) {
+                    // A file written by an older version, never read.
+                }
+            }
+        }
+        return Arrays.copyOf(hashes, count);
+    }
+
+    @Override
+    public long size() {
+        return diskLruCache.size();
+    }
+
+    @Override
+    public void discard() throws IOException {
+        diskLruCache.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        diskLruCache.close();
+    }
+
+    /**
+     * @return the header of the file of an entry: the format, the length of the key in UTF-8, then
+     * the key.
+     */
+    private static byte[] header(HashedKey key) {
+        byte[] keyBytes = key.key.getBytes(UTF_8);
+        byte[] header = new byte[FORMAT_SIZE + KEY_LENGTH_SIZE + keyBytes.length];
+        ByteBuffer.wrap(header).putInt(FORMAT).putInt(keyBytes.length).put(keyBytes);
+        return header;
+    }
+
+    /**
+     * Read the header of a file, in a single read unless the file is shorter than expected.
+     *
+     * @return true if the file starts with the expected header.
+     */
+    private static boolean readsHeader(InputStream inputStream, byte[] expected)
+        throws IOException {
+        byte[] header = new byte[expected.length];
+        try {
+            new DataInputStream(inputStream).readFully(header);
+        } catch (EOFException e) {
+            return false;
+        }
+        return Arrays.equals(header, expected);
+    }
+}
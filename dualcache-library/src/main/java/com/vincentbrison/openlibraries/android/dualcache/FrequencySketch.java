@@ -0,0 +1,105 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Count-min sketch estimating how often a key has been seen recently, with 4-bit counters. Each
+ * key is counted in 4 rows, and its frequency is the minimum of its 4 counters, which bounds the
+ * error caused by collisions. Once enough increments have been recorded, every counter is
+ * halved so that the sketch keeps forgetting the old history. This class is not thread-safe.
+ */
+class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLE_FACTOR = 10;
+
+    private long[] table = new long[1];
+    private int tableMask;
+    private int sampleSize = SAMPLE_FACTOR;
+    private int additions;
+
+    /**
+     * Grow the sketch to be accurate for the given number of distinct keys. The history is lost
+     * when the sketch grows.
+     *
+     * @param expectedKeys is the number of keys expected to be tracked.
+     */
+    void ensureCapacity(int expectedKeys) {
+        int wanted = Math.min(Math.max(expectedKeys, 1), 1 << 30);
+        if (table.length >= wanted) {
+            return;
+        }
+        int length = 1;
+        while (length < wanted) {
+            length <<= 1;
+        }
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = SAMPLE_FACTOR * length;
+        additions = 0;
+    }
+
+    /**
+     * @param hashCode is the hash code of the key.
+     * @return the estimated number of recent occurrences of the key, at most 15.
+     */
+    int frequency(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & MAX_COUNT);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an occurrence of a key.
+     *
+     * @param hashCode is the hash code of the key.
+     */
+    void increment(int hashCode) {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = (long) MAX_COUNT << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long result = (hash + SEEDS[row]) * SEEDS[row];
+        result += result >>> 32;
+        return (int) result & tableMask;
+    }
+
+    private static int spread(int hashCode) {
+        int hash = ((hashCode >>> 16) ^ hashCode) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
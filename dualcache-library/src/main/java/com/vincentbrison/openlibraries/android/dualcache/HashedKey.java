@@ -0,0 +1,115 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Key of a disk entry with its 128-bit hash, computed once per operation and shared by the
+ * {@link DiskKeyFilter}, the {@link ShardedDiskStore} and the file names of the
+ * {@link FileDiskStore}. The hash is MurmurHash3 x64 128 of the UTF-16LE bytes of the key, with a
+ * zero seed, computed from the chars so that the key is never encoded. Being non-cryptographic,
+ * it can collide, so the stores verify the key of the entry they find.
+ */
+final class HashedKey {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int CHARS_PER_BLOCK = 8;
+    private static final int HEX_DIGITS = 16;
+    private static final int RADIX = 16;
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    final String key;
+
+    /**
+     * First 64 bits of the hash.
+     */
+    final long hash1;
+
+    /**
+     * Last 64 bits of the hash.
+     */
+    final long hash2;
+
+    HashedKey(String key) {
+        this.key = key;
+        int length = key.length();
+        long h1 = 0;
+        long h2 = 0;
+        int blockEnd = length - length % CHARS_PER_BLOCK;
+        for (int i = 0; i < blockEnd; i += CHARS_PER_BLOCK) {
+            h1 ^= mixK1(pack(key, i, i + 4));
+            h1 = (Long.rotateLeft(h1, 27) + h2) * 5 + 0x52dce729;
+            h2 ^= mixK2(pack(key, i + 4, i + 8));
+            h2 = (Long.rotateLeft(h2, 31) + h1) * 5 + 0x38495ab5;
+        }
+        if (blockEnd < length) {
+            h1 ^= mixK1(pack(key, blockEnd, Math.min(blockEnd + 4, length)));
+            if (blockEnd + 4 < length) {
+                h2 ^= mixK2(pack(key, blockEnd + 4, length));
+            }
+        }
+        h1 ^= length * 2L;
+        h2 ^= length * 2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        this.hash1 = h1;
+        this.hash2 = h2;
+    }
+
+    /**
+     * @return the hash in 32 lowercase hexadecimal digits, usable as a file name.
+     */
+    String toHex() {
+        char[] hex = new char[2 * HEX_DIGITS];
+        for (int i = 0; i < HEX_DIGITS; i++) {
+            int shift = 4 * (HEX_DIGITS - 1 - i);
+            hex[i] = DIGITS[(int) (hash1 >>> shift) & 0xf];
+            hex[HEX_DIGITS + i] = DIGITS[(int) (hash2 >>> shift) & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @param hex is a hash returned by {@link #toHex()}.
+     * @return the first 64 bits of the hash, like {@link #hash1}.
+     * @throws NumberFormatException if the hash is not valid.
+     */
+    static long parseHash1(String hex) {
+        if (hex.length() != 2 * HEX_DIGITS) {
+            throw new NumberFormatException(hex);
+        }
+        // Parsed in two halves, since Long.parseLong rejects values above Long.MAX_VALUE.
+        long high = Long.parseLong(hex.substring(0, HEX_DIGITS / 2), RADIX);
+        long low = Long.parseLong(hex.substring(HEX_DIGITS / 2, HEX_DIGITS), RADIX);
+        return high << 32 | low;
+    }
+
+    /**
+     * Pack up to 4 chars of the key in a long, the first char in the lowest bits.
+     */
+    private static long pack(String key, int start, int end) {
+        long packed = 0;
+        for (int i = end - 1; i >= start; i--) {
+            packed = packed << 16 | key.charAt(i);
+        }
+        return packed;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long hash) {
+        long k = hash ^ (hash >>> 33);
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9f53a2e1a05L;
+        return k ^ (k >>> 33);
+    }
+}
@@ -0,0 +1,65 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller runs the load, while the callers
+ * arriving before it completes wait for its result instead of running their own.
+ *
+ * @param <T> is the class of loaded objects.
+ */
+class InFlightLoads<T> {
+
+    private final ConcurrentMap<String, FutureTask<T>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * Run a load for a key, or wait for the load already running for this key.
+     *
+     * @param key  is the key to load.
+     * @param load loads the object of the key. It must only throw unchecked exceptions.
+     * @return the result of the load.
+     */
+    T run(String key, Callable<T> load) {
+        FutureTask<T> task = new FutureTask<>(load);
+        FutureTask<T> running = loads.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loads.remove(key, task);
+            }
+            running = task;
+        }
+        return await(running);
+    }
+
+    private T await(FutureTask<T> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // Keep waiting: the result is shared with the other callers.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors running the disk operations of the asynchronous API of
+ * {@link DualCache}, and the reloads of its refresh-ahead.
+ */
+final class IoExecutors {
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 128;
+    private static final int RELOAD_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Maximum time waited on {@link DualCache#close()} for the writes queued in the default
+     * executor.
+     */
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private IoExecutors() {
+    }
+
+    /**
+     * Create the default I/O executor: a few threads, stopped when idle, with a bounded queue.
+     * When the queue is full, the operation runs on the calling thread, which slows down the
+     * producers instead of accumulating work. Once the executor is shut down, the operations are
+     * rejected with a {@link RejectedExecutionException}, instead of being silently dropped.
+     *
+     * @return a new executor.
+     */
+    static ExecutorService newDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DEFAULT_THREADS,
+            DEFAULT_THREADS,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUE_CAPACITY),
+            newThreadFactory("dualcache-io-"),
+            new CallerRunsUntilShutdownPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create the executor of the reloads of the refresh-ahead, separate from the I/O executor so
+     * that slow loaders do not delay the disk operations. When its queue is full, or once it is
+     * shut down, the reloads are rejected with a {@link RejectedExecutionException}: they never
+     * run on the reading thread.
+     *
+     * @param queueCapacity is the max number of reloads waiting for a thread.
+     * @return a new executor.
+     */
+    static ExecutorService newReloadExecutor(int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            RELOAD_THREADS,
+            RELOAD_THREADS,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity),
+            newThreadFactory("dualcache-reload-"),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Run an operation on an executor, or on the calling thread if the executor rejects it.
+     *
+     * @param executor is the executor.
+     * @param task     is the operation.
+     */
+    static void executeOrRun(Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Run an operation on an executor, unless there is none or it rejects the operation.
+     *
+     * @param executor is the executor, or null.
+     * @param task     is the operation.
+     * @return false if the operation is not run.
+     */
+    static boolean tryExecute(Executor executor, Runnable task) {
+        if (executor == null) {
+            return false;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the operations rejected by a full executor on the calling thread, and rejects the ones
+     * submitted once it is shut down, so that their callers can fall back instead of waiting for
+     * operations which never run.
+     */
+    private static final class CallerRunsUntilShutdownPolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The cache is closed");
+            }
+            runnable.run();
+        }
+    }
+
+    /**
+     * Shut down an executor created by this class, waiting for the operations already queued.
+     *
+     * @param executor is the executor to shut down.
+     */
+    static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
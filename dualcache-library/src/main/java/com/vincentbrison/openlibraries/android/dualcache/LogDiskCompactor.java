@@ -0,0 +1,154 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import com.vincentbrison.openlibraries.android.dualcache.LogSegment.Location;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compacts the segments of a {@link LogDiskStore}: the live records of a segment are appended
+ * again, along with the tombstones which may still hide records of older segments, and the
+ * segment is deleted. Each record is moved with the append lock of the store, whose monitor is
+ * only held to check and update the index, not while copying.
+ */
+final class LogDiskCompactor {
+
+    private final LogDiskStore store;
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+    LogDiskCompactor(LogDiskStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Compact the segments on an executor, unless a compaction is already scheduled.
+     *
+     * @param executor is the executor, or null to never compact.
+     */
+    void schedule(Executor executor) {
+        if (!isScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        boolean isExecuted = IoExecutors.tryExecute(executor, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (IOException | IllegalStateException e) {
+                    store.logger.logError(e);
+                } finally {
+                    isScheduled.set(false);
+                }
+            }
+        });
+        if (!isExecuted) {
+            isScheduled.set(false);
+        }
+    }
+
+    /**
+     * Compact the full segments which are at least half dead, oldest first.
+     */
+    void compact() throws IOException {
+        LogSegment segment;
+        while (true) {
+            synchronized (store) {
+                store.checkNotClosed();
+                segment = store.nextSegmentToCompact();
+            }
+            if (segment == null) {
+                return;
+            }
+            compact(segment);
+        }
+    }
+
+    private void compact(final LogSegment segment) throws IOException {
+        segment.scan(LogSegment.HEADER_SIZE, false, new LogSegment.Visitor() {
+            @Override
+            public void onRecord(String key, long offset, int recordSize, int valueLength)
+                throws IOException {
+                store.appendLock.lock();
+                try {
+                    if (LogSegment.isTombstone(valueLength)) {
+                        moveTombstone(segment, key, LogSegment.firstSegmentId(valueLength));
+                    } else {
+                        moveRecord(segment, key, offset, recordSize);
+                    }
+                } finally {
+                    store.appendLock.unlock();
+                }
+            }
+        });
+        store.segmentsLock.writeLock().lock();
+        try {
+            synchronized (store) {
+                store.segments.remove(segment.getId());
+            }
+            segment.close();
+            if (!segment.getFile().delete()) {
+                store.logger.logWarning("Can not delete " + segment.getFile());
+            }
+        } finally {
+            store.segmentsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Append again a tombstone of a segment being compacted, if an older segment may still hold a
+     * record of its key. Called with the append lock.
+     */
+    private void moveTombstone(LogSegment segment, String key, int firstSegmentId)
+        throws IOException {
+        synchronized (store) {
+            store.checkNotClosed();
+            Location location = store.index.get(key);
+            if (location != null) {
+                // The live record of the key hides the older ones in its place.
+                if (firstSegmentId < location.firstSegmentId) {
+                    store.index.put(key, new Location(location.segment, location.offset,
+                        location.size, location.valueLength, firstSegmentId));
+                }
+                return;
+            }
+            Integer olderSegmentId = store.segments.ceilingKey(firstSegmentId);
+            if (olderSegmentId == null || olderSegmentId >= segment.getId()) {
+                return;
+            }
+        }
+        store.appendTombstone(key, firstSegmentId);
+    }
+
+    /**
+     * Append again a record of a segment being compacted, if it is live. Called with the append
+     * lock.
+     */
+    private void moveRecord(LogSegment segment, String key, long offset, int recordSize)
+        throws IOException {
+        synchronized (store) {
+            store.checkNotClosed();
+            Location location = store.index.get(key);
+            if (location == null || location.segment != segment || location.offset != offset) {
+                return;
+            }
+        }
+        LogSegment target = store.segmentToAppend(recordSize);
+        long targetOffset = target.getLength();
+        try {
+            segment.copyTo(offset, recordSize, target);
+        } catch (IOException e) {
+            target.dropIncomplete();
+            throw e;
+        }
+        synchronized (store) {
+            store.checkNotClosed();
+            target.extend(recordSize);
+            // Only the append lock moves records, so the location is still the one checked.
+            Location location = store.index.get(key);
+            // Replacing the location of an existing key keeps its access order.
+            store.index.put(key, new Location(target, targetOffset, recordSize,
+                location.valueLength, location.firstSegmentId));
+        }
+    }
+}
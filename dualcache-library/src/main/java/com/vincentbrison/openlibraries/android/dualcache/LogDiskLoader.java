@@ -0,0 +1,212 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import com.vincentbrison.openlibraries.android.dualcache.LogSegment.Location;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Opens the segments of a {@link LogDiskStore} and rebuilds its index.
+ *
+ * <p>If a {@link LogIndexSnapshot} has been written, the index is read from it, then only the
+ * records appended after it are scanned. Otherwise all the records are scanned, which reads the
+ * whole segments. Either way, the CRC of the scanned records of the last segment are checked,
+ * since a crash may have torn the last append.
+ */
+final class LogDiskLoader {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Segments by id, once loaded.
+     */
+    final TreeMap<Integer, LogSegment> segments = new TreeMap<>();
+
+    /**
+     * Location of the latest record of each key, least recently used first, once loaded.
+     */
+    LinkedHashMap<String, Location> index;
+
+    /**
+     * Sum of the sizes of the values, once loaded.
+     */
+    long size;
+
+    private final File folder;
+    private final int appVersion;
+    private final Logger logger;
+
+    LogDiskLoader(File folder, int appVersion, Logger logger) {
+        this.folder = folder;
+        this.appVersion = appVersion;
+        this.logger = logger;
+    }
+
+    void load() throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Can not create " + folder);
+        }
+        TreeMap<Integer, File> files = listSegmentFiles(folder, logger);
+        Iterator<File> fileIterator = files.values().iterator();
+        while (fileIterator.hasNext()) {
+            File file = fileIterator.next();
+            if (file.length() < LogSegment.HEADER_SIZE) {
+                // A crash happened while the segment was started.
+                fileIterator.remove();
+                if (!file.delete()) {
+                    throw new IOException("Can not delete " + file);
+                }
+            }
+        }
+        for (Map.Entry<Integer, File> file : files.entrySet()) {
+            LogSegment segment = LogSegment.open(file.getKey(), file.getValue(), appVersion);
+            if (segment == null) {
+                // Written by another version of the application.
+                for (LogSegment opened : segments.values()) {
+                    opened.close();
+                }
+                segments.clear();
+                deleteFiles(folder, logger);
+                break;
+            }
+            segments.put(segment.getId(), segment);
+        }
+        LogIndexSnapshot snapshot = readSnapshot();
+        // Sized for the entries of the snapshot, so that the index is never rehashed.
+        index = new LinkedHashMap<>(snapshot != null ? snapshot.keys.length * 4 / 3 + 1 : 16);
+        if (!replay(snapshot)) {
+            // Records of the snapshot are missing, so it can not be trusted.
+            logger.logWarning("Stale index in " + folder);
+            index.clear();
+            size = 0;
+            for (LogSegment segment : segments.values()) {
+                segment.setDeadBytes(0);
+            }
+            replay(null);
+        }
+        // The snapshot would be stale once the segments are appended to.
+        LogIndexSnapshot.delete(folder);
+    }
+
+    private LogIndexSnapshot readSnapshot() {
+        try {
+            return LogIndexSnapshot.read(folder, appVersion);
+        } catch (IOException e) {
+            logger.logError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Rebuild the index from a snapshot, if any, and from the records appended after it.
+     *
+     * @return false if the snapshot locates records in segments which have been compacted since.
+     */
+    private boolean replay(LogIndexSnapshot snapshot) throws IOException {
+        Map<Integer, Long> starts = new HashMap<>();
+        final Set<String> lostKeys = new HashSet<>();
+        if (snapshot != null) {
+            for (int i = 0; i < snapshot.segmentIds.length; i++) {
+                LogSegment segment = segments.get(snapshot.segmentIds[i]);
+                if (segment != null) {
+                    if (segment.getLength() < snapshot.segmentLengths[i]) {
+                        return false;
+                    }
+                    segment.setDeadBytes(snapshot.segmentDeadBytes[i]);
+                    starts.put(segment.getId(), snapshot.segmentLengths[i]);
+                }
+            }
+            for (int i = 0; i < snapshot.keys.length; i++) {
+                LogSegment segment = segments.get(snapshot.entrySegmentIds[i]);
+                if (segment == null) {
+                    // The compaction of the segment appended the record again, after the snapshot.
+                    lostKeys.add(snapshot.keys[i]);
+                } else {
+                    index.put(snapshot.keys[i], new Location(segment, snapshot.offsets[i],
+                        snapshot.sizes[i], snapshot.valueLengths[i]));
+                    size += snapshot.valueLengths[i];
+                }
+            }
+        }
+        for (final LogSegment segment : segments.values()) {
+            Long start = starts.get(segment.getId());
+            boolean isLast = segment.getId() == segments.lastKey();
+            long end = segment.scan(
+                start != null ? start : LogSegment.HEADER_SIZE, isLast, new LogSegment.Visitor() {
+                    @Override
+                    public void onRecord(
+                        String key, long offset, int recordSize, int valueLength
+                    ) {
+                        lostKeys.remove(key);
+                        Location previous = index.remove(key);
+                        if (previous != null) {
+                            size -= previous.valueLength;
+                            previous.segment.addDeadBytes(previous.size);
+                        }
+                        if (LogSegment.isTombstone(valueLength)) {
+                            segment.addDeadBytes(recordSize);
+                        } else {
+                            index.put(key, new Location(segment, offset, recordSize, valueLength));
+                            size += valueLength;
+                        }
+                    }
+                });
+            if (isLast) {
+                segment.truncate(end);
+            } else {
+                segment.addDeadBytes(segment.getLength() - end);
+            }
+        }
+        return lostKeys.isEmpty();
+    }
+
+    /**
+     * @return the file of a segment.
+     */
+    static File segmentFile(File folder, int id) {
+        return new File(folder, id + SEGMENT_SUFFIX);
+    }
+
+    private static TreeMap<Integer, File> listSegmentFiles(File folder, Logger logger) {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] segmentFiles = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segmentFiles != null) {
+            for (File file : segmentFiles) {
+                String name = file.getName();
+                try {
+                    int id = Integer.parseInt(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    files.put(id, file);
+                } catch (NumberFormatException e) {
+                    logger.logWarning("Ignoring " + file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Delete the segments and the snapshot of the index of a folder.
+     */
+    static void deleteFiles(File folder, Logger logger) throws IOException {
+        for (File file : listSegmentFiles(folder, logger).values()) {
+            if (!file.delete()) {
+                throw new IOException("Can not delete " + file);
+            }
+        }
+        LogIndexSnapshot.delete(folder);
+    }
+}
@@ -0,0 +1,497 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import com.vincentbrison.openlibraries.android.dualcache.LogSegment.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link DiskStore} appending the values to a few large {@link LogSegment} files, with an
+ * in-memory index mapping each key to the location of its latest record. Replacing or removing
+ * an entry appends a new record, and leaves the previous one dead in its segment.
+ *
+ * <p>Only the last segment is appended to, one record at a time, which is streamed into it. Once
+ * it is full, a new segment is started. When half of a full segment is dead, a compaction is run
+ * on the executor: the live records of the segment are appended again, along with the tombstones
+ * still hiding records of older segments, and the segment is deleted. In the worst case, the
+ * segments take about twice the size of the live values.
+ *
+ * <p>Opening the store rebuilds the index with a {@link LogDiskLoader}. A snapshot of the index is
+ * written when the store is closed, and every few segments, so that the next opening only scans
+ * the records appended after it. Entries are evicted in least recently used order.
+ */
+class LogDiskStore implements DiskStore {
+
+    private static final long MIN_SEGMENT_SIZE = 64 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Number of segments the max size is split into, when the segments are not too small or too
+     * large.
+     */
+    private static final int SEGMENTS_PER_STORE = 8;
+
+    /**
+     * Number of segments started between two snapshots of the index.
+     */
+    private static final int SEGMENTS_PER_SNAPSHOT = SEGMENTS_PER_STORE / 2;
+
+    private final File folder;
+    private final int appVersion;
+    private final long maxSize;
+    private final long maxSegmentSize;
+    private final boolean isMemoryMapped;
+    private final Executor executor;
+    final Logger logger;
+
+    /**
+     * Location of the latest record of each key, least recently used first, guarded by this.
+     * Accesses move a key to the end, while compactions move its record without moving it.
+     */
+    final LinkedHashMap<String, Location> index;
+
+    /**
+     * Segments by id, guarded by this.
+     */
+    final TreeMap<Integer, LogSegment> segments;
+
+    /**
+     * Held to read records, and exclusively to close segments.
+     */
+    final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+    /**
+     * Held to append to the segments, to start them, and to use the append buffer. The file I/O
+     * is done with this lock only, and the monitor of the store is then held to update the index.
+     * It is never waited for while holding the monitor.
+     */
+    final Lock appendLock = new ReentrantLock();
+    private final byte[] appendBuffer = new byte[LogRecordOutputStream.BUFFER_SIZE];
+    private final LogDiskCompactor compactor = new LogDiskCompactor(this);
+
+    /**
+     * Held to take and write snapshots of the index, so that they are written in order.
+     */
+    private final Object snapshotLock = new Object();
+    private LogSegment activeSegment;
+    private long size;
+    private boolean isClosed;
+
+    /**
+     * True if a segment may be worth compacting, guarded by this. The compaction is scheduled
+     * once the monitor is released, since it may run on the calling thread.
+     */
+    private boolean isCompactionNeeded;
+
+    /**
+     * True if a snapshot of the index should be written, guarded by this.
+     */
+    private boolean isSnapshotNeeded;
+    private int segmentsSinceSnapshot;
+
+    /**
+     * @param memoryMapped is true to read the records of the segments which are not appended to
+     *                     anymore from mappings of their files.
+     */
+    LogDiskStore(
+        File folder,
+        int appVersion,
+        long maxSize,
+        boolean memoryMapped,
+        Executor executor,
+        Logger logger
+    ) throws IOException {
+        this.folder = folder;
+        this.appVersion = appVersion;
+        this.maxSize = maxSize;
+        this.maxSegmentSize = Math.max(
+            MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, maxSize / SEGMENTS_PER_STORE));
+        this.isMemoryMapped = memoryMapped;
+        this.executor = executor;
+        this.logger = logger;
+        LogDiskLoader loader = new LogDiskLoader(folder, appVersion, logger);
+        loader.load();
+        this.segments = loader.segments;
+        this.index = loader.index;
+        LogSegment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last == null || last.getLength() >= maxSegmentSize) {
+            startSegment(last == null ? 0 : last.getId() + 1);
+        }
+        Map<String, Location> evicted;
+        synchronized (this) {
+            size = loader.size;
+            activeSegment = segments.lastEntry().getValue();
+            evicted = trimToSize();
+            isCompactionNeeded = nextSegmentToCompact() != null;
+        }
+        appendTombstones(evicted);
+        scheduleBackgroundWork();
+    }
+
+    /**
+     * @param minRecordSize is the size of the record to append, or its minimum size if unknown.
+     * @return the active segment, or a new one started if the record does not fit. Called with the
+     * append lock.
+     */
+    LogSegment segmentToAppend(int minRecordSize) throws IOException {
+        LogSegment segment;
+        synchronized (this) {
+            checkNotClosed();
+            segment = activeSegment;
+        }
+        if (segment.getLength() + minRecordSize <= maxSegmentSize
+            || segment.getLength() <= LogSegment.HEADER_SIZE) {
+            return segment;
+        }
+        return startSegment(segment.getId() + 1);
+    }
+
+    /**
+     * Start a new active segment. Called with the append lock, or while opening the store.
+     */
+    private LogSegment startSegment(int id) throws IOException {
+        LogSegment segment = LogSegment.create(
+            id, LogDiskLoader.segmentFile(folder, id), appVersion);
+        synchronized (this) {
+            if (isClosed) {
+                segment.close();
+            }
+            checkNotClosed();
+            segments.put(id, segment);
+            LogSegment previous = activeSegment;
+            activeSegment = segment;
+            if (previous != null && isWorthCompacting(previous)) {
+                isCompactionNeeded = true;
+            }
+            if (++segmentsSinceSnapshot >= SEGMENTS_PER_SNAPSHOT) {
+                isSnapshotNeeded = true;
+            }
+        }
+        return segment;
+    }
+
+    @Override
+    public Snapshot get(HashedKey hashedKey) throws IOException {
+        String key = hashedKey.key;
+        segmentsLock.readLock().lock();
+        try {
+            Location location;
+            boolean isMapped;
+            synchronized (this) {
+                checkNotClosed();
+                location = index.remove(key);
+                if (location == null) {
+                    return null;
+                }
+                index.put(key, location);
+                isMapped = isMemoryMapped && location.segment != activeSegment;
+            }
+            if (isMapped) {
+                return new LogSegment.RecordSnapshot(
+                    location.segment.readMapped(location.offset, location.size));
+            }
+            return new LogSegment.RecordSnapshot(
+                ByteBuffer.wrap(location.segment.read(location.offset, location.size)));
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Editor edit(HashedKey key) {
+        return new RecordEditor(key.key);
+    }
+
+    /**
+     * Finish a record and replace the entry of its key by it. Called with the append lock.
+     */
+    private void put(String key, LogRecordOutputStream record) throws IOException {
+        int recordSize = record.finish();
+        LogSegment segment = record.getSegment();
+        Map<String, Location> evicted;
+        synchronized (this) {
+            checkNotClosed();
+            segment.extend(recordSize);
+            Location previous = index.remove(key);
+            if (previous != null) {
+                release(previous);
+            }
+            Location location = new Location(segment, record.getOffset(), recordSize,
+                (int) record.getValueLength(),
+                previous != null ? previous.firstSegmentId : segment.getId());
+            index.put(key, location);
+            size += location.valueLength;
+            evicted = trimToSize();
+        }
+        appendTombstones(evicted);
+        scheduleBackgroundWork();
+    }
+
+    @Override
+    public void remove(HashedKey hashedKey) throws IOException {
+        String key = hashedKey.key;
+        appendLock.lock();
+        try {
+            Location previous;
+            synchronized (this) {
+                checkNotClosed();
+                previous = index.remove(key);
+                if (previous == null) {
+                    return;
+                }
+                release(previous);
+            }
+            appendTombstone(key, previous.firstSegmentId);
+        } finally {
+            appendLock.unlock();
+        }
+        scheduleBackgroundWork();
+    }
+
+    @Override
+    public long[] keyHashes() {
+        List<String> keys;
+        synchronized (this) {
+            checkNotClosed();
+            keys = new ArrayList<>(index.keySet());
+        }
+        long[] hashes = new long[keys.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = new HashedKey(keys.get(i)).hash1;
+        }
+        return hashes;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Evict the least recently used entries until the size fits.
+     *
+     * @return the evicted entries, whose tombstones are appended once the monitor is released.
+     */
+    private Map<String, Location> trimToSize() {
+        Map<String, Location> evicted = new HashMap<>();
+        Iterator<Map.Entry<String, Location>> entries = index.entrySet().iterator();
+        while (size > maxSize && entries.hasNext()) {
+            Map.Entry<String, Location> eldest = entries.next();
+            entries.remove();
+            release(eldest.getValue());
+            evicted.put(eldest.getKey(), eldest.getValue());
+        }
+        return evicted;
+    }
+
+    private void appendTombstones(Map<String, Location> evicted) throws IOException {
+        for (Map.Entry<String, Location> entry : evicted.entrySet()) {
+            appendTombstone(entry.getKey(), entry.getValue().firstSegmentId);
+        }
+    }
+
+    /**
+     * Append a tombstone, dead as soon as written since it is only needed while older records of
+     * its key may remain. Called with the append lock.
+     *
+     * @param firstSegmentId is the id of the oldest segment which may hold a record of the key.
+     */
+    void appendTombstone(String key, int firstSegmentId) throws IOException {
+        byte[] keyBytes = LogSegment.encodeKey(key);
+        LogSegment segment = segmentToAppend(LogSegment.RECORD_HEADER_SIZE + keyBytes.length);
+        int recordSize = LogRecordOutputStream.writeTombstone(
+            segment, keyBytes, firstSegmentId, appendBuffer);
+        synchronized (this) {
+            checkNotClosed();
+            segment.extend(recordSize);
+            segment.addDeadBytes(recordSize);
+        }
+    }
+
+    /**
+     * Count the record of a location as dead, after its key has been replaced or removed.
+     */
+    private void release(Location location) {
+        size -= location.valueLength;
+        LogSegment segment = location.segment;
+        segment.addDeadBytes(location.size);
+        if (activeSegment != null && segment != activeSegment && isWorthCompacting(segment)) {
+            isCompactionNeeded = true;
+        }
+    }
+
+    private boolean isWorthCompacting(LogSegment segment) {
+        return segment.getDeadBytes() * 2 >= segment.getLength();
+    }
+
+    /**
+     * Schedule the compaction or the snapshot needed, if any.
+     */
+    private void scheduleBackgroundWork() {
+        boolean isCompaction;
+        boolean isSnapshot;
+        synchronized (this) {
+            isCompaction = isCompactionNeeded;
+            isSnapshot = isSnapshotNeeded;
+            isCompactionNeeded = false;
+            isSnapshotNeeded = false;
+        }
+        if (isCompaction) {
+            compactor.schedule(executor);
+        }
+        if (isSnapshot) {
+            IoExecutors.tryExecute(executor, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeSnapshot();
+                    } catch (IOException | IllegalStateException e) {
+                        logger.logError(e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Write a snapshot of the index, so that the next opening only scans the records appended
+     * after it.
+     */
+    void writeSnapshot() throws IOException {
+        synchronized (snapshotLock) {
+            LogIndexSnapshot snapshot;
+            synchronized (this) {
+                checkNotClosed();
+                snapshot = LogIndexSnapshot.capture(segments.values(), index);
+                segmentsSinceSnapshot = 0;
+            }
+            snapshot.write(folder, appVersion);
+        }
+    }
+
+    /**
+     * @return the oldest segment worth compacting, or null if none. Called with the monitor.
+     */
+    LogSegment nextSegmentToCompact() {
+        for (LogSegment segment : segments.values()) {
+            if (segment != activeSegment && isWorthCompacting(segment)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void discard() throws IOException {
+        close(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+
+    /**
+     * @param isSnapshotWritten is true to write a snapshot of the index once closed.
+     */
+    private void close(boolean isSnapshotWritten) throws IOException {
+        synchronized (snapshotLock) {
+            LogIndexSnapshot snapshot = null;
+            List<LogSegment> toClose = Collections.emptyList();
+            segmentsLock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (!isClosed) {
+                        isClosed = true;
+                        if (isSnapshotWritten) {
+                            snapshot = LogIndexSnapshot.capture(segments.values(), index);
+                        }
+                        toClose = new ArrayList<>(segments.values());
+                        segments.clear();
+                    }
+                }
+                for (LogSegment segment : toClose) {
+                    segment.close();
+                }
+            } finally {
+                segmentsLock.writeLock().unlock();
+            }
+            if (snapshot != null) {
+                snapshot.write(folder, appVersion);
+            }
+        }
+    }
+
+    void checkNotClosed() {
+        if (isClosed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * Editor streaming the record into the active segment. The append lock is held from
+     * {@link #newOutputStream()} to the commit or the abort, on the same thread.
+     */
+    private final class RecordEditor implements Editor {
+        private final String key;
+        private LogRecordOutputStream record;
+
+        RecordEditor(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public OutputStream newOutputStream() throws IOException {
+            byte[] keyBytes = LogSegment.encodeKey(key);
+            appendLock.lock();
+            boolean isStarted = false;
+            try {
+                record = new LogRecordOutputStream(segmentToAppend(
+                    LogSegment.RECORD_HEADER_SIZE + keyBytes.length), keyBytes, appendBuffer);
+                isStarted = true;
+                return record;
+            } finally {
+                if (!isStarted) {
+                    appendLock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void commit() throws IOException {
+            put(key, record);
+            record = null;
+            appendLock.unlock();
+        }
+
+        @Override
+        public void abortUnlessCommitted() {
+            if (record == null) {
+                return;
+            }
+            try {
+                record.getSegment().dropIncomplete();
+            } catch (IOException e) {
+                logger.logError(e);
+            } finally {
+                record = null;
+                appendLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import com.vincentbrison.openlibraries.android.dualcache.LogSegment.Location;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot of the index of a {@link LogDiskStore}: the length and the dead bytes of each segment,
+ * and the location of the latest record of each key, least recently used first. Opening the store
+ * from a snapshot reads it sequentially, then only scans the records appended after it was taken.
+ *
+ * <p>The file ends with the CRC32 of its content. It is written to a temporary file renamed once
+ * complete, so that a torn snapshot is never read, and read from a mapping of the file.
+ */
+final class LogIndexSnapshot {
+
+    static final String FILE_NAME = "index";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Identifies the format of the snapshot, changed along with the format of the segments.
+     */
+    private static final int MAGIC = 0x44434932;
+    private static final int HEADER_SIZE = 8;
+    private static final int CRC_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final int[] segmentIds;
+    final long[] segmentLengths;
+    final long[] segmentDeadBytes;
+
+    final String[] keys;
+    final int[] entrySegmentIds;
+    final long[] offsets;
+    final int[] sizes;
+    final int[] valueLengths;
+
+    private LogIndexSnapshot(int segmentCount, int entryCount) {
+        segmentIds = new int[segmentCount];
+        segmentLengths = new long[segmentCount];
+        segmentDeadBytes = new long[segmentCount];
+        keys = new String[entryCount];
+        entrySegmentIds = new int[entryCount];
+        offsets = new long[entryCount];
+        sizes = new int[entryCount];
+        valueLengths = new int[entryCount];
+    }
+
+    /**
+     * Copy the state of a store, which must not change meanwhile.
+     *
+     * @param segments are the segments of the store.
+     * @param index    is the location of the latest record of each key.
+     */
+    static LogIndexSnapshot capture(Collection<LogSegment> segments, Map<String, Location> index) {
+        LogIndexSnapshot snapshot = new LogIndexSnapshot(segments.size(), index.size());
+        int i = 0;
+        for (LogSegment segment : segments) {
+            snapshot.segmentIds[i] = segment.getId();
+            snapshot.segmentLengths[i] = segment.getLength();
+            snapshot.segmentDeadBytes[i] = segment.getDeadBytes();
+            i++;
+        }
+        i = 0;
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            snapshot.keys[i] = entry.getKey();
+            snapshot.entrySegmentIds[i] = location.segment.getId();
+            snapshot.offsets[i] = location.offset;
+            snapshot.sizes[i] = location.size;
+            snapshot.valueLengths[i] = location.valueLength;
+            i++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Read a snapshot from a mapping of its file, without copying the file on the heap.
+     *
+     * @return the snapshot of the folder, or null if there is none.
+     * @throws IOException if the snapshot can not be read, is corrupted or has been written by
+     *                     another version of the application.
+     */
+    static LogIndexSnapshot read(File folder, int appVersion) throws IOException {
+        File file = new File(folder, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer input;
+        RandomAccessFile mappedFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mappedFile.getChannel();
+            input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            mappedFile.close();
+        }
+        try {
+            if (input.remaining() < HEADER_SIZE + CRC_SIZE || input.getInt() != MAGIC
+                || input.getInt() != appVersion) {
+                throw new IOException("Stale index " + file);
+            }
+            if (!isValid(input)) {
+                throw new IOException("Corrupted index " + file);
+            }
+            int segmentCount = input.getInt();
+            int entryCount = input.getInt();
+            LogIndexSnapshot snapshot = new LogIndexSnapshot(segmentCount, entryCount);
+            for (int i = 0; i < segmentCount; i++) {
+                snapshot.segmentIds[i] = input.getInt();
+                snapshot.segmentLengths[i] = input.getLong();
+                snapshot.segmentDeadBytes[i] = input.getLong();
+            }
+            byte[] key = new byte[0];
+            for (int i = 0; i < entryCount; i++) {
+                int keyLength = input.getInt();
+                if (keyLength > key.length) {
+                    key = new byte[keyLength];
+                }
+                input.get(key, 0, keyLength);
+                snapshot.keys[i] = new String(key, 0, keyLength, UTF_8);
+                snapshot.entrySegmentIds[i] = input.getInt();
+                snapshot.offsets[i] = input.getLong();
+                snapshot.sizes[i] = input.getInt();
+                snapshot.valueLengths[i] = input.getInt();
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+            | NegativeArraySizeException e) {
+            // The counts of a snapshot with a valid CRC can only be wrong if it is corrupted.
+            throw new IOException("Corrupted index " + file, e);
+        }
+    }
+
+    /**
+     * @param input is the content of a snapshot file.
+     * @return true if the CRC at the end of the file matches its content.
+     */
+    private static boolean isValid(ByteBuffer input) {
+        ByteBuffer content = input.duplicate();
+        content.position(0);
+        content.limit(input.limit() - CRC_SIZE);
+        byte[] chunk = new byte[Math.min(content.remaining(), BUFFER_SIZE)];
+        CRC32 crc = new CRC32();
+        while (content.hasRemaining()) {
+            int length = Math.min(content.remaining(), chunk.length);
+            content.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue() == input.getLong(input.limit() - CRC_SIZE);
+    }
+
+    /**
+     * Replace the snapshot of the folder with this one.
+     */
+    void write(File folder, int appVersion) throws IOException {
+        File temp = new File(folder, FILE_NAME + TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        // The CRC is updated with whole buffers, rather than with each value written.
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(new FileOutputStream(temp), crc), BUFFER_SIZE));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(appVersion);
+            output.writeInt(segmentIds.length);
+            output.writeInt(keys.length);
+            for (int i = 0; i < segmentIds.length; i++) {
+                output.writeInt(segmentIds[i]);
+                output.writeLong(segmentLengths[i]);
+                output.writeLong(segmentDeadBytes[i]);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                byte[] key = keys[i].getBytes(UTF_8);
+                output.writeInt(key.length);
+                output.write(key);
+                output.writeInt(entrySegmentIds[i]);
+                output.writeLong(offsets[i]);
+                output.writeInt(sizes[i]);
+                output.writeInt(valueLengths[i]);
+            }
+            output.flush();
+            output.writeLong(crc.getValue());
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(new File(folder, FILE_NAME))) {
+            throw new IOException("Can not rename " + temp);
+        }
+    }
+
+    /**
+     * Delete the snapshot of the folder, if any.
+     */
+    static void delete(File folder) throws IOException {
+        for (File file : new File[] {
+            new File(folder, FILE_NAME), new File(folder, FILE_NAME + TEMP_SUFFIX)}) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can not delete " + file);
+            }
+        }
+    }
+}
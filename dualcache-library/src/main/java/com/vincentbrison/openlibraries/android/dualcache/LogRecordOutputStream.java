@@ -0,0 +1,150 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Stream writing a record straight past the end of a {@link LogSegment}, through a small buffer,
+ * so that values are never held whole in memory. The header is written once the record is
+ * finished, along with the rest of the record if it fits in the buffer, after which the segment
+ * can include it.
+ */
+final class LogRecordOutputStream extends OutputStream {
+
+    /**
+     * Size of the buffers of the streams, at least the size of a record header.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    private final LogSegment segment;
+    private final long offset;
+    private final int keyLength;
+    private final byte[] buffer;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Number of bytes of the buffer not written yet.
+     */
+    private int count;
+
+    /**
+     * Number of bytes of the record, header included, written or buffered.
+     */
+    private long size;
+
+    /**
+     * @param segment is the segment to append the record to.
+     * @param key     is the key of the record in UTF-8.
+     * @param buffer  is a buffer of {@link #BUFFER_SIZE} bytes, used by no other stream until this
+     *                one is finished.
+     */
+    LogRecordOutputStream(LogSegment segment, byte[] key, byte[] buffer) throws IOException {
+        this.segment = segment;
+        this.offset = segment.getLength();
+        this.keyLength = key.length;
+        this.buffer = buffer;
+        // Room for the header, written once the record is finished.
+        count = LogSegment.RECORD_HEADER_SIZE;
+        size = count;
+        write(key, 0, key.length);
+    }
+
+    /**
+     * Write a tombstone past the end of a segment.
+     *
+     * @param segment        is the segment to append the tombstone to.
+     * @param key            is the key of the tombstone in UTF-8.
+     * @param firstSegmentId is the id of the oldest segment which may hold a record of the key.
+     * @param buffer         is a buffer, as for a record.
+     * @return the size of the tombstone.
+     */
+    static int writeTombstone(LogSegment segment, byte[] key, int firstSegmentId, byte[] buffer)
+        throws IOException {
+        LogRecordOutputStream tombstone = new LogRecordOutputStream(segment, key, buffer);
+        return tombstone.finish(LogSegment.tombstone(firstSegmentId));
+    }
+
+    LogSegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the offset of the record in its segment.
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes of the value written so far.
+     */
+    long getValueLength() {
+        return size - LogSegment.RECORD_HEADER_SIZE - keyLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+        size++;
+        crc.update(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        crc.update(bytes, off, len);
+        if (len >= buffer.length) {
+            flushBuffer();
+            segment.write(offset + size, bytes, off, len);
+        } else {
+            if (len > buffer.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(bytes, off, buffer, count, len);
+            count += len;
+        }
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Write the rest of the value and the header.
+     *
+     * @return the size of the record.
+     * @throws IOException if the record can not be written or is too large.
+     */
+    int finish() throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Value of " + getValueLength() + " bytes is too large");
+        }
+        return finish((int) getValueLength());
+    }
+
+    private int finish(int valueLength) throws IOException {
+        boolean isBuffered = count == size;
+        byte[] header = isBuffered ? buffer : new byte[LogSegment.RECORD_HEADER_SIZE];
+        LogSegment.writeInt(header, 4, keyLength);
+        LogSegment.writeInt(header, 8, valueLength);
+        crc.update(header, 4, LogSegment.RECORD_HEADER_SIZE - 4);
+        LogSegment.writeInt(header, 0, (int) crc.getValue());
+        flushBuffer();
+        if (!isBuffered) {
+            segment.write(offset, header, 0, header.length);
+        }
+        return (int) size;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            segment.write(offset + size - count, buffer, 0, count);
+            count = 0;
+        }
+    }
+}
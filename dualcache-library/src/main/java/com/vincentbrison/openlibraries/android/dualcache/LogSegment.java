@@ -0,0 +1,479 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Segment file of a {@link LogDiskStore}. It starts with a header holding a magic number and the
+ * version of the application, followed by records appended one after the other.
+ *
+ * <p>A record starts with a CRC32, the length of the key, and the length of the value. The key in
+ * UTF-8 and the value follow. The CRC is computed over the key, the value, then the two lengths,
+ * so that a record can be streamed before its header is known. It detects the records torn by a
+ * crash, and those corrupted afterwards. A record removing its key, or tombstone, has no value and
+ * a negative length encoding the id of the oldest segment which may still hold a record of the key.
+ *
+ * <p>Records are written past the end of the segment, which only grows to include them once they
+ * are complete (see {@link LogRecordOutputStream}). Reads and writes are synchronized on the file,
+ * so that a thread interrupted while reading can not close the file for the other threads, like
+ * it would with a {@code FileChannel}. Segments which are not appended to anymore can also be read
+ * from a mapping of their file.
+ */
+class LogSegment implements Closeable {
+
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 12;
+
+    /**
+     * Identifies the format of the records, changed along with it: "DCS3" since the CRC is computed
+     * over the lengths last.
+     */
+    private static final int MAGIC = 0x44435333;
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private static final int CHECK_BUFFER_SIZE = 8192;
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int id;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+
+    /**
+     * Read-only mapping of the file, or null until a record is read from it.
+     */
+    private volatile MappedByteBuffer mapping;
+
+    /**
+     * Number of bytes of the file, guarded by the store.
+     */
+    private long length;
+
+    /**
+     * Number of bytes of the records which are not needed anymore, guarded by the store.
+     */
+    private long deadBytes;
+
+    private LogSegment(int id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.length = randomAccessFile.length();
+    }
+
+    /**
+     * Create an empty segment.
+     */
+    static LogSegment create(int id, File file, int appVersion) throws IOException {
+        LogSegment segment = new LogSegment(id, file);
+        segment.randomAccessFile.setLength(0);
+        segment.randomAccessFile.writeInt(MAGIC);
+        segment.randomAccessFile.writeInt(appVersion);
+        segment.length = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Open an existing segment.
+     *
+     * @return the segment, or null if it has not been written by this version of the application.
+     */
+    static LogSegment open(int id, File file, int appVersion) throws IOException {
+        LogSegment segment = new LogSegment(id, file);
+        if (segment.randomAccessFile.readInt() != MAGIC
+            || segment.randomAccessFile.readInt() != appVersion) {
+            segment.close();
+            return null;
+        }
+        return segment;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    long getDeadBytes() {
+        return deadBytes;
+    }
+
+    void addDeadBytes(long bytes) {
+        deadBytes += bytes;
+    }
+
+    void setDeadBytes(long bytes) {
+        deadBytes = bytes;
+    }
+
+    /**
+     * Write bytes of a record past the end of the segment.
+     *
+     * @param position is the offset of the bytes in the segment.
+     */
+    void write(long position, byte[] buffer, int offset, int count) throws IOException {
+        synchronized (randomAccessFile) {
+            randomAccessFile.seek(position);
+            randomAccessFile.write(buffer, offset, count);
+        }
+    }
+
+    /**
+     * Include the complete record written at the end of the segment.
+     *
+     * @param size is the size of the record.
+     */
+    void extend(int size) {
+        length += size;
+    }
+
+    /**
+     * Drop the bytes written past the end of the segment, by a record which has not been included.
+     */
+    void dropIncomplete() throws IOException {
+        synchronized (randomAccessFile) {
+            randomAccessFile.setLength(length);
+        }
+    }
+
+    /**
+     * Copy a record past the end of another segment, in chunks, and check its CRC.
+     *
+     * @param offset is the offset of the record in this segment.
+     * @param size   is the size of the record.
+     * @param target is the segment to copy the record to, which must then include it.
+     * @throws IOException if the record can not be copied or is corrupted.
+     */
+    void copyTo(long offset, int size, LogSegment target) throws IOException {
+        byte[] chunk = new byte[Math.min(size, COPY_BUFFER_SIZE)];
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        CRC32 crc = new CRC32();
+        long targetOffset = target.getLength();
+        for (int copied = 0; copied < size; ) {
+            int count = Math.min(chunk.length, size - copied);
+            synchronized (randomAccessFile) {
+                randomAccessFile.seek(offset + copied);
+                randomAccessFile.readFully(chunk, 0, count);
+            }
+            int start = 0;
+            if (copied == 0) {
+                System.arraycopy(chunk, 0, header, 0, RECORD_HEADER_SIZE);
+                start = RECORD_HEADER_SIZE;
+            }
+            crc.update(chunk, start, count - start);
+            target.write(targetOffset + copied, chunk, 0, count);
+            copied += count;
+        }
+        crc.update(header, 4, RECORD_HEADER_SIZE - 4);
+        if ((int) crc.getValue() != readInt(header, 0)) {
+            throw new IOException("Corrupted record at " + offset + " in " + file);
+        }
+    }
+
+    /**
+     * Read a record and check its CRC.
+     *
+     * @param offset is the offset of the record in the segment.
+     * @param size   is the size of the record.
+     * @return the record.
+     * @throws IOException if the record can not be read or is corrupted.
+     */
+    byte[] read(long offset, int size) throws IOException {
+        byte[] record = new byte[size];
+        synchronized (randomAccessFile) {
+            randomAccessFile.seek(offset);
+            randomAccessFile.readFully(record);
+        }
+        if (!isValid(record, size)) {
+            throw new IOException("Corrupted record at " + offset + " in " + file);
+        }
+        return record;
+    }
+
+    /**
+     * Read a record from the mapping of the file, mapping it if needed, and check its CRC. The
+     * segment must not be appended to anymore.
+     *
+     * @param offset is the offset of the record in the segment.
+     * @param size   is the size of the record.
+     * @return a read-only buffer of the record, backed by the mapping.
+     * @throws IOException if the file can not be mapped or the record is corrupted.
+     */
+    ByteBuffer readMapped(long offset, int size) throws IOException {
+        MappedByteBuffer currentMapping = mapping;
+        if (currentMapping == null) {
+            currentMapping = map();
+        }
+        ByteBuffer record = currentMapping.duplicate();
+        record.position((int) offset);
+        record.limit((int) offset + size);
+        record = record.slice();
+        if (!isValid(record)) {
+            throw new IOException("Corrupted record at " + offset + " in " + file);
+        }
+        return record;
+    }
+
+    /**
+     * Map the file with its own channel, which an interrupted thread would close without
+     * affecting the reads of the other threads. The mapping stays valid once the channel is closed
+     * or the file deleted.
+     */
+    private synchronized MappedByteBuffer map() throws IOException {
+        if (mapping == null) {
+            RandomAccessFile mappedFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = mappedFile.getChannel();
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                mappedFile.close();
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Read the records of the segment in order. Scanning stops at the first record which is
+     * truncated or, if the records are checked, corrupted.
+     *
+     * @param start        is the offset of the first record to read.
+     * @param checkRecords is true to read the values and check the CRC of the records.
+     * @param visitor      is called for each record.
+     * @return the offset of the end of the last record read.
+     */
+    long scan(long start, boolean checkRecords, Visitor visitor) throws IOException {
+        DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file), SCAN_BUFFER_SIZE));
+        try {
+            skipFully(input, start);
+            long offset = start;
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                int crc = input.readInt();
+                int keyLength = input.readInt();
+                int valueLength = input.readInt();
+                if (keyLength < 0 || keyLength > MAX_KEY_LENGTH) {
+                    break;
+                }
+                int storedValueLength = Math.max(valueLength, 0);
+                int size = RECORD_HEADER_SIZE + keyLength + storedValueLength;
+                if (offset + size > length) {
+                    break;
+                }
+                byte[] record = new byte[checkRecords ? size : RECORD_HEADER_SIZE + keyLength];
+                input.readFully(record, RECORD_HEADER_SIZE, keyLength);
+                if (checkRecords) {
+                    input.readFully(record, RECORD_HEADER_SIZE + keyLength, storedValueLength);
+                    writeInt(record, 0, crc);
+                    writeInt(record, 4, keyLength);
+                    writeInt(record, 8, valueLength);
+                    if (!isValid(record, size)) {
+                        break;
+                    }
+                } else {
+                    skipFully(input, storedValueLength);
+                }
+                String key = new String(record, RECORD_HEADER_SIZE, keyLength, UTF_8);
+                visitor.onRecord(key, offset, size, valueLength);
+                offset += size;
+            }
+            return offset;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Drop the bytes after the given offset.
+     */
+    void truncate(long offset) throws IOException {
+        synchronized (randomAccessFile) {
+            randomAccessFile.setLength(offset);
+        }
+        length = offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapping = null;
+        randomAccessFile.close();
+    }
+
+    private static void skipFully(DataInputStream input, long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count) {
+            long step = input.skip(count - skipped);
+            if (step <= 0) {
+                throw new EOFException();
+            }
+            skipped += step;
+        }
+    }
+
+    private static boolean isValid(byte[] record, int size) {
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, size - RECORD_HEADER_SIZE);
+        crc.update(record, 4, RECORD_HEADER_SIZE - 4);
+        return (int) crc.getValue() == readInt(record, 0);
+    }
+
+    private static boolean isValid(ByteBuffer record) {
+        ByteBuffer content = record.duplicate();
+        content.position(RECORD_HEADER_SIZE);
+        byte[] chunk = new byte[Math.max(RECORD_HEADER_SIZE,
+            Math.min(content.remaining(), CHECK_BUFFER_SIZE))];
+        CRC32 crc = new CRC32();
+        while (content.hasRemaining()) {
+            int length = Math.min(content.remaining(), chunk.length);
+            content.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        content.position(4);
+        content.get(chunk, 0, RECORD_HEADER_SIZE - 4);
+        crc.update(chunk, 0, RECORD_HEADER_SIZE - 4);
+        return (int) crc.getValue() == record.getInt(0);
+    }
+
+    /**
+     * @return the key of a record in UTF-8.
+     * @throws IOException if the key is too long to be read back by a scan.
+     */
+    static byte[] encodeKey(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IOException("Key longer than " + MAX_KEY_LENGTH + " bytes");
+        }
+        return keyBytes;
+    }
+
+    /**
+     * @param firstSegmentId is the id of the oldest segment which may hold a record of the key.
+     * @return the value length of a tombstone.
+     */
+    static int tombstone(int firstSegmentId) {
+        return -1 - firstSegmentId;
+    }
+
+    static boolean isTombstone(int valueLength) {
+        return valueLength < 0;
+    }
+
+    /**
+     * @param tombstone is the value length of a tombstone.
+     * @return the id of the oldest segment which may hold a record of the key of the tombstone.
+     */
+    static int firstSegmentId(int tombstone) {
+        return -1 - tombstone;
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) << 24
+            | (buffer[offset + 1] & 0xff) << 16
+            | (buffer[offset + 2] & 0xff) << 8
+            | buffer[offset + 3] & 0xff;
+    }
+
+    /**
+     * Receives the records read by {@link #scan(long, boolean, Visitor)}.
+     */
+    interface Visitor {
+
+        /**
+         * @param key         is the key of the record.
+         * @param offset      is the offset of the record in the segment.
+         * @param size        is the size of the record.
+         * @param valueLength is the length of the value, or negative for a tombstone.
+         */
+        void onRecord(String key, long offset, int size, int valueLength) throws IOException;
+    }
+
+    /**
+     * Location of a record in a segment.
+     */
+    static final class Location {
+        final LogSegment segment;
+        final long offset;
+        final int size;
+        final int valueLength;
+
+        /**
+         * Id of the oldest segment which may hold a record of the key, this one or a dead one.
+         */
+        final int firstSegmentId;
+
+        /**
+         * Location of a record loaded from the segments, whose dead records are not known: any
+         * segment may hold one.
+         */
+        Location(LogSegment segment, long offset, int size, int valueLength) {
+            this(segment, offset, size, valueLength, 0);
+        }
+
+        Location(LogSegment segment, long offset, int size, int valueLength, int firstSegmentId) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.valueLength = valueLength;
+            this.firstSegmentId = firstSegmentId;
+        }
+    }
+
+    /**
+     * Snapshot of the value of a record, read in memory or mapped.
+     */
+    static final class RecordSnapshot implements DiskStore.Snapshot {
+        private final ByteBuffer value;
+
+        /**
+         * @param record is a buffer of the record, from its first byte to its last one.
+         */
+        RecordSnapshot(ByteBuffer record) {
+            ByteBuffer buffer = record.duplicate();
+            buffer.position(RECORD_HEADER_SIZE + record.getInt(4));
+            this.value = buffer.slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public long getLength() {
+            return value.remaining();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(value.duplicate());
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            return value.duplicate();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
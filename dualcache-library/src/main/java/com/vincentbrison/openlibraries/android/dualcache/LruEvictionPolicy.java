@@ -0,0 +1,44 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Map;
+
+/**
+ * Evict the least recently used entry.
+ *
+ * @param <K> is the class of the keys.
+ * @param <V> is the class of the values.
+ */
+class LruEvictionPolicy<K, V> extends EvictionPolicy<K, V> {
+
+    private final AccessOrderDeque<K, V> accessOrder = new AccessOrderDeque<>();
+
+    @Override
+    void setMaximum(int maxSize) {
+        // The LRU order does not depend on the size of the cache.
+    }
+
+    @Override
+    void onAdd(RamLruCache.Node<K, V> node) {
+        accessOrder.addLast(node);
+    }
+
+    @Override
+    void onAccess(RamLruCache.Node<K, V> node) {
+        accessOrder.moveToBack(node);
+    }
+
+    @Override
+    void onRemove(RamLruCache.Node<K, V> node) {
+        accessOrder.unlink(node);
+    }
+
+    @Override
+    RamLruCache.Node<K, V> evict() {
+        return accessOrder.pollFirst();
+    }
+
+    @Override
+    void copyTo(Map<K, V> copy) {
+        copyTo(accessOrder, copy);
+    }
+}
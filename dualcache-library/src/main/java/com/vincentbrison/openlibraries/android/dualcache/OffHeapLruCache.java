@@ -0,0 +1,130 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Cache used by the RAM cache layer when storing serialized objects outside of the managed heap.
+ * The bytes are kept in a {@link SlabAllocator}, while a {@link RamLruCache} indexes the keys
+ * and applies the eviction policy to the sizes of the values, so the byte budget is the same as
+ * with {@link ByteArrayLruCache}. Reads copy the value back to the heap.
+ *
+ * <p>Chunks are larger than the values they hold, and slabs may be partially used, so the same
+ * budget also bounds the direct memory reserved: when a value does not fit in it, entries are
+ * evicted until it does.
+ */
+class OffHeapLruCache implements RamCache<String, byte[]> {
+
+    private final SlabAllocator allocator;
+    private final RamLruCache<String, SlabAllocator.Slot> index;
+    private final EvictionListener<String, byte[]> evictionListener;
+
+    /**
+     * @param maxSize          is the maximum sum of the sizes of the values in this cache.
+     * @param evictionPolicy   chooses the entries to evict when the cache is full.
+     * @param evictionListener is notified of the evicted entries, with their values copied back
+     *                         to the heap, or null.
+     */
+    OffHeapLruCache(
+        int maxSize,
+        DualCacheRamEvictionPolicy evictionPolicy,
+        final EvictionListener<String, byte[]> evictionListener
+    ) {
+        this.allocator = new SlabAllocator(maxSize);
+        this.evictionListener = evictionListener;
+        this.index = new RamLruCache<String, SlabAllocator.Slot>(maxSize, evictionPolicy) {
+            @Override
+            protected int sizeOf(String key, SlabAllocator.Slot value) {
+                return value.length();
+            }
+
+            @Override
+            protected void entryEvicting(String key, SlabAllocator.Slot value) {
+                if (evictionListener != null) {
+                    // The chunk is only released once the evicted value has been copied.
+                    evictionListener.onEvicting(key, allocator.read(value));
+                }
+            }
+
+            @Override
+            protected void entryRemoved(
+                boolean evicted, String key, SlabAllocator.Slot oldValue,
+                SlabAllocator.Slot newValue
+            ) {
+                allocator.free(oldValue);
+                if (evicted && evictionListener != null) {
+                    evictionListener.onEvicted(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the value cached for the key, or null if there is none or if it has been replaced
+     * while being read.
+     */
+    @Override
+    public byte[] get(String key) {
+        SlabAllocator.Slot slot = index.get(key);
+        return slot == null ? null : allocator.read(slot);
+    }
+
+    /**
+     * @return always null, previous values are not copied back to the heap.
+     */
+    @Override
+    public byte[] put(String key, byte[] value) {
+        if (value.length > index.maxSize()) {
+            // The value would be evicted right away, do not reserve memory for it. It is handed to
+            // the listener before the previous value is removed, so that reads never miss both.
+            if (evictionListener != null) {
+                evictionListener.onEvicting(key, value);
+            }
+            index.remove(key);
+            if (evictionListener != null) {
+                evictionListener.onEvicted(key);
+            }
+            return null;
+        }
+        SlabAllocator.Slot slot = allocator.tryAllocate(value.length);
+        while (slot == null && index.size() > 0) {
+            index.trimToSize(index.size() - 1);
+            slot = allocator.tryAllocate(value.length);
+        }
+        if (slot == null) {
+            // Only the chunks of concurrent puts are left.
+            slot = allocator.allocate(value.length);
+        }
+        allocator.write(slot, value);
+        index.put(key, slot);
+        return null;
+    }
+
+    /**
+     * @return always null, previous values are not copied back to the heap.
+     */
+    @Override
+    public byte[] remove(String key) {
+        index.remove(key);
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public void evictAll() {
+        index.evictAll();
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return the number of bytes reserved in direct buffers.
+     */
+    long reservedSize() {
+        return allocator.capacity();
+    }
+}
@@ -0,0 +1,80 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Operations of the RAM cache layer used by {@link DualCache}. Implementations are thread-safe and
+ * bound the sum of the sizes of their entries.
+ *
+ * @param <K> is the class of the keys.
+ * @param <V> is the class of the values.
+ */
+interface RamCache<K, V> {
+
+    /**
+     * @param key is the key of the entry.
+     * @return the value cached for the key, or null if there is none.
+     */
+    V get(K key);
+
+    /**
+     * Cache a value, evicting other entries if the cache is full.
+     *
+     * @param key   is the key of the entry.
+     * @param value is the value to cache.
+     * @return the previous value cached for the key if the implementation keeps it available,
+     * null otherwise.
+     */
+    V put(K key, V value);
+
+    /**
+     * Remove the entry of a key.
+     *
+     * @param key is the key of the entry.
+     * @return the previous value cached for the key if the implementation keeps it available,
+     * null otherwise.
+     */
+    V remove(K key);
+
+    /**
+     * @param key is the key of the entry.
+     * @return true if a value is cached for the key. This does not count as an access.
+     */
+    boolean containsKey(K key);
+
+    /**
+     * Remove all the entries.
+     */
+    void evictAll();
+
+    /**
+     * @return the sum of the sizes of the entries.
+     */
+    int size();
+
+    /**
+     * Listener of the entries evicted to make space or by {@link #evictAll()}. It is not called
+     * for entries replaced or removed explicitly. Both methods are called on the thread which
+     * caused the eviction.
+     *
+     * @param <K> is the class of the keys.
+     * @param <V> is the class of the values.
+     */
+    interface EvictionListener<K, V> {
+
+        /**
+         * Called while an entry is being evicted, under the lock of the cache: other threads see
+         * the entry either in the cache or in the state left by this method, which must be fast
+         * and must not call the cache.
+         *
+         * @param key   is the key of the entry.
+         * @param value is the value of the entry.
+         */
+        void onEvicting(K key, V value);
+
+        /**
+         * Called after an entry has been evicted, without holding the lock of the cache.
+         *
+         * @param key is the key of the entry.
+         */
+        void onEvicted(K key);
+    }
+}
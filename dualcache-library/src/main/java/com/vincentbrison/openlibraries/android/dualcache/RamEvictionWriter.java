@@ -0,0 +1,51 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * Writes the objects evicted from the RAM layer in the disk layer, unless expired. Used when the
+ * disk layer only receives the RAM evictions.
+ *
+ * <p>An evicted object is added to the pending writes of the disk layer while it is evicted, so
+ * that reads never miss it, and a removal of its key racing with the eviction always wins. It is
+ * then written once the RAM layer is unlocked, decoded only if the disk layer needs it.
+ *
+ * @param <T> is the class of cached objects.
+ */
+final class RamEvictionWriter<T> implements RamLayer.EvictionListener<T> {
+
+    private final DiskLayer<T> diskLayer;
+    private final Expirations expirations;
+    private final boolean isSameSerializer;
+
+    /**
+     * @param isSameSerializer is true if the serialized form of the RAM layer can be written as is.
+     */
+    RamEvictionWriter(DiskLayer<T> diskLayer, Expirations expirations, boolean isSameSerializer) {
+        this.diskLayer = diskLayer;
+        this.expirations = expirations;
+        this.isSameSerializer = isSameSerializer;
+    }
+
+    @Override
+    public void onEvicting(String key, final RamLayer.Evicted<T> evicted) {
+        long expiresAt = expirations.getExpiresAt(key);
+        if (Expirations.isExpired(expiresAt)) {
+            return;
+        }
+        diskLayer.addPending(key, new DiskValue<T>(null, null, expiresAt) {
+            @Override
+            T decodeObject() {
+                return evicted.getObject();
+            }
+
+            @Override
+            byte[] decodeSerialized() {
+                return isSameSerializer ? evicted.getSerialized() : null;
+            }
+        });
+    }
+
+    @Override
+    public void onEvicted(String key) {
+        diskLayer.writePending(key);
+    }
+}
@@ -0,0 +1,300 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+
+/**
+ * RAM layer of a {@link DualCache}, storing either references to objects or serialized objects,
+ * optionally compressed, on or off the managed heap, and optionally fronted by a cache of decoded
+ * objects. Objects evicted to make space can be handed to an {@link EvictionListener}.
+ *
+ * @param <T> is the class of cached objects.
+ */
+class RamLayer<T> {
+
+    /**
+     * Number of stripes of keys sharing a version.
+     */
+    private static final int VERSION_STRIPES = 64;
+
+    /**
+     * Cache of the objects, either {@link #referenceCache} or {@link #serializedCache}.
+     */
+    private final RamCache<String, ?> ramCache;
+    private final RamCache<String, T> referenceCache;
+    private final RamCache<String, byte[]> serializedCache;
+
+    /**
+     * Objects recently decoded from the serialized RAM layer, or null if disabled.
+     */
+    private final ReferenceLruCache<T> decodedCache;
+
+    /**
+     * Version of each stripe of keys, incremented by each put or removal of one of its keys while
+     * holding the lock of the stripe. A decoded object is only kept if the version of its stripe
+     * has not changed since it was read, so that a racing put or removal is never undone.
+     */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private final Object[] versionLocks = new Object[VERSION_STRIPES];
+    private final boolean isSerialized;
+    private final BinaryCacheSerializer<T> serializer;
+
+    RamLayer(DualCacheConfig<T> config, EvictionListener<T> evictionListener, Logger logger) {
+        this.serializer = config.ramSerializer;
+        this.isSerialized = !config.ramMode.equals(DualCacheRamMode.ENABLE_WITH_REFERENCE);
+
+        int maxRamSizeBytes = config.maxRamSizeBytes;
+        DualCacheRamEvictionPolicy evictionPolicy = config.ramEvictionPolicy;
+        boolean compressed = config.ramCompressed;
+
+        if (isSerialized) {
+            RamCache<String, byte[]> serialized;
+            if (config.ramMode.equals(DualCacheRamMode.ENABLE_WITH_SPECIFIC_SERIALIZER_OFF_HEAP)) {
+                serialized = new OffHeapLruCache(maxRamSizeBytes, evictionPolicy,
+                    onSerializedEviction(evictionListener, compressed));
+            } else {
+                serialized = new ByteArrayLruCache(maxRamSizeBytes, evictionPolicy,
+                    onSerializedEviction(evictionListener, compressed));
+            }
+            if (compressed) {
+                serialized = new CompressedRamCache(serialized, logger);
+            }
+            this.referenceCache = null;
+            this.serializedCache = serialized;
+            this.ramCache = serialized;
+        } else {
+            this.referenceCache = new ReferenceLruCache<>(maxRamSizeBytes, config.sizeOf,
+                evictionPolicy, onReferenceEviction(evictionListener));
+            this.serializedCache = null;
+            this.ramCache = referenceCache;
+        }
+        for (int i = 0; i < VERSION_STRIPES; i++) {
+            versionLocks[i] = new Object();
+        }
+        if (isSerialized && config.decodedSizeOf != null) {
+            this.decodedCache = new ReferenceLruCache<>(
+                config.maxDecodedSizeBytes, config.decodedSizeOf, evictionPolicy);
+        } else {
+            this.decodedCache = null;
+        }
+    }
+
+    private RamCache.EvictionListener<String, T> onReferenceEviction(
+        final EvictionListener<T> listener
+    ) {
+        if (listener == null) {
+            return null;
+        }
+        return new RamCache.EvictionListener<String, T>() {
+            @Override
+            public void onEvicting(String key, final T value) {
+                listener.onEvicting(key, new Evicted<T>() {
+                    @Override
+                    public T getObject() {
+                        return value;
+                    }
+
+                    @Override
+                    public byte[] getSerialized() {
+                        return null;
+                    }
+                });
+            }
+
+            @Override
+            public void onEvicted(String key) {
+                listener.onEvicted(key);
+            }
+        };
+    }
+
+    private RamCache.EvictionListener<String, byte[]> onSerializedEviction(
+        final EvictionListener<T> listener, final boolean compressed
+    ) {
+        if (listener == null) {
+            return null;
+        }
+        return new RamCache.EvictionListener<String, byte[]>() {
+            @Override
+            public void onEvicting(String key, final byte[] value) {
+                // Decoded on demand, out of the lock of the cache, and only if needed.
+                listener.onEvicting(key, new Evicted<T>() {
+                    @Override
+                    public T getObject() {
+                        return serializer.fromBytes(getSerialized());
+                    }
+
+                    @Override
+                    public byte[] getSerialized() {
+                        if (!compressed) {
+                            return value;
+                        }
+                        try {
+                            return CompressedRamCache.decompress(value);
+                        } catch (DataFormatException e) {
+                            throw new IllegalStateException("Corrupted value evicted from RAM", e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onEvicted(String key) {
+                listener.onEvicted(key);
+            }
+        };
+    }
+
+    /**
+     * @return true if this layer stores serialized objects.
+     */
+    boolean isSerialized() {
+        return isSerialized;
+    }
+
+    /**
+     * @return the object of the key, or null if it is not in this layer.
+     */
+    T get(String key) {
+        if (decodedCache != null) {
+            T decoded = decodedCache.get(key);
+            if (decoded != null) {
+                return decoded;
+            }
+        }
+
+        if (!isSerialized) {
+            return referenceCache.get(key);
+        }
+        int stripe = stripe(key);
+        long version = versions.get(stripe);
+        byte[] serialized = serializedCache.get(key);
+        if (serialized == null) {
+            return null;
+        }
+        T decoded = serializer.fromBytes(serialized);
+        if (decodedCache != null) {
+            synchronized (versionLocks[stripe]) {
+                if (versions.get(stripe) == version) {
+                    decodedCache.put(key, decoded);
+                }
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the object serialized by the serializer of this layer if it stores serialized
+     * objects, null otherwise.
+     */
+    byte[] serialize(T object) {
+        return isSerialized ? serializer.toBytes(object) : null;
+    }
+
+    /**
+     * Put an object in this layer.
+     *
+     * @param serialized is the object already serialized by the serializer of this layer, or null.
+     */
+    void put(String key, T object, byte[] serialized) {
+        if (!isSerialized) {
+            referenceCache.put(key, object);
+            return;
+        }
+        serializedCache.put(key, serialized != null ? serialized : serializer.toBytes(object));
+        if (decodedCache != null) {
+            incrementVersion(stripe(key));
+            decodedCache.put(key, object);
+        }
+    }
+
+    void remove(String key) {
+        ramCache.remove(key);
+        if (decodedCache != null) {
+            incrementVersion(stripe(key));
+            decodedCache.remove(key);
+        }
+    }
+
+    void removeAll(Collection<String> keys) {
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    boolean contains(String key) {
+        return ramCache.containsKey(key) || decodedCache != null && decodedCache.containsKey(key);
+    }
+
+    void evictAll() {
+        ramCache.evictAll();
+        if (decodedCache != null) {
+            for (int i = 0; i < VERSION_STRIPES; i++) {
+                incrementVersion(i);
+            }
+            decodedCache.evictAll();
+        }
+    }
+
+    private static int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    /**
+     * Invalidate the objects being decoded from a stripe of keys. Called after changing the
+     * serialized objects and before changing the decoded objects: a decoded object kept before is
+     * replaced or removed next, and one read before can not be kept anymore.
+     */
+    private void incrementVersion(int stripe) {
+        synchronized (versionLocks[stripe]) {
+            versions.incrementAndGet(stripe);
+        }
+    }
+
+    long size() {
+        return ramCache.size();
+    }
+
+    /**
+     * Listener of the objects evicted from a {@link RamLayer} to make space or by
+     * {@link #evictAll()}, called on the thread which caused the eviction.
+     *
+     * @param <T> is the class of cached objects.
+     */
+    interface EvictionListener<T> {
+
+        /**
+         * Called while an object is being evicted, before it is missing from the layer for other
+         * threads, like {@link RamCache.EvictionListener#onEvicting}.
+         *
+         * @param key     is the key of the object.
+         * @param evicted gives the evicted object, which must not be decoded by this method.
+         */
+        void onEvicting(String key, Evicted<T> evicted);
+
+        /**
+         * Called after an object has been evicted, without holding the lock of the layer.
+         *
+         * @param key is the key of the object.
+         */
+        void onEvicted(String key);
+    }
+
+    /**
+     * Object evicted from a {@link RamLayer}, decoded by each call.
+     *
+     * @param <T> is the class of cached objects.
+     */
+    interface Evicted<T> {
+
+        T getObject();
+
+        /**
+         * @return the object serialized by the serializer of the layer, or null if the layer
+         * stores references.
+         */
+        byte[] getSerialized();
+    }
+}
@@ -16,9 +16,11 @@
 
 package com.vincentbrison.openlibraries.android.dualcache;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A cache that holds strong references to a limited number of values. Each time
@@ -44,13 +46,19 @@ import java.util.Map;
  *       }
  *   }}</pre>
  *
- * <p>This class is thread-safe. Perform multiple cache operations atomically by
- * synchronizing on the cache: <pre>   {@code
- *   synchronized (cache) {
- *     if (cache.get(key) == null) {
- *         cache.put(key, value);
- *     }
- *   }}</pre>
+ * <p>This class is thread-safe. Lookups are served from a {@link ConcurrentHashMap}
+ * without locking: a hit only records its entry in a striped {@link ReadBuffer},
+ * which is replayed against the access order later by whichever thread holds
+ * the eviction lock. Writes, removals and evictions are serialized by that
+ * lock, so the size of the cache is always checked against a single global
+ * budget. Under heavy contention some recorded reads may be dropped, making
+ * the eviction order an approximation of the exact LRU order.
+ *
+ * <p>The entries to evict are chosen by an {@link EvictionPolicy}, LRU by
+ * default. The policies keep their order in {@link AccessOrderDeque}s linking
+ * the entries themselves, so touching or evicting an entry is O(1) and does
+ * not need any lookup. The size of each entry is computed once, when it is
+ * added.
  *
  * <p>This class does not allow null to be used as a key or value. A return
  * value of null from {@link #get}, {@link #put} or {@link #remove} is
@@ -60,18 +68,27 @@ import java.util.Map;
  * of <a href="http://developer.android.com/sdk/compatibility-library.html">Android's
  * Support Package</a> for earlier releases.
  */
-class RamLruCache<K, V> {
-    private final LinkedHashMap<K, V> map;
+class RamLruCache<K, V> implements RamCache<K, V> {
+    /** Entries of the cache, read without locking. */
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+
+    /** Order of eviction of the entries of {@link #data}, guarded by {@link #evictionLock}. */
+    private final EvictionPolicy<K, V> policy;
+
+    /** Reads not yet replayed against {@link #policy}. */
+    private final ReadBuffer<Node<K, V>> readBuffer;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
     /** Size of this cache in units. Not necessarily the number of elements. */
     private int size;
-    private int maxSize;
+    private volatile int maxSize;
 
     private int putCount;
     private int createCount;
     private int evictionCount;
     private int hitCount;
-    private int missCount;
+    private final AtomicInteger missCount = new AtomicInteger();
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -79,11 +96,24 @@ class RamLruCache<K, V> {
      *     this is the maximum sum of the sizes of the entries in this cache.
      */
     public RamLruCache(int maxSize) {
+        this(maxSize, DualCacheRamEvictionPolicy.LRU);
+    }
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     * @param evictionPolicy chooses the entries to evict when the cache is full.
+     */
+    public RamLruCache(int maxSize, DualCacheRamEvictionPolicy evictionPolicy) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         this.maxSize = maxSize;
-        this.map = new LinkedHashMap<K, V>(0, 0.75f, true);
+        this.data = new ConcurrentHashMap<K, Node<K, V>>();
+        this.policy = EvictionPolicy.create(evictionPolicy);
+        this.policy.setMaximum(maxSize);
+        this.readBuffer = new ReadBuffer<Node<K, V>>();
     }
 
     /**
@@ -96,8 +126,12 @@ class RamLruCache<K, V> {
             throw new IllegalArgumentException("maxSize <= 0");
         }
 
-        synchronized (this) {
+        evictionLock.lock();
+        try {
             this.maxSize = maxSize;
+            policy.setMaximum(maxSize);
+        } finally {
+            evictionLock.unlock();
         }
         trimToSize(maxSize);
     }
@@ -108,20 +142,20 @@ class RamLruCache<K, V> {
      * head of the queue. This returns null if a value is not cached and cannot
      * be created.
      */
+    @Override
     public final V get(K key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        V mapValue;
-        synchronized (this) {
-            mapValue = map.get(key);
-            if (mapValue != null) {
-                hitCount++;
-                return mapValue;
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            if (readBuffer.offer(node)) {
+                tryToDrainReadBuffer();
             }
-            missCount++;
+            return node.value;
         }
+        missCount.incrementAndGet();
 
         /*
          * Attempt to create a value. This may take a long time, and the map
@@ -135,16 +169,24 @@ class RamLruCache<K, V> {
             return null;
         }
 
-        synchronized (this) {
+        Node<K, V> created = new Node<K, V>(key, createdValue, safeSizeOf(key, createdValue));
+        V mapValue = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
             createCount++;
-            mapValue = map.put(key, createdValue);
+            node = data.putIfAbsent(key, created);
 
-            if (mapValue != null) {
-                // There was a conflict so undo that last put
-                map.put(key, mapValue);
+            if (node != null) {
+                // There was a conflict so keep the value already cached
+                mapValue = node.value;
+                policy.onAccess(node);
             } else {
-                size += safeSizeOf(key, createdValue);
+                policy.onAdd(created);
+                size += created.weight;
             }
+        } finally {
+            evictionLock.unlock();
         }
 
         if (mapValue != null) {
@@ -162,19 +204,28 @@ class RamLruCache<K, V> {
      *
      * @return the previous value mapped by {@code key}.
      */
+    @Override
     public final V put(K key, V value) {
         if (key == null || value == null) {
             throw new NullPointerException("key == null || value == null");
         }
 
-        V previous;
-        synchronized (this) {
+        Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value));
+        V previous = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
             putCount++;
-            size += safeSizeOf(key, value);
-            previous = map.put(key, value);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
+            size += node.weight;
+            Node<K, V> previousNode = data.put(key, node);
+            if (previousNode != null) {
+                previous = previousNode.value;
+                policy.onRemove(previousNode);
+                size -= previousNode.weight;
             }
+            policy.onAdd(node);
+        } finally {
+            evictionLock.unlock();
         }
 
         if (previous != null) {
@@ -196,8 +247,9 @@ class RamLruCache<K, V> {
         while (true) {
             K key;
             V value;
-            synchronized (this) {
-                if (size < 0 || (map.isEmpty() && size != 0)) {
+            evictionLock.lock();
+            try {
+                if (size < 0 || (data.isEmpty() && size != 0)) {
                     throw new IllegalStateException(getClass().getName()
                             + ".sizeOf() is reporting inconsistent results!");
                 }
@@ -205,25 +257,20 @@ class RamLruCache<K, V> {
                 if (size <= maxSize) {
                     break;
                 }
-                Map.Entry<K, V> toEvict = null;
-                try {
-                    toEvict = (Map.Entry<K, V>) map.getClass().getMethod("eldest").invoke(map);
-
-                } catch (NoSuchMethodException e) {
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    e.printStackTrace();
-                }
+                drainReadBuffer();
+                Node<K, V> toEvict = policy.evict();
                 if (toEvict == null) {
                     break;
                 }
-                key = toEvict.getKey();
-                value = toEvict.getValue();
-                map.remove(key);
-                size -= safeSizeOf(key, value);
+                key = toEvict.key;
+                value = toEvict.value;
+                // Before the entry leaves the map, which is read without locking.
+                entryEvicting(key, value);
+                data.remove(key, toEvict);
+                size -= toEvict.weight;
                 evictionCount++;
+            } finally {
+                evictionLock.unlock();
             }
             entryRemoved(true, key, value, null);
         }
@@ -234,17 +281,24 @@ class RamLruCache<K, V> {
      *
      * @return the previous value mapped by {@code key}.
      */
+    @Override
     public final V remove(K key) {
         if (key == null) {
             throw new NullPointerException("key == null");
         }
 
-        V previous;
-        synchronized (this) {
-            previous = map.remove(key);
-            if (previous != null) {
-                size -= safeSizeOf(key, previous);
+        V previous = null;
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            Node<K, V> previousNode = data.remove(key);
+            if (previousNode != null) {
+                previous = previousNode.value;
+                policy.onRemove(previousNode);
+                size -= previousNode.weight;
             }
+        } finally {
+            evictionLock.unlock();
         }
 
         if (previous != null) {
@@ -254,6 +308,49 @@ class RamLruCache<K, V> {
         return previous;
     }
 
+    /**
+     * Returns true if a value is cached for {@code key}. Unlike {@link #get},
+     * this does not count as an access and does not change the eviction order.
+     */
+    @Override
+    public final boolean containsKey(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return data.containsKey(key);
+    }
+
+    /**
+     * Replay the recorded reads if no other thread is already maintaining the
+     * access order. Readers never wait for the eviction lock.
+     */
+    private void tryToDrainReadBuffer() {
+        if (evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Move every entry read since the last drain to the head of the queue.
+     * Entries removed in the meantime are skipped. Must be called while
+     * holding {@link #evictionLock}.
+     */
+    private void drainReadBuffer() {
+        for (int i = 0; i < readBuffer.stripeCount(); i++) {
+            Node<K, V> node;
+            while ((node = readBuffer.poll(i)) != null) {
+                if (AccessOrderDeque.isLinked(node)) {
+                    policy.onAccess(node);
+                }
+                hitCount++;
+            }
+        }
+    }
+
     /**
      * Called for entries that have been evicted or removed. This method is
      * invoked when a value is evicted to make space, removed by a call to
@@ -271,6 +368,17 @@ class RamLruCache<K, V> {
      */
     protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
 
+    /**
+     * Called for entries being evicted to make space or by {@link #evictAll},
+     * while holding the eviction lock and before the entry is removed, so that
+     * other threads see it either in the cache or in the state left by this
+     * method. {@link #entryRemoved} is called for them afterwards. The default
+     * implementation does nothing.
+     *
+     * <p>This method must be fast and must not call the cache.
+     */
+    protected void entryEvicting(K key, V value) {}
+
     /**
      * Called after a cache miss to compute a value for the corresponding key.
      * Returns the computed value or null if no value can be computed. The
@@ -312,6 +420,7 @@ class RamLruCache<K, V> {
     /**
      * Clear the cache, calling {@link #entryRemoved} on each removed entry.
      */
+    @Override
     public final void evictAll() {
         trimToSize(-1); // -1 will evict 0-sized elements
     }
@@ -321,8 +430,14 @@ class RamLruCache<K, V> {
      * of entries in the cache. For all other caches, this returns the sum of
      * the sizes of the entries in this cache.
      */
-    public synchronized final int size() {
-        return size;
+    @Override
+    public final int size() {
+        evictionLock.lock();
+        try {
+            return size;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
@@ -330,59 +445,112 @@ class RamLruCache<K, V> {
      * number of entries in the cache. For all other caches, this returns the
      * maximum sum of the sizes of the entries in this cache.
      */
-    public synchronized final int maxSize() {
+    public final int maxSize() {
         return maxSize;
     }
 
     /**
      * Returns the number of times {@link #get} returned a value that was
-     * already present in the cache.
+     * already present in the cache. Hits dropped by a contended read buffer
+     * are not counted.
      */
-    public synchronized final int hitCount() {
-        return hitCount;
+    public final int hitCount() {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            return hitCount;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * Returns the number of times {@link #get} returned null or required a new
      * value to be created.
      */
-    public synchronized final int missCount() {
-        return missCount;
+    public final int missCount() {
+        return missCount.get();
     }
 
     /**
      * Returns the number of times {@link #create(Object)} returned a value.
      */
-    public synchronized final int createCount() {
-        return createCount;
+    public final int createCount() {
+        evictionLock.lock();
+        try {
+            return createCount;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * Returns the number of times {@link #put} was called.
      */
-    public synchronized final int putCount() {
-        return putCount;
+    public final int putCount() {
+        evictionLock.lock();
+        try {
+            return putCount;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
      * Returns the number of values that have been evicted.
      */
-    public synchronized final int evictionCount() {
-        return evictionCount;
+    public final int evictionCount() {
+        evictionLock.lock();
+        try {
+            return evictionCount;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
-     * Returns a copy of the current contents of the cache, ordered from least
-     * recently accessed to most recently accessed.
+     * Returns a copy of the current contents of the cache, ordered from the
+     * first to the last candidate for eviction. With the LRU policy, this is
+     * from least recently accessed to most recently accessed.
      */
-    public synchronized final Map<K, V> snapshot() {
-        return new LinkedHashMap<K, V>(map);
+    public final Map<K, V> snapshot() {
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            Map<K, V> copy = new LinkedHashMap<K, V>();
+            policy.copyTo(copy);
+            return copy;
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
-    @Override public synchronized final String toString() {
-        int accesses = hitCount + missCount;
-        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+    @Override public final String toString() {
+        int hits = hitCount();
+        int misses = missCount();
+        int accesses = hits + misses;
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
         return String.format("LruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
-                maxSize, hitCount, missCount, hitPercent);
+                maxSize, hits, misses, hitPercent);
+    }
+
+    /**
+     * Entry of the cache. The links are only accessed under the eviction
+     * lock, the other fields never change once the entry is published.
+     */
+    static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        Node<K, V> prev;
+        Node<K, V> next;
+        /** Region of the eviction policy holding this entry. */
+        int queue;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
     }
 }
@@ -0,0 +1,108 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lossy, striped buffer used by {@link RamLruCache} to record reads without taking the eviction
+ * lock. Each thread publishes into the stripe selected by its id, so concurrent readers rarely
+ * touch the same counters. Elements are consumed in batches by the single thread holding the
+ * eviction lock. When a stripe is full, new elements are dropped: the recency information is
+ * only a hint and losing some of it under heavy contention is cheaper than blocking the reader.
+ *
+ * @param <E> is the class of recorded elements.
+ */
+class ReadBuffer<E> {
+
+    /**
+     * Number of elements a stripe can hold. Must be a power of two.
+     */
+    private static final int STRIPE_CAPACITY = 16;
+    private static final int STRIPE_MASK = STRIPE_CAPACITY - 1;
+    private static final int MAX_STRIPES = 64;
+
+    /**
+     * Multiplier used to spread thread ids over the stripes.
+     */
+    private static final int SPREAD = 0x9E3779B9;
+
+    private final Stripe<E>[] stripes;
+    private final int stripesMask;
+
+    /**
+     * Arrays of a generic type can not be created: the array of stripes is created with a
+     * wildcard and cast, which is safe since it never leaves this instance.
+     */
+    @SuppressWarnings("unchecked")
+    ReadBuffer() {
+        int count = 1;
+        int wanted = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+        while (count < wanted) {
+            count <<= 1;
+        }
+        stripes = (Stripe<E>[]) new Stripe<?>[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        stripesMask = count - 1;
+    }
+
+    /**
+     * Record an element.
+     *
+     * @param element is the element to record.
+     * @return true if the stripe used is full and should be drained.
+     */
+    boolean offer(E element) {
+        int hash = (int) Thread.currentThread().getId() * SPREAD;
+        Stripe<E> stripe = stripes[(hash >>> 16) & stripesMask];
+        long head = stripe.readCounter;
+        long tail = stripe.writeCounter.get();
+        if (tail - head >= STRIPE_CAPACITY) {
+            return true;
+        }
+        if (stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            stripe.buffer.lazySet((int) (tail & STRIPE_MASK), element);
+            return tail - head + 1 >= STRIPE_CAPACITY;
+        }
+        // Another reader won the slot, drop the element.
+        return false;
+    }
+
+    /**
+     * @return the number of stripes of this buffer.
+     */
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Take the oldest element recorded in the given stripe. Must only be called by the thread
+     * holding the lock protecting the consumer side.
+     *
+     * @param stripeIndex is the stripe to poll.
+     * @return the oldest element, or null if none is available yet.
+     */
+    E poll(int stripeIndex) {
+        Stripe<E> stripe = stripes[stripeIndex];
+        long head = stripe.readCounter;
+        if (head == stripe.writeCounter.get()) {
+            return null;
+        }
+        int index = (int) (head & STRIPE_MASK);
+        E element = stripe.buffer.get(index);
+        if (element == null) {
+            // The slot is reserved but the writer did not publish it yet.
+            return null;
+        }
+        stripe.buffer.lazySet(index, null);
+        stripe.readCounter = head + 1;
+        return element;
+    }
+
+    private static final class Stripe<E> {
+        private final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(STRIPE_CAPACITY);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+    }
+}
@@ -7,6 +7,7 @@ package com.vincentbrison.openlibraries.android.dualcache;
 public class ReferenceLruCache<T> extends RamLruCache<String, T> {
 
     private SizeOf<T> mHandlerSizeOf;
+    private final EvictionListener<String, T> evictionListener;
 
     /**
      * @param maxSize for caches that do not override {@link #sizeOf}, this is
@@ -14,14 +15,44 @@ public class ReferenceLruCache<T> extends RamLruCache<String, T> {
      *                this is the maximum sum of the sizes of the entries in this cache.
      *
      * @param handler computes the size of each object stored in the RAM cache layer.
+     * @param evictionPolicy chooses the entries to evict when the cache is full.
      */
-    public ReferenceLruCache(int maxSize, SizeOf<T> handler) {
-        super(maxSize);
+    public ReferenceLruCache(
+        int maxSize, SizeOf<T> handler, DualCacheRamEvictionPolicy evictionPolicy
+    ) {
+        this(maxSize, handler, evictionPolicy, null);
+    }
+
+    /**
+     * @param evictionListener is notified of the evicted entries, or null.
+     */
+    ReferenceLruCache(
+        int maxSize,
+        SizeOf<T> handler,
+        DualCacheRamEvictionPolicy evictionPolicy,
+        EvictionListener<String, T> evictionListener
+    ) {
+        super(maxSize, evictionPolicy);
         mHandlerSizeOf = handler;
+        this.evictionListener = evictionListener;
     }
 
     @Override
     protected int sizeOf(String key, T value) {
         return mHandlerSizeOf.sizeOf(value);
     }
+
+    @Override
+    protected void entryEvicting(String key, T value) {
+        if (evictionListener != null) {
+            evictionListener.onEvicting(key, value);
+        }
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, T oldValue, T newValue) {
+        if (evicted && evictionListener != null) {
+            evictionListener.onEvicted(key);
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Refreshes the objects of a {@link DualCache} read once older than a refresh interval: the read
+ * returns the cached object at once, while the object is reloaded in the background and put
+ * again in cache. Reloads are deduplicated per key, and their number is bounded, so that reads
+ * never wait for them: the reads beyond the bound do not trigger any reload.
+ *
+ * <p>The refresh time of a key is set when the object is put. Objects without one, read from the
+ * disk layer after the cache was opened again, are refreshed on their first read. A failed reload
+ * keeps the cached object, and is retried once the refresh interval has passed again. At most
+ * {@link #MAX_REFRESH_TIMES} refresh times are kept: the due ones are forgotten first, which
+ * changes nothing, then arbitrary ones, whose objects are refreshed on their next read.
+ *
+ * @param <T> is the class of cached objects.
+ */
+final class RefreshAhead<T> {
+
+    /**
+     * Max number of reloads queued or running at once.
+     */
+    private static final int MAX_PENDING_RELOADS = 16;
+
+    /**
+     * Max number of keys with a refresh time.
+     */
+    private static final int MAX_REFRESH_TIMES = 8192;
+
+    /**
+     * Number of refresh times from which the due ones are forgotten.
+     */
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    private final long refreshIntervalMillis;
+    private final CacheLoader<T> loader;
+    private final Executor executor;
+
+    /**
+     * True if {@link #executor} has been created by this class, which must shut it down.
+     */
+    private final boolean isExecutorOwned;
+    private final Logger logger;
+
+    /**
+     * Time after which the object of each key is reloaded when read, by key.
+     */
+    private final ConcurrentMap<String, Long> refreshTimes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<T>> reloads = new ConcurrentHashMap<>();
+    private final Semaphore reloadPermits = new Semaphore(MAX_PENDING_RELOADS);
+
+    /**
+     * Approximate size of {@link #refreshTimes}, recounted by each sweep.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean isSweeping = new AtomicBoolean();
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+
+    /**
+     * @param loader   reloads the objects, or null if refresh-ahead is disabled.
+     * @param executor runs the reloads, or null to run them on a dedicated executor.
+     */
+    RefreshAhead(long refreshIntervalMillis, CacheLoader<T> loader, Executor executor,
+                 Logger logger) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.loader = loader;
+        this.isExecutorOwned = loader != null && executor == null;
+        this.executor = isExecutorOwned
+            ? IoExecutors.newReloadExecutor(MAX_PENDING_RELOADS) : executor;
+        this.logger = logger;
+    }
+
+    /**
+     * Start the refresh interval of the object of a key, which has just been put.
+     */
+    void onPut(String key) {
+        if (loader != null
+            && refreshTimes.put(key, System.currentTimeMillis() + refreshIntervalMillis) == null) {
+            onAdded();
+        }
+    }
+
+    /**
+     * Forget the refresh time of a key, whose object is not in cache anymore.
+     */
+    void remove(String key) {
+        if (loader != null && refreshTimes.remove(key) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    void clear() {
+        refreshTimes.clear();
+        size.set(0);
+    }
+
+    /**
+     * Stop the reloads: the pending ones do not put their object in cache anymore.
+     */
+    void close() {
+        clear();
+        if (isExecutorOwned) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Reload the object of a key in the background if it is due, without waiting for it.
+     *
+     * @param key   is the key of the object which has just been read.
+     * @param cache is the cache to put the reloaded object in.
+     */
+    void onRead(final String key, final DualCache<T> cache) {
+        if (loader == null || reloads.containsKey(key)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long refreshTime = refreshTimes.get(key);
+        if (refreshTime != null && refreshTime > now) {
+            return;
+        }
+        if (!reloadPermits.tryAcquire()) {
+            // Reloaded by a later read instead.
+            return;
+        }
+        // Postpone the next refresh, which also elects a single reader to reload the key.
+        Long nextRefreshTime = now + refreshIntervalMillis;
+        boolean isElected = refreshTime == null
+            ? refreshTimes.putIfAbsent(key, nextRefreshTime) == null
+            : refreshTimes.replace(key, refreshTime, nextRefreshTime);
+        FutureTask<T> reload = newReload(key, cache);
+        if (refreshTime == null && isElected) {
+            onAdded();
+        }
+        if (!isElected || reloads.putIfAbsent(key, reload) != null) {
+            reloadPermits.release();
+            return;
+        }
+        try {
+            executor.execute(reload);
+        } catch (RejectedExecutionException e) {
+            reload.cancel(false);
+        }
+    }
+
+    private void onAdded() {
+        if (size.incrementAndGet() > sweepSize && isSweeping.compareAndSet(false, true)) {
+            try {
+                sweep();
+            } finally {
+                isSweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Forget the due refresh times, and arbitrary ones if too many are left, so that half of
+     * {@link #MAX_REFRESH_TIMES} at most are kept.
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        int kept = 0;
+        for (Map.Entry<String, Long> entry : refreshTimes.entrySet()) {
+            if (entry.getValue() > now && kept < MAX_REFRESH_TIMES / 2) {
+                kept++;
+            } else {
+                refreshTimes.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        size.set(refreshTimes.size());
+        sweepSize = Math.min(MAX_REFRESH_TIMES, Math.max(MIN_SWEEP_SIZE, 2 * kept));
+    }
+
+    private FutureTask<T> newReload(final String key, final DualCache<T> cache) {
+        return new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() {
+                T loaded = loader.load(key);
+                // Not put back if the key has been deleted meanwhile.
+                if (loaded != null && refreshTimes.containsKey(key)) {
+                    cache.put(key, loaded);
+                }
+                return loaded;
+            }
+        }) {
+            @Override
+            protected void done() {
+                reloads.remove(key, this);
+                reloadPermits.release();
+                if (!isCancelled()) {
+                    logFailure(this);
+                }
+            }
+        };
+    }
+
+    private void logFailure(FutureTask<T> reload) {
+        try {
+            reload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.logError(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link DiskStore} partitioning the keys over several independent stores, by hash of the key.
+ * Each store has its own monitor, so reads and writes of keys in different shards do not wait
+ * for each other. Each shard bounds its own share of the size, so the least recently used entries
+ * are evicted per shard rather than across the whole store.
+ */
+final class ShardedDiskStore implements DiskStore {
+
+    private static final String SHARD_FOLDER_PREFIX = "shard";
+
+    private final DiskStore[] shards;
+
+    private ShardedDiskStore(DiskStore[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Open the shards, each one in its own subfolder.
+     *
+     * @param folder     is the folder of the shard folders.
+     * @param shardCount is the number of shards.
+     * @param factory    opens a shard in the given folder.
+     * @return the store.
+     * @throws IOException if a shard can not be opened. The shards already opened are closed.
+     */
+    static ShardedDiskStore open(File folder, int shardCount, ShardFactory factory)
+        throws IOException {
+        DiskStore[] shards = new DiskStore[shardCount];
+        boolean isOpen = false;
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = factory.open(new File(folder, SHARD_FOLDER_PREFIX + i));
+            }
+            isOpen = true;
+        } finally {
+            if (!isOpen) {
+                for (DiskStore shard : shards) {
+                    if (shard != null) {
+                        closeQuietly(shard);
+                    }
+                }
+            }
+        }
+        return new ShardedDiskStore(shards);
+    }
+
+    private DiskStore shardOf(HashedKey key) {
+        // The other half of the hash than the key filter, so that both use independent bits.
+        return shards[(int) ((key.hash2 & Long.MAX_VALUE) % shards.length)];
+    }
+
+    @Override
+    public Snapshot get(HashedKey key) throws IOException {
+        return shardOf(key).get(key);
+    }
+
+    @Override
+    public Editor edit(HashedKey key) throws IOException {
+        return shardOf(key).edit(key);
+    }
+
+    @Override
+    public void remove(HashedKey key) throws IOException {
+        shardOf(key).remove(key);
+    }
+
+    @Override
+    public long[] keyHashes() throws IOException {
+        long[] hashes = new long[0];
+        for (DiskStore shard : shards) {
+            long[] shardHashes = shard.keyHashes();
+            int start = hashes.length;
+            hashes = Arrays.copyOf(hashes, start + shardHashes.length);
+            System.arraycopy(shardHashes, 0, hashes, start, shardHashes.length);
+        }
+        return hashes;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (DiskStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Discard every shard, even if discarding one of them fails.
+     *
+     * @throws IOException the first error met.
+     */
+    @Override
+    public void discard() throws IOException {
+        IOException error = null;
+        for (DiskStore shard : shards) {
+            try {
+                shard.discard();
+            } catch (IOException e) {
+                error = error == null ? e : error;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Close every shard, even if closing one of them fails.
+     *
+     * @throws IOException the first error met.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (DiskStore shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                error = error == null ? e : error;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void closeQuietly(DiskStore shard) {
+        try {
+            shard.close();
+        } catch (IOException ignored) {
+            // The opening error is more relevant.
+        }
+    }
+
+    /**
+     * Opens the store of a shard.
+     */
+    interface ShardFactory {
+
+        /**
+         * @param folder is the folder of the shard.
+         * @return the store of the shard.
+         * @throws IOException if the store can not be opened.
+         */
+        DiskStore open(File folder) throws IOException;
+    }
+}
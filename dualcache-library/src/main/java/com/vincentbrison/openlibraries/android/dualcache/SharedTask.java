@@ -0,0 +1,59 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Task run once, started on an executor. A thread waiting for it runs it itself if the executor
+ * has not started it yet, so that waiting never depends on the executor having a free thread.
+ */
+final class SharedTask {
+
+    private final FutureTask<Void> task;
+    private final Logger logger;
+
+    /**
+     * Start a task on an executor, or on the calling thread if the executor rejects it.
+     *
+     * @param runnable is the task.
+     * @param executor is the executor.
+     * @param logger   logs the exception thrown by the task, if any.
+     */
+    SharedTask(Runnable runnable, Executor executor, Logger logger) {
+        this.task = new FutureTask<>(runnable, null);
+        this.logger = logger;
+        IoExecutors.executeOrRun(executor, task);
+    }
+
+    boolean isDone() {
+        return task.isDone();
+    }
+
+    /**
+     * Wait until the task is done. An interruption does not stop the wait, but is restored once
+     * it is over.
+     */
+    void await() {
+        if (task.isDone()) {
+            return;
+        }
+        // Does nothing if the task has already been started by another thread.
+        task.run();
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                task.get();
+                break;
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            } catch (ExecutionException e) {
+                logger.logError(e);
+                break;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Allocator of byte ranges in direct {@link ByteBuffer}s, which live outside of the managed heap
+ * and are not traced by the garbage collector. The memory is split into slabs, each slab being cut
+ * into chunks of a single size class. A value is stored in the smallest chunk able to hold it;
+ * values larger than a slab get a dedicated buffer. A slab is released once all its chunks are
+ * free, except the last slab of each size class, which is kept for reuse until the memory it
+ * reserves is needed by another size class.
+ *
+ * <p>The direct memory reserved, chunks and partially used slabs included, is bounded by the
+ * maximum size: {@link #tryAllocate(int)} fails rather than exceeding it, so that the cache frees
+ * entries first.
+ *
+ * <p>Allocations and releases are synchronized. Reads are not: every chunk carries a stamp which
+ * changes each time the chunk is released, and a read is only valid if the stamp of its chunk did
+ * not change while the bytes were copied.
+ */
+class SlabAllocator {
+
+    /**
+     * Maximum size of a slab, in bytes.
+     */
+    private static final int MAX_SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * Minimum number of slabs fitting in the maximum size, so that several size classes can be
+     * used at once.
+     */
+    private static final int MIN_SLABS = 16;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    /**
+     * Ratio between the chunk sizes of two consecutive size classes.
+     */
+    private static final float CHUNK_GROWTH_FACTOR = 1.25f;
+
+    private static final int CHUNK_ALIGNMENT = 8;
+
+    private final int slabSize;
+    private final long maxCapacity;
+    private final int[] chunkSizes;
+
+    /**
+     * Slabs having free chunks, for each size class.
+     */
+    private final List<List<Slab>> partialSlabs;
+
+    /**
+     * Bytes currently reserved in direct buffers.
+     */
+    private long capacity;
+
+    /**
+     * @param maxSize is the maximum number of bytes reserved in direct buffers.
+     */
+    SlabAllocator(int maxSize) {
+        maxCapacity = maxSize;
+        slabSize = align(Math.min(MAX_SLAB_SIZE, Math.max(MIN_CHUNK_SIZE, maxSize / MIN_SLABS)));
+        List<Integer> sizes = new ArrayList<>();
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < slabSize) {
+            sizes.add(chunkSize);
+            chunkSize = align((int) (chunkSize * CHUNK_GROWTH_FACTOR));
+        }
+        sizes.add(slabSize);
+        chunkSizes = new int[sizes.size()];
+        partialSlabs = new ArrayList<>(sizes.size());
+        for (int i = 0; i < chunkSizes.length; i++) {
+            chunkSizes[i] = sizes.get(i);
+            partialSlabs.add(new ArrayList<Slab>());
+        }
+    }
+
+    private static int align(int size) {
+        return (size + CHUNK_ALIGNMENT - 1) & -CHUNK_ALIGNMENT;
+    }
+
+    /**
+     * Reserve a chunk able to hold the given number of bytes, unless it requires reserving more
+     * direct memory than the maximum size.
+     *
+     * @param length is the number of bytes to store.
+     * @return the reserved chunk, or null if chunks must be released first.
+     */
+    synchronized Slot tryAllocate(int length) {
+        return allocate(length, false);
+    }
+
+    /**
+     * Reserve a chunk able to hold the given number of bytes, even beyond the maximum size.
+     *
+     * @param length is the number of bytes to store.
+     * @return the reserved chunk.
+     */
+    synchronized Slot allocate(int length) {
+        return allocate(length, true);
+    }
+
+    private Slot allocate(int length, boolean force) {
+        if (length > slabSize) {
+            if (!force && !reserve(length)) {
+                return null;
+            }
+            Slab dedicated = new Slab(-1, length, 1);
+            capacity += dedicated.chunkSize;
+            return dedicated.take(length);
+        }
+
+        int sizeClass = Arrays.binarySearch(chunkSizes, length);
+        if (sizeClass < 0) {
+            sizeClass = -sizeClass - 1;
+        }
+        List<Slab> slabs = partialSlabs.get(sizeClass);
+        if (slabs.isEmpty()) {
+            int chunkSize = chunkSizes[sizeClass];
+            int chunkCount = slabSize / chunkSize;
+            if (!force && !reserve(chunkSize * chunkCount)) {
+                return null;
+            }
+            Slab slab = new Slab(sizeClass, chunkSize, chunkCount);
+            capacity += slab.buffer.capacity();
+            slabs.add(slab);
+        }
+        Slab slab = slabs.get(slabs.size() - 1);
+        Slot slot = slab.take(length);
+        if (slab.freeCount == 0) {
+            slabs.remove(slabs.size() - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * Check that a new buffer fits in the maximum size, releasing the idle slabs kept for reuse
+     * if needed.
+     *
+     * @param size is the size of the new buffer.
+     * @return true if the buffer fits.
+     */
+    private boolean reserve(long size) {
+        if (capacity + size <= maxCapacity) {
+            return true;
+        }
+        for (List<Slab> slabs : partialSlabs) {
+            if (slabs.size() == 1 && slabs.get(0).freeCount == slabs.get(0).freeChunks.length) {
+                capacity -= slabs.remove(0).buffer.capacity();
+            }
+        }
+        return capacity + size <= maxCapacity;
+    }
+
+    /**
+     * Release a chunk. Reads of the chunk in progress will be reported as invalid.
+     *
+     * @param slot is the chunk to release, which must not be used to write anymore.
+     */
+    synchronized void free(Slot slot) {
+        Slab slab = slot.slab;
+        slab.stamps.incrementAndGet(slot.index);
+        slab.freeChunks[slab.freeCount++] = slot.index;
+        if (slab.sizeClass < 0) {
+            capacity -= slab.chunkSize;
+            return;
+        }
+
+        List<Slab> slabs = partialSlabs.get(slab.sizeClass);
+        if (slab.freeCount == 1) {
+            slabs.add(slab);
+        }
+        if (slab.freeCount == slab.freeChunks.length && slabs.size() > 1) {
+            slabs.remove(slab);
+            capacity -= slab.buffer.capacity();
+        }
+    }
+
+    /**
+     * Copy a value into its chunk. Must be called before the chunk is published to readers.
+     *
+     * @param slot  is the chunk reserved for the value.
+     * @param value is the value to copy.
+     */
+    void write(Slot slot, byte[] value) {
+        ByteBuffer view = slot.slab.buffer.duplicate();
+        view.position(slot.index * slot.slab.chunkSize);
+        view.put(value, 0, slot.length);
+    }
+
+    /**
+     * Copy a value from its chunk back to the heap.
+     *
+     * @param slot is the chunk of the value.
+     * @return the value, or null if the chunk has been released before or while it was read.
+     */
+    byte[] read(Slot slot) {
+        AtomicIntegerArray stamps = slot.slab.stamps;
+        if (stamps.get(slot.index) != slot.stamp) {
+            return null;
+        }
+        byte[] value = new byte[slot.length];
+        ByteBuffer view = slot.slab.buffer.duplicate();
+        view.position(slot.index * slot.slab.chunkSize);
+        view.get(value);
+        // The compare and set is a full fence: the copy above cannot be reordered after it.
+        return stamps.compareAndSet(slot.index, slot.stamp, slot.stamp) ? value : null;
+    }
+
+    /**
+     * @return the number of bytes currently reserved in direct buffers.
+     */
+    synchronized long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Chunks of a single size, carved from one direct buffer.
+     */
+    private static final class Slab {
+        /** Size class of the slab, or -1 for a buffer dedicated to a single large value. */
+        private final int sizeClass;
+        private final int chunkSize;
+        private final ByteBuffer buffer;
+        private final AtomicIntegerArray stamps;
+        private final int[] freeChunks;
+        private int freeCount;
+
+        Slab(int sizeClass, int chunkSize, int chunkCount) {
+            this.sizeClass = sizeClass;
+            this.chunkSize = chunkSize;
+            this.buffer = ByteBuffer.allocateDirect(chunkSize * chunkCount);
+            this.stamps = new AtomicIntegerArray(chunkCount);
+            this.freeChunks = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                // Take the chunks from the start of the buffer first.
+                freeChunks[i] = chunkCount - 1 - i;
+            }
+            this.freeCount = chunkCount;
+        }
+
+        Slot take(int length) {
+            int index = freeChunks[--freeCount];
+            return new Slot(this, index, length, stamps.get(index));
+        }
+    }
+
+    /**
+     * On-heap handle of a value stored in a chunk.
+     */
+    static final class Slot {
+        private final Slab slab;
+        private final int index;
+        private final int length;
+        private final int stamp;
+
+        private Slot(Slab slab, int index, int length, int stamp) {
+            this.slab = slab;
+            this.index = index;
+            this.length = length;
+            this.stamp = stamp;
+        }
+
+        /**
+         * @return the number of bytes of the value.
+         */
+        int length() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Adapt a {@link StreamCacheSerializer} to the {@link BinaryCacheSerializer} used when a value
+ * has to be held in memory anyway, like when the RAM layer shares the serializer of the disk
+ * layer. Two adapters are equal if they wrap the same serializer.
+ *
+ * @param <T> is the class of object to serialize/deserialize.
+ */
+final class StreamSerializerAdapter<T> implements BinaryCacheSerializer<T> {
+
+    private final StreamCacheSerializer<T> serializer;
+
+    private StreamSerializerAdapter(StreamCacheSerializer<T> serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Return a binary view of a stream serializer. Serializers already implementing
+     * {@link BinaryCacheSerializer} are used directly.
+     *
+     * @param serializer is the serializer to adapt.
+     * @param <T>        is the class of object to serialize/deserialize.
+     * @return the binary serializer.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> BinaryCacheSerializer<T> adapt(StreamCacheSerializer<T> serializer) {
+        if (serializer instanceof BinaryCacheSerializer) {
+            return (BinaryCacheSerializer<T>) serializer;
+        }
+        return new StreamSerializerAdapter<>(serializer);
+    }
+
+    /**
+     * Return the stream view of a serializer, if it has one.
+     *
+     * @param serializer is the serializer provided to the builder.
+     * @param <T>        is the class of object to serialize/deserialize.
+     * @return the stream serializer, or null if the serializer can not use streams.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> StreamCacheSerializer<T> streamOf(Object serializer) {
+        if (serializer instanceof StreamCacheSerializer) {
+            return (StreamCacheSerializer<T>) serializer;
+        }
+        return null;
+    }
+
+    @Override
+    public T fromBytes(byte[] data) {
+        try {
+            return serializer.read(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public byte[] toBytes(T object) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            serializer.write(object, outputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StreamSerializerAdapter
+            && ((StreamSerializerAdapter) o).serializer == serializer;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(serializer);
+    }
+}
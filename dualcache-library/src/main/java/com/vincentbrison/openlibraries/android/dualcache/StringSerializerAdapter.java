@@ -0,0 +1,61 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.nio.charset.Charset;
+
+/**
+ * Adapt a {@link CacheSerializer} to the {@link BinaryCacheSerializer} used internally by the
+ * cache, by encoding its Strings in UTF-8. Two adapters are equal if they wrap the same
+ * serializer, which lets the cache detect that the RAM and disk layers share a serializer.
+ *
+ * @param <T> is the class of object to serialize/deserialize.
+ */
+final class StringSerializerAdapter<T> implements BinaryCacheSerializer<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final CacheSerializer<T> serializer;
+
+    private StringSerializerAdapter(CacheSerializer<T> serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Return a binary view of a String serializer. Serializers already implementing
+     * {@link BinaryCacheSerializer} are used directly.
+     *
+     * @param serializer is the serializer to adapt.
+     * @param <T>        is the class of object to serialize/deserialize.
+     * @return the binary serializer.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> BinaryCacheSerializer<T> adapt(CacheSerializer<T> serializer) {
+        if (serializer == null) {
+            return null;
+        }
+        if (serializer instanceof BinaryCacheSerializer) {
+            return (BinaryCacheSerializer<T>) serializer;
+        }
+        return new StringSerializerAdapter<>(serializer);
+    }
+
+    @Override
+    public T fromBytes(byte[] data) {
+        return serializer.fromString(new String(data, UTF_8));
+    }
+
+    @Override
+    public byte[] toBytes(T object) {
+        return serializer.toString(object).getBytes(UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StringSerializerAdapter
+            && ((StringSerializerAdapter) o).serializer == serializer;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(serializer);
+    }
+}
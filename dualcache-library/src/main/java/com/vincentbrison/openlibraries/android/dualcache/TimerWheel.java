@@ -0,0 +1,146 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel of expiration times, in milliseconds. Each level is a ring of buckets
+ * covering a tick of a fixed duration, and the ticks of a level are as long as a whole turn of the
+ * previous level: about a second, a minute, an hour and three days. Timers are linked in the
+ * bucket of their expiration tick at the lowest level which can hold them, and timers further than
+ * the last level wait in an overflow bucket.
+ *
+ * <p>Scheduling and cancelling a timer are O(1). Advancing the wheel visits the buckets of the
+ * ticks which have passed: their timers are either expired, or moved down to a lower level, which
+ * happens at most once per level for each timer. A timer is found expired once the tick of the
+ * lowest level holding its expiration time has passed.
+ *
+ * <p>This class is not thread-safe: it is always used under the lock of {@link Expirations}.
+ */
+final class TimerWheel {
+
+    /** Number of bits of the tick of each level, then of the overflow bucket, in milliseconds. */
+    private static final int[] SHIFTS = {10, 16, 22, 28, 34};
+
+    /** Duration of a tick of the lowest level, in milliseconds. */
+    static final long TICK_MILLIS = 1L << SHIFTS[0];
+
+    /** Number of buckets of each level, matching {@link #SHIFTS}. */
+    private static final int BUCKETS = 64;
+
+    /** Buckets of each level, then the overflow bucket, as sentinels of circular lists. */
+    private final Timer[][] wheel;
+
+    /** Time the wheel has been advanced to. */
+    private long time;
+
+    TimerWheel(long now) {
+        time = now;
+        wheel = new Timer[SHIFTS.length][];
+        for (int level = 0; level < SHIFTS.length; level++) {
+            wheel[level] = new Timer[level == SHIFTS.length - 1 ? 1 : BUCKETS];
+            for (int i = 0; i < wheel[level].length; i++) {
+                Timer sentinel = new Timer(null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                wheel[level][i] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Link a timer in the bucket of its expiration time.
+     *
+     * @param timer is the timer, which must not be scheduled already.
+     */
+    void schedule(Timer timer) {
+        long expiresAt = Math.max(timer.expiresAt, time);
+        long delay = expiresAt - time;
+        Timer sentinel = wheel[SHIFTS.length - 1][0];
+        for (int level = 0; level < SHIFTS.length - 1; level++) {
+            if (delay < 1L << SHIFTS[level + 1]) {
+                sentinel = wheel[level][(int) (expiresAt >>> SHIFTS[level]) & (BUCKETS - 1)];
+                break;
+            }
+        }
+        timer.next = sentinel;
+        timer.prev = sentinel.prev;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+    }
+
+    /**
+     * Unlink a timer, if it is scheduled.
+     */
+    void cancel(Timer timer) {
+        if (timer.next != null) {
+            timer.prev.next = timer.next;
+            timer.next.prev = timer.prev;
+            timer.prev = null;
+            timer.next = null;
+        }
+    }
+
+    /**
+     * Advance the wheel to the current time.
+     *
+     * @param now is the current time.
+     * @return the timers expired at this time, which are not scheduled anymore.
+     */
+    List<Timer> advance(long now) {
+        List<Timer> expired = new ArrayList<>();
+        long previous = time;
+        if (now <= previous) {
+            return expired;
+        }
+        time = now;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long ticks = now >>> SHIFTS[level];
+            if (ticks == previousTicks) {
+                break;
+            }
+            Timer[] buckets = wheel[level];
+            long count = Math.min(ticks - previousTicks + 1, buckets.length);
+            for (long tick = previousTicks; tick < previousTicks + count; tick++) {
+                expire(buckets[(int) tick & (buckets.length - 1)], now, expired);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Empty a bucket, collecting its expired timers and scheduling the others again.
+     */
+    private void expire(Timer sentinel, long now, List<Timer> expired) {
+        Timer timer = sentinel.next;
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        while (timer != sentinel) {
+            Timer next = timer.next;
+            timer.prev = null;
+            timer.next = null;
+            if (timer.expiresAt <= now) {
+                expired.add(timer);
+            } else {
+                schedule(timer);
+            }
+            timer = next;
+        }
+    }
+
+    /**
+     * Expiration time of a key, linked in a bucket of the wheel.
+     */
+    static final class Timer {
+        final String key;
+        final long expiresAt;
+        Timer prev;
+        Timer next;
+
+        Timer(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.util.Map;
+
+/**
+ * W-TinyLFU policy. New entries go to a small LRU window (1% of the cache). When the cache is
+ * full, the eldest entry of the window is a candidate to the main region: it is admitted only if
+ * the {@link FrequencySketch} estimates that it is used more often than the victim the main
+ * region would evict, otherwise the candidate itself is evicted. The main region is a segmented
+ * LRU: entries enter its probation segment and move to its protected segment (80% of the main
+ * region) when they are accessed again.
+ *
+ * @param <K> is the class of the keys.
+ * @param <V> is the class of the values.
+ */
+class WindowTinyLfuEvictionPolicy<K, V> extends EvictionPolicy<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * Max number of keys the sketch is sized for. Sizes are usually in bytes, so the number of
+     * entries is much lower than the maximum size of the cache.
+     */
+    private static final int MAX_SKETCH_KEYS = 1 << 16;
+
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedSegment = new AccessOrderDeque<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private int windowMaxSize;
+    private int mainMaxSize;
+    private int protectedMaxSize;
+    private int windowSize;
+    private int mainSize;
+    private int protectedSize;
+
+    @Override
+    void setMaximum(int maxSize) {
+        windowMaxSize = Math.max(1, (int) ((long) maxSize * WINDOW_PERCENT / 100));
+        mainMaxSize = maxSize - windowMaxSize;
+        protectedMaxSize = (int) ((long) mainMaxSize * PROTECTED_PERCENT / 100);
+        // Sized once, since growing the sketch loses its history. Each entry weighs at least 1.
+        sketch.ensureCapacity(Math.min(maxSize, MAX_SKETCH_KEYS));
+    }
+
+    @Override
+    void onAdd(RamLruCache.Node<K, V> node) {
+        sketch.increment(node.key.hashCode());
+        node.queue = WINDOW;
+        window.addLast(node);
+        windowSize += node.weight;
+        // While the main region is not full, the window overflow is admitted without any
+        // competition. Once it is full, admission is decided when evicting.
+        while (windowSize > windowMaxSize) {
+            RamLruCache.Node<K, V> first = window.peekFirst();
+            if (mainSize + first.weight > mainMaxSize) {
+                break;
+            }
+            moveToProbation(first);
+        }
+    }
+
+    @Override
+    void onAccess(RamLruCache.Node<K, V> node) {
+        sketch.increment(node.key.hashCode());
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                node.queue = PROTECTED;
+                protectedSegment.addLast(node);
+                protectedSize += node.weight;
+                demoteProtectedOverflow();
+                break;
+            default:
+                protectedSegment.moveToBack(node);
+        }
+    }
+
+    @Override
+    void onRemove(RamLruCache.Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.unlink(node);
+                windowSize -= node.weight;
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                mainSize -= node.weight;
+                break;
+            default:
+                protectedSegment.unlink(node);
+                protectedSize -= node.weight;
+                mainSize -= node.weight;
+        }
+    }
+
+    @Override
+    RamLruCache.Node<K, V> evict() {
+        while (windowSize > windowMaxSize && !window.isEmpty()) {
+            RamLruCache.Node<K, V> candidate = window.peekFirst();
+            RamLruCache.Node<K, V> victim = mainVictim();
+            if (victim != null && !admit(candidate, victim)) {
+                onRemove(candidate);
+                return candidate;
+            }
+            moveToProbation(candidate);
+            if (victim != null) {
+                onRemove(victim);
+                return victim;
+            }
+        }
+        RamLruCache.Node<K, V> victim = mainVictim();
+        if (victim == null) {
+            victim = window.peekFirst();
+        }
+        if (victim != null) {
+            onRemove(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    void copyTo(Map<K, V> copy) {
+        copyTo(probation, copy);
+        copyTo(protectedSegment, copy);
+        copyTo(window, copy);
+    }
+
+    private void moveToProbation(RamLruCache.Node<K, V> node) {
+        window.unlink(node);
+        windowSize -= node.weight;
+        node.queue = PROBATION;
+        probation.addLast(node);
+        mainSize += node.weight;
+    }
+
+    private RamLruCache.Node<K, V> mainVictim() {
+        RamLruCache.Node<K, V> victim = probation.peekFirst();
+        return victim != null ? victim : protectedSegment.peekFirst();
+    }
+
+    private boolean admit(RamLruCache.Node<K, V> candidate, RamLruCache.Node<K, V> victim) {
+        return sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode());
+    }
+
+    private void demoteProtectedOverflow() {
+        while (protectedSize > protectedMaxSize) {
+            RamLruCache.Node<K, V> demoted = protectedSegment.pollFirst();
+            if (demoted == null) {
+                return;
+            }
+            protectedSize -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+}
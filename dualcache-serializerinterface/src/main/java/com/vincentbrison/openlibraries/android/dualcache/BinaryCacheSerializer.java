@@ -0,0 +1,23 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+/**
+ * This cache interface describe the way an object should be serialized/deserialized into a
+ * byte array, without going through an intermediate String. Prefer it to {@link CacheSerializer}
+ * for binary formats, or when the serialization library can write bytes directly.
+ * @param <T> is the class of object to serialized/deserialized.
+ */
+public interface BinaryCacheSerializer<T> {
+    /**
+     * Deserialization of a byte array into an object.
+     * @param data is the byte array representing the serialized data.
+     * @return the deserialized data.
+     */
+    T fromBytes(byte[] data);
+
+    /**
+     * Serialization of an object into a byte array.
+     * @param object is the object to serialize.
+     * @return the result of the serialization into a byte array.
+     */
+    byte[] toBytes(T object);
+}
@@ -0,0 +1,32 @@
+package com.vincentbrison.openlibraries.android.dualcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This cache interface describe the way an object should be serialized into an output stream and
+ * deserialized from an input stream. When the disk layer uses such a serializer, values are
+ * written to and read from the cache files through buffered streams, so the memory needed by a
+ * disk operation does not depend on the size of the value.
+ * @param <T> is the class of object to serialized/deserialized.
+ */
+public interface StreamCacheSerializer<T> {
+    /**
+     * Deserialization of the content of a stream into an object.
+     * @param inputStream is the stream to read the serialized data from. It is closed by the
+     *                    caller.
+     * @return the deserialized data.
+     * @throws IOException if the stream can not be read.
+     */
+    T read(InputStream inputStream) throws IOException;
+
+    /**
+     * Serialization of an object into a stream.
+     * @param object       is the object to serialize.
+     * @param outputStream is the stream to write the serialized data to. It is closed by the
+     *                     caller.
+     * @throws IOException if the stream can not be written.
+     */
+    void write(T object, OutputStream outputStream) throws IOException;
+}